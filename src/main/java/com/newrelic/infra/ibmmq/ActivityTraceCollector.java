@@ -0,0 +1,268 @@
+package com.newrelic.infra.ibmmq;
+
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.mq.MQException;
+import com.ibm.mq.MQGetMessageOptions;
+import com.ibm.mq.MQMessage;
+import com.ibm.mq.MQQueue;
+import com.ibm.mq.MQQueueManager;
+import com.ibm.mq.constants.MQConstants;
+import com.ibm.mq.headers.MQDataException;
+import com.ibm.mq.headers.pcf.MQCFGR;
+import com.ibm.mq.headers.pcf.PCFMessage;
+import com.newrelic.infra.ibmmq.constants.EventConstants;
+import com.newrelic.infra.publish.api.MetricReporter;
+import com.newrelic.infra.publish.api.metrics.AttributeMetric;
+import com.newrelic.infra.publish.api.metrics.GaugeMetric;
+import com.newrelic.infra.publish.api.metrics.Metric;
+
+/**
+ * Reads the application activity trace messages from SYSTEM.ADMIN.TRACE.ACTIVITY.QUEUE and keeps, per application
+ * name, queue and MQI operation, a call count, failure count and latency histogram of the operations they record.
+ * The queue is drained continuously with blocking gets on a dedicated connection and thread, so a busy queue manager's
+ * trace never backs up between cycles. One MQActivitySample per key is reported each cycle and the histograms are then
+ * reset. The latency is the queue manager's own operation duration, which needs a queue manager that records it
+ * (9.0.1 or later).
+ */
+public class ActivityTraceCollector implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ActivityTraceCollector.class);
+
+	private static final String TRACE_QUEUE = "SYSTEM.ADMIN.TRACE.ACTIVITY.QUEUE";
+	private static final long RECONNECT_DELAY_MS = 30000;
+	private static final int GET_WAIT_MS = 1000;
+	private static final int MAX_KEYS = 2000;
+
+	/**
+	 * Application name, queue and MQI operation an operation is counted under. The consumer looks operations up with
+	 * one reused instance and only copies it for keys it hasn't seen this interval.
+	 */
+	static class OperationKey {
+		static final OperationKey OVERFLOW = new OperationKey("*", "*", -1);
+
+		private String application;
+		private String queueName;
+		private int operationId;
+
+		OperationKey(String application, String queueName, int operationId) {
+			set(application, queueName, operationId);
+		}
+
+		OperationKey set(String application, String queueName, int operationId) {
+			this.application = application;
+			this.queueName = queueName;
+			this.operationId = operationId;
+			return this;
+		}
+
+		OperationKey copy() {
+			return new OperationKey(application, queueName, operationId);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof OperationKey)) {
+				return false;
+			}
+			OperationKey other = (OperationKey) o;
+			return operationId == other.operationId && application.equals(other.application)
+					&& queueName.equals(other.queueName);
+		}
+
+		@Override
+		public int hashCode() {
+			return (application.hashCode() * 31 + queueName.hashCode()) * 31 + operationId;
+		}
+	}
+
+	private final AgentConfig agentConfig;
+
+	// Guards the histograms, and is notified to stop the consumer.
+	private final Object lock = new Object();
+	private final LatencyHistogramTable<OperationKey> histograms = new LatencyHistogramTable<>(MAX_KEYS,
+			OperationKey.OVERFLOW);
+	// Only touched by the consumer thread.
+	private final OperationKey lookup = new OperationKey("", "", 0);
+	private long messageCount = 0;
+
+	private volatile boolean running = false;
+	private Thread thread = null;
+
+	public ActivityTraceCollector(AgentConfig agentConfig) {
+		this.agentConfig = agentConfig;
+	}
+
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "mq-activity-trace-" + agentConfig.getServerQueueManagerName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop() {
+		if (thread == null) {
+			return;
+		}
+		running = false;
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+		try {
+			thread.join(GET_WAIT_MS + 1000L);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+	}
+
+	/**
+	 * Reports the operations recorded since the last call, then resets the histograms.
+	 */
+	public void reportActivityTrace(MetricReporter metricReporter) {
+		synchronized (lock) {
+			logger.debug("{} activity trace messages read for {} keys", messageCount, histograms.size());
+			report(metricReporter);
+			histograms.reset();
+			messageCount = 0;
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			MQQueueManager mgr = null;
+			MQQueue queue = null;
+			try {
+				mgr = MQAgent.connect(agentConfig);
+				queue = mgr.accessQueue(TRACE_QUEUE, MQConstants.MQOO_INPUT_SHARED + MQConstants.MQOO_FAIL_IF_QUIESCING,
+						null, null, null);
+				consume(queue);
+			} catch (MQException e) {
+				logger.error("Problem getting activity trace messages from " + TRACE_QUEUE + ".", e);
+			} catch (Throwable t) {
+				logger.error("Problem getting activity trace messages from " + TRACE_QUEUE + ".", t);
+			} finally {
+				if (queue != null) {
+					try {
+						queue.close();
+					} catch (MQException e) {
+						logger.error("Couldn't close queue " + TRACE_QUEUE);
+					}
+				}
+				if (mgr != null) {
+					try {
+						mgr.disconnect();
+					} catch (MQException e) {
+					}
+				}
+			}
+
+			if (running) {
+				synchronized (lock) {
+					try {
+						lock.wait(RECONNECT_DELAY_MS);
+					} catch (InterruptedException e) {
+						running = false;
+					}
+				}
+			}
+		}
+	}
+
+	private void consume(MQQueue queue) throws MQException, IOException {
+		MQGetMessageOptions getOptions = new MQGetMessageOptions();
+		getOptions.options = MQConstants.MQGMO_WAIT + MQConstants.MQGMO_NO_SYNCPOINT + MQConstants.MQGMO_FAIL_IF_QUIESCING
+				+ MQConstants.MQGMO_CONVERT;
+		getOptions.matchOptions = MQConstants.MQMO_NONE;
+		getOptions.waitInterval = GET_WAIT_MS;
+
+		MQMessage message = new MQMessage();
+		while (running) {
+			try {
+				message.clearMessage();
+				queue.get(message, getOptions);
+			} catch (MQException e) {
+				if (e.reasonCode == MQConstants.MQRC_NO_MSG_AVAILABLE) {
+					continue;
+				}
+				throw e;
+			}
+			try {
+				PCFMessage pcf = new PCFMessage(message);
+				synchronized (lock) {
+					record(pcf);
+					messageCount++;
+				}
+			} catch (MQDataException e) {
+				logger.error("Skipping activity trace message that couldn't be decoded", e);
+			}
+		}
+	}
+
+	private void record(PCFMessage pcf) {
+		Object applName = pcf.getParameterValue(MQConstants.MQCACF_APPL_NAME);
+		String application = applName == null ? "" : applName.toString().trim();
+
+		Enumeration<?> params = pcf.getParameters();
+		while (params.hasMoreElements()) {
+			Object param = params.nextElement();
+			if (!(param instanceof MQCFGR) || ((MQCFGR) param).getParameter() != MQConstants.MQGACF_ACTIVITY_TRACE) {
+				continue;
+			}
+			MQCFGR operation = (MQCFGR) param;
+			Object operationId = operation.getParameterValue(MQConstants.MQIACF_OPERATION_ID);
+			if (!(operationId instanceof Integer)) {
+				continue;
+			}
+			Object objectName = operation.getParameterValue(MQConstants.MQCACF_RESOLVED_Q_NAME);
+			if (objectName == null) {
+				objectName = operation.getParameterValue(MQConstants.MQCACF_OBJECT_NAME);
+			}
+			Object compCode = operation.getParameterValue(MQConstants.MQIACF_COMP_CODE);
+			Object duration = operation.getParameterValue(MQConstants.MQIAMO64_QMGR_OP_DURATION);
+
+			lookup.set(application, objectName == null ? "" : objectName.toString().trim(), (Integer) operationId);
+			int slot = histograms.find(lookup);
+			if (slot < 0) {
+				slot = histograms.add(lookup.copy());
+			}
+			histograms.record(slot, duration instanceof Number ? ((Number) duration).longValue() : -1,
+					compCode instanceof Integer && (Integer) compCode != MQConstants.MQCC_OK);
+		}
+	}
+
+	private void report(MetricReporter metricReporter) {
+		for (int slot = 0; slot < histograms.size(); slot++) {
+			OperationKey key = histograms.key(slot);
+			String operation = key.operationId < 0 ? LatencyHistogramTable.OVERFLOW_KEY
+					: MQAgent.friendlyCodeLookup(key.operationId, "MQXF_.*");
+
+			List<Metric> metricset = new LinkedList<>();
+			metricset.add(new AttributeMetric(EventConstants.PROVIDER, EventConstants.IBM_PROVIDER));
+			metricset.add(new AttributeMetric(EventConstants.Q_MANAGER_NAME, agentConfig.getServerQueueManagerName()));
+			metricset.add(new AttributeMetric(EventConstants.Q_MANAGER_HOST, agentConfig.getServerHost()));
+			metricset.add(new AttributeMetric(EventConstants.OBJECT_ATTRIBUTE, "activity"));
+			metricset.add(new AttributeMetric(EventConstants.APPL_NAME, key.application));
+			metricset.add(new AttributeMetric(EventConstants.Q_NAME, key.queueName));
+			metricset.add(new AttributeMetric("operation", operation));
+			metricset.add(new GaugeMetric("callCount", histograms.count(slot)));
+			metricset.add(new GaugeMetric("failedCount", histograms.failures(slot)));
+			metricset.add(new GaugeMetric("latencyMeanMicros", histograms.mean(slot)));
+			metricset.add(new GaugeMetric("latencyP50Micros", histograms.percentile(slot, 50)));
+			metricset.add(new GaugeMetric("latencyP95Micros", histograms.percentile(slot, 95)));
+			metricset.add(new GaugeMetric("latencyP99Micros", histograms.percentile(slot, 99)));
+			metricset.add(new GaugeMetric("latencyMaxMicros", histograms.max(slot)));
+			metricReporter.report("MQActivitySample", metricset);
+		}
+	}
+}
@@ -9,7 +9,9 @@
 package com.newrelic.infra.ibmmq;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringUtils;
@@ -27,10 +29,51 @@ public class AgentConfig {
 	List<Pattern> topicIncludes = new ArrayList<>();
 
 	private boolean reportEventMessages = false;
+	private boolean consumeEventMessages = false;
+	private boolean browseEventMessages = false;
+	private int eventWaitInterval = 1000;
+	private int eventBatchSize = 1000;
+	private int eventCoalesceWindow = 0;
+	private int eventCoalesceMaxKeys = 1000;
 	private boolean reportMaintenanceErrors = false;
 	private boolean monitorErrorLogs;
 
 	private boolean reportAdditionalQueueStatus = false;
+	private boolean consumeStatisticsMessages = false;
+	private boolean reportActivityTrace = false;
+	private boolean reportResourceMonitoring = false;
+	private boolean reportCapacity = false;
+	private int maxChannels = 0;
+	private boolean reportConnections = false;
+	private int connectionTopCount = 10;
+	private boolean reportQueueHandles = false;
+	private int queueHandleDepthPercent = 80;
+	private int queueHandleOldestMsgAge = 300;
+	private int queueHandleUncommittedMsgs = 100;
+	private int queueSweepInterval = 0;
+	private int hotQueueMaxCount = 100;
+	private int hotQueueQuietTime = 600;
+	private boolean inquireOnDepthEvents = false;
+	private int depthEventDebounce = 10;
+	private List<String> sampleQueues = new ArrayList<>();
+	private int queueSampleInterval = 5000;
+	private boolean reportDepthTrend = false;
+	private Map<String, String> errorLogPatterns = new LinkedHashMap<>();
+	private Map<String, String> maintenanceLogPatterns = new LinkedHashMap<>();
+	private int errorLogMaxEvents = 100;
+	private String errorLogFormat = "text";
+	private boolean watchErrorLogs = false;
+	private int logPollInterval = 5;
+	private boolean monitorFdcFiles = false;
+	private String fdcPath;
+	private int fdcMaxFiles = 100;
+	private boolean reportDeadLetterQueue = false;
+	private String deadLetterQueue;
+	private int deadLetterMaxMessages = 500;
+	private Map<String, String> latencyProbeQueues = new LinkedHashMap<>();
+	private int latencyProbeInterval = 10000;
+	private int latencyProbeTimeout = 5000;
+	private int latencyProbeMaxInFlight = 5;
 	private boolean reportTopicStatus = false;
 	private boolean reportAdditionalTopicStatus = false;
 	
@@ -102,10 +145,286 @@ public class AgentConfig {
 		this.reportEventMessages = reportEventMessages;
 	}
 
+	public void setConsumeEventMessages(boolean consumeEventMessages) {
+		this.consumeEventMessages = consumeEventMessages;
+	}
+
+	public void setBrowseEventMessages(boolean browseEventMessages) {
+		this.browseEventMessages = browseEventMessages;
+	}
+
+	public void setEventWaitInterval(int eventWaitInterval) {
+		this.eventWaitInterval = eventWaitInterval > 0 ? eventWaitInterval : 1000;
+	}
+
+	public int getEventWaitInterval() {
+		return eventWaitInterval;
+	}
+
+	public void setEventBatchSize(int eventBatchSize) {
+		this.eventBatchSize = eventBatchSize > 0 ? eventBatchSize : 1000;
+	}
+
+	public int getEventBatchSize() {
+		return eventBatchSize;
+	}
+
+	public void setEventCoalesceWindow(int eventCoalesceWindow) {
+		this.eventCoalesceWindow = eventCoalesceWindow > 0 ? eventCoalesceWindow : 0;
+	}
+
+	public int getEventCoalesceWindow() {
+		return eventCoalesceWindow;
+	}
+
+	public void setEventCoalesceMaxKeys(int eventCoalesceMaxKeys) {
+		this.eventCoalesceMaxKeys = eventCoalesceMaxKeys > 0 ? eventCoalesceMaxKeys : 1000;
+	}
+
+	public int getEventCoalesceMaxKeys() {
+		return eventCoalesceMaxKeys;
+	}
+
 	public void setReportAdditionalQueueStatus(boolean reportAdditionalQueueStatus){
         this.reportAdditionalQueueStatus = reportAdditionalQueueStatus;
     }
 	
+	public void setConsumeStatisticsMessages(boolean consumeStatisticsMessages) {
+		this.consumeStatisticsMessages = consumeStatisticsMessages;
+	}
+
+	public void setReportActivityTrace(boolean reportActivityTrace) {
+		this.reportActivityTrace = reportActivityTrace;
+	}
+
+	public void setReportResourceMonitoring(boolean reportResourceMonitoring) {
+		this.reportResourceMonitoring = reportResourceMonitoring;
+	}
+
+	public void setReportCapacity(boolean reportCapacity) {
+		this.reportCapacity = reportCapacity;
+	}
+
+	public int getMaxChannels() {
+		return maxChannels;
+	}
+
+	public void setMaxChannels(int maxChannels) {
+		this.maxChannels = maxChannels;
+	}
+
+	public void setReportConnections(boolean reportConnections) {
+		this.reportConnections = reportConnections;
+	}
+
+	public int getConnectionTopCount() {
+		return connectionTopCount;
+	}
+
+	public void setConnectionTopCount(int connectionTopCount) {
+		this.connectionTopCount = connectionTopCount;
+	}
+
+	public void setReportQueueHandles(boolean reportQueueHandles) {
+		this.reportQueueHandles = reportQueueHandles;
+	}
+
+	public int getQueueHandleDepthPercent() {
+		return queueHandleDepthPercent;
+	}
+
+	public void setQueueHandleDepthPercent(int queueHandleDepthPercent) {
+		this.queueHandleDepthPercent = queueHandleDepthPercent;
+	}
+
+	public int getQueueHandleOldestMsgAge() {
+		return queueHandleOldestMsgAge;
+	}
+
+	public void setQueueHandleOldestMsgAge(int queueHandleOldestMsgAge) {
+		this.queueHandleOldestMsgAge = queueHandleOldestMsgAge;
+	}
+
+	public int getQueueHandleUncommittedMsgs() {
+		return queueHandleUncommittedMsgs;
+	}
+
+	public void setQueueHandleUncommittedMsgs(int queueHandleUncommittedMsgs) {
+		this.queueHandleUncommittedMsgs = queueHandleUncommittedMsgs;
+	}
+
+	public int getQueueSweepInterval() {
+		return queueSweepInterval;
+	}
+
+	public void setQueueSweepInterval(int queueSweepInterval) {
+		this.queueSweepInterval = queueSweepInterval;
+	}
+
+	public int getHotQueueMaxCount() {
+		return hotQueueMaxCount;
+	}
+
+	public void setHotQueueMaxCount(int hotQueueMaxCount) {
+		this.hotQueueMaxCount = hotQueueMaxCount;
+	}
+
+	public int getHotQueueQuietTime() {
+		return hotQueueQuietTime;
+	}
+
+	public void setHotQueueQuietTime(int hotQueueQuietTime) {
+		this.hotQueueQuietTime = hotQueueQuietTime;
+	}
+
+	public void setInquireOnDepthEvents(boolean inquireOnDepthEvents) {
+		this.inquireOnDepthEvents = inquireOnDepthEvents;
+	}
+
+	public int getDepthEventDebounce() {
+		return depthEventDebounce;
+	}
+
+	public void setDepthEventDebounce(int depthEventDebounce) {
+		this.depthEventDebounce = depthEventDebounce;
+	}
+
+	public List<String> getSampleQueues() {
+		return sampleQueues;
+	}
+
+	public void setSampleQueues(List<String> sampleQueues) {
+		this.sampleQueues = sampleQueues;
+	}
+
+	public int getQueueSampleInterval() {
+		return queueSampleInterval;
+	}
+
+	public void setQueueSampleInterval(int queueSampleInterval) {
+		this.queueSampleInterval = queueSampleInterval;
+	}
+
+	public void setReportDepthTrend(boolean reportDepthTrend) {
+		this.reportDepthTrend = reportDepthTrend;
+	}
+
+	public Map<String, String> getErrorLogPatterns() {
+		return errorLogPatterns;
+	}
+
+	public void setErrorLogPatterns(Map<String, String> errorLogPatterns) {
+		this.errorLogPatterns = errorLogPatterns;
+	}
+
+	public Map<String, String> getMaintenanceLogPatterns() {
+		return maintenanceLogPatterns;
+	}
+
+	public void setMaintenanceLogPatterns(Map<String, String> maintenanceLogPatterns) {
+		this.maintenanceLogPatterns = maintenanceLogPatterns;
+	}
+
+	public int getErrorLogMaxEvents() {
+		return errorLogMaxEvents;
+	}
+
+	public void setErrorLogMaxEvents(int errorLogMaxEvents) {
+		this.errorLogMaxEvents = errorLogMaxEvents;
+	}
+
+	public String getErrorLogFormat() {
+		return errorLogFormat;
+	}
+
+	public void setErrorLogFormat(String errorLogFormat) {
+		this.errorLogFormat = errorLogFormat;
+	}
+
+	public void setWatchErrorLogs(boolean watchErrorLogs) {
+		this.watchErrorLogs = watchErrorLogs;
+	}
+
+	public int getLogPollInterval() {
+		return logPollInterval;
+	}
+
+	public void setLogPollInterval(int logPollInterval) {
+		this.logPollInterval = logPollInterval;
+	}
+
+	public void setMonitorFdcFiles(boolean monitorFdcFiles) {
+		this.monitorFdcFiles = monitorFdcFiles;
+	}
+
+	public String getFdcPath() {
+		return fdcPath;
+	}
+
+	public void setFdcPath(String fdcPath) {
+		this.fdcPath = fdcPath;
+	}
+
+	public int getFdcMaxFiles() {
+		return fdcMaxFiles;
+	}
+
+	public void setFdcMaxFiles(int fdcMaxFiles) {
+		this.fdcMaxFiles = fdcMaxFiles;
+	}
+
+	public void setReportDeadLetterQueue(boolean reportDeadLetterQueue) {
+		this.reportDeadLetterQueue = reportDeadLetterQueue;
+	}
+
+	public String getDeadLetterQueue() {
+		return deadLetterQueue;
+	}
+
+	public void setDeadLetterQueue(String deadLetterQueue) {
+		this.deadLetterQueue = deadLetterQueue;
+	}
+
+	public int getDeadLetterMaxMessages() {
+		return deadLetterMaxMessages;
+	}
+
+	public void setDeadLetterMaxMessages(int deadLetterMaxMessages) {
+		this.deadLetterMaxMessages = deadLetterMaxMessages;
+	}
+
+	public Map<String, String> getLatencyProbeQueues() {
+		return latencyProbeQueues;
+	}
+
+	public void setLatencyProbeQueues(Map<String, String> latencyProbeQueues) {
+		this.latencyProbeQueues = latencyProbeQueues;
+	}
+
+	public int getLatencyProbeInterval() {
+		return latencyProbeInterval;
+	}
+
+	public void setLatencyProbeInterval(int latencyProbeInterval) {
+		this.latencyProbeInterval = latencyProbeInterval;
+	}
+
+	public int getLatencyProbeTimeout() {
+		return latencyProbeTimeout;
+	}
+
+	public void setLatencyProbeTimeout(int latencyProbeTimeout) {
+		this.latencyProbeTimeout = latencyProbeTimeout;
+	}
+
+	public int getLatencyProbeMaxInFlight() {
+		return latencyProbeMaxInFlight;
+	}
+
+	public void setLatencyProbeMaxInFlight(int latencyProbeMaxInFlight) {
+		this.latencyProbeMaxInFlight = latencyProbeMaxInFlight;
+	}
+
 	public void setReportTopicStatus(boolean reportTopicStatus){
         this.reportTopicStatus = reportTopicStatus;
     }
@@ -166,10 +485,62 @@ public class AgentConfig {
 		return reportEventMessages;
 	}
 
+	public boolean consumeEventMessages() {
+		return consumeEventMessages;
+	}
+
+	public boolean browseEventMessages() {
+		return browseEventMessages;
+	}
+
     public boolean reportAdditionalQueueStatus() {
         return reportAdditionalQueueStatus;
     }
     
+    public boolean consumeStatisticsMessages() {
+        return consumeStatisticsMessages;
+    }
+
+    public boolean reportActivityTrace() {
+        return reportActivityTrace;
+    }
+
+    public boolean reportResourceMonitoring() {
+        return reportResourceMonitoring;
+    }
+
+    public boolean reportCapacity() {
+        return reportCapacity;
+    }
+
+    public boolean reportConnections() {
+        return reportConnections;
+    }
+
+    public boolean reportQueueHandles() {
+        return reportQueueHandles;
+    }
+
+    public boolean inquireOnDepthEvents() {
+        return inquireOnDepthEvents;
+    }
+
+    public boolean watchErrorLogs() {
+        return watchErrorLogs;
+    }
+
+    public boolean monitorFdcFiles() {
+        return monitorFdcFiles;
+    }
+
+    public boolean reportDeadLetterQueue() {
+        return reportDeadLetterQueue;
+    }
+
+    public boolean reportDepthTrend() {
+        return reportDepthTrend;
+    }
+
     public boolean reportTopicStatus() {
         return reportTopicStatus;
     }
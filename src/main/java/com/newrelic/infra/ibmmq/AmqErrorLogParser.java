@@ -0,0 +1,137 @@
+package com.newrelic.infra.ibmmq;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the AMQERR0x.LOG text format, where each entry is a block between lines of dashes: a header giving the time,
+ * process, user and program, the AMQ message, then the EXPLANATION and ACTION sections. The block ends with a line of
+ * dashes naming the source file, so an entry is complete once that line has been written.
+ */
+class AmqErrorLogParser implements ErrorLogParser {
+
+	// Lines of an entry kept beyond this are dropped, in case a log without separators is read.
+	private static final int MAX_ENTRY_LINES = 200;
+
+	private static final Pattern MESSAGE = Pattern.compile("^(AMQ\\d{4}[A-Z]):\\s*(.*)$");
+	private static final Pattern HEADER_FIELD = Pattern.compile("(Process|User|Program|Time)\\(([^)]*)\\)");
+
+	private final List<String> lines = new ArrayList<>();
+
+	@Override
+	public boolean isSingleLine() {
+		return false;
+	}
+
+	@Override
+	public boolean isSeparator(byte[] line, int start, int length) {
+		if (length < 5) {
+			return false;
+		}
+		for (int i = start; i < start + 5; i++) {
+			if (line[i] != '-') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public ErrorLogEntry addLine(String line) {
+		if (line.startsWith("-----")) {
+			return flush();
+		}
+		if (lines.isEmpty() && line.trim().isEmpty()) {
+			return null;
+		}
+		if (lines.size() < MAX_ENTRY_LINES) {
+			lines.add(line);
+		}
+		return null;
+	}
+
+	@Override
+	public boolean isHolding() {
+		return !lines.isEmpty();
+	}
+
+	@Override
+	public ErrorLogEntry flush() {
+		if (lines.isEmpty()) {
+			return null;
+		}
+		ErrorLogEntry entry = parse(lines);
+		lines.clear();
+		return entry;
+	}
+
+	@Override
+	public void reset() {
+		lines.clear();
+	}
+
+	private static ErrorLogEntry parse(List<String> lines) {
+		StringBuilder text = new StringBuilder();
+		for (String line : lines) {
+			if (text.length() > 0) {
+				text.append('\n');
+			}
+			text.append(line);
+		}
+		ErrorLogEntry entry = new ErrorLogEntry(text.toString());
+
+		// The first line starts with the local time, followed by " - Process(...)".
+		String first = lines.get(0);
+		int dash = first.indexOf(" - ");
+		if (dash > 0) {
+			entry.time = first.substring(0, dash).trim();
+		}
+
+		StringBuilder section = null;
+		StringBuilder explanation = null;
+		StringBuilder action = null;
+		for (String line : lines) {
+			String trimmed = line.trim();
+			if (entry.messageId == null) {
+				Matcher message = MESSAGE.matcher(trimmed);
+				if (message.matches()) {
+					entry.messageId = message.group(1);
+					entry.severity = ErrorLogEntry.severityOf(entry.messageId);
+					entry.message = message.group(2);
+					continue;
+				}
+				Matcher field = HEADER_FIELD.matcher(line);
+				while (field.find()) {
+					String name = field.group(1);
+					if (name.equals("Process")) {
+						entry.process = field.group(2);
+					} else if (name.equals("User")) {
+						entry.user = field.group(2);
+					} else if (name.equals("Program")) {
+						entry.program = field.group(2);
+					} else {
+						// An ISO 8601 time, written by later versions, is preferred to the local time.
+						entry.time = field.group(2);
+					}
+				}
+			} else if (trimmed.equals("EXPLANATION:")) {
+				section = explanation = new StringBuilder();
+			} else if (trimmed.equals("ACTION:")) {
+				section = action = new StringBuilder();
+			} else if (section != null && !trimmed.isEmpty()) {
+				if (section.length() > 0) {
+					section.append(' ');
+				}
+				section.append(trimmed);
+			} else if (section == null && !trimmed.isEmpty()) {
+				// The message text may wrap onto the following lines.
+				entry.message = entry.message + " " + trimmed;
+			}
+		}
+		entry.explanation = explanation == null ? null : explanation.toString();
+		entry.action = action == null ? null : action.toString();
+		return entry;
+	}
+}
@@ -101,7 +101,11 @@ public class ChannelMetricCollector {
 		this.agentConfig  = agentConfig;
 	}
 	
-	public void reportChannelStats(PCFMessageAgent agent, MetricReporter metricReporter) {
+	/**
+	 * Reports every channel instance and returns how many there were, or -1 when they couldn't be inquired.
+	 */
+	public int reportChannelStats(PCFMessageAgent agent, MetricReporter metricReporter) {
+			int channelCount = 0;
 			int[] attrs = { MQConstants.MQCACH_CHANNEL_NAME, MQConstants.MQCACH_CONNECTION_NAME,
 					MQConstants.MQIACH_CHANNEL_STATUS, MQConstants.MQIACH_MSGS, MQConstants.MQIACH_BYTES_SENT,
 					MQConstants.MQIACH_BYTES_RECEIVED, MQConstants.MQIACH_BUFFERS_SENT, MQConstants.MQIACH_BUFFERS_RECEIVED,
@@ -123,6 +127,7 @@ public class ChannelMetricCollector {
 
 					if (tmpChannelName != null ) {
 						channelName = tmpChannelName.trim();
+						channelCount++;
 
 					logger.debug("Reporting metrics on channel: " + channelName);
 					PCFMessage msg = response[i];
@@ -214,13 +219,18 @@ public class ChannelMetricCollector {
 				}
 				}
 				logger.debug("channelName is NULL");
+				return channelCount;
 			} 
 			catch (PCFException e) {
+				if (e.reasonCode == MQConstants.MQRCCF_CHL_STATUS_NOT_FOUND) {
+					return 0;
+				}
 				logger.error("Error fetching channel metrics", e);
 			} catch (IOException e) {
 				logger.error("Error fetching channel metrics", e);
 			} catch (MQDataException e) {
 				logger.error("Error fetching channel metrics", e);
 			} 
+			return -1;
 		}
 }
@@ -0,0 +1,315 @@
+package com.newrelic.infra.ibmmq;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.commons.lang3.time.FastDateFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.mq.MQException;
+import com.ibm.mq.MQGetMessageOptions;
+import com.ibm.mq.MQMessage;
+import com.ibm.mq.MQPutMessageOptions;
+import com.ibm.mq.MQQueue;
+import com.ibm.mq.MQQueueManager;
+import com.ibm.mq.constants.MQConstants;
+import com.ibm.mq.headers.MQDataException;
+import com.ibm.mq.headers.pcf.PCFMessage;
+import com.ibm.mq.headers.pcf.PCFMessageAgent;
+import com.newrelic.infra.ibmmq.constants.EventConstants;
+import com.newrelic.infra.publish.api.MetricReporter;
+import com.newrelic.infra.publish.api.metrics.AttributeMetric;
+import com.newrelic.infra.publish.api.metrics.GaugeMetric;
+import com.newrelic.infra.publish.api.metrics.Metric;
+
+/**
+ * Inquires every connection to the queue manager along with its object handles, and reports them aggregated by
+ * application tag, user id and channel as one MQConnectionSummarySample per group: connection, handle and open unit
+ * of work counts and the age of the oldest unit of work. The connections holding the most handles are also reported
+ * individually as MQConnectionSample, up to connectionTopCount of them.
+ *
+ * PCF has no paging, and PCFMessageAgent would hold every response of a queue manager with tens of thousands of
+ * connections at once. So the inquiry, which only asks for the attributes used here, is put to the command queue
+ * directly and its responses are got from a temporary dynamic reply queue and folded into the groups one at a time.
+ * The queue manager returns the handles of a connection right after it.
+ */
+public class ConnectionMetricCollector {
+
+	private static final Logger logger = LoggerFactory.getLogger(ConnectionMetricCollector.class);
+
+	private static final String COMMAND_QUEUE = "SYSTEM.ADMIN.COMMAND.QUEUE";
+	private static final String REPLY_QUEUE_PREFIX = "NEWRELIC.CONN.*";
+
+	static final int MAX_GROUPS = 1000;
+	static final String OVERFLOW_GROUP = "*";
+	private static final char KEY_SEPARATOR = '\t';
+
+	private static final FastDateFormat UOW_START_FORMAT = FastDateFormat.getInstance("yyyy-MM-dd HH.mm.ss");
+
+	private static final int[] CONNECTION_ATTRS = { MQConstants.MQCACF_APPL_TAG, MQConstants.MQCACF_USER_IDENTIFIER,
+			MQConstants.MQCACH_CHANNEL_NAME, MQConstants.MQCACH_CONNECTION_NAME, MQConstants.MQIACF_PROCESS_ID,
+			MQConstants.MQIACF_UOW_STATE, MQConstants.MQCACF_UOW_START_DATE, MQConstants.MQCACF_UOW_START_TIME };
+
+	static class Connection {
+		final String applTag;
+		final String userId;
+		final String channelName;
+		final String connectionName;
+		final int processId;
+		final long uowStart;
+		int handles = 0;
+
+		Connection(PCFMessage res) {
+			applTag = string(res, MQConstants.MQCACF_APPL_TAG);
+			userId = string(res, MQConstants.MQCACF_USER_IDENTIFIER);
+			channelName = string(res, MQConstants.MQCACH_CHANNEL_NAME);
+			connectionName = string(res, MQConstants.MQCACH_CONNECTION_NAME);
+			Object pid = res.getParameterValue(MQConstants.MQIACF_PROCESS_ID);
+			processId = pid instanceof Integer ? (Integer) pid : -1;
+			Object uowState = res.getParameterValue(MQConstants.MQIACF_UOW_STATE);
+			if (uowState instanceof Integer && (Integer) uowState != MQConstants.MQUOWST_NONE) {
+				uowStart = uowStart(res);
+			} else {
+				uowStart = -1;
+			}
+		}
+	}
+
+	static class Group {
+		final String applTag;
+		final String userId;
+		final String channelName;
+		int connections = 0;
+		long handles = 0;
+		int openUnitsOfWork = 0;
+		long oldestUowStart = -1;
+
+		Group(String applTag, String userId, String channelName) {
+			this.applTag = applTag;
+			this.userId = userId;
+			this.channelName = channelName;
+		}
+	}
+
+	static final Comparator<Connection> BY_HANDLES = new Comparator<Connection>() {
+		@Override
+		public int compare(Connection a, Connection b) {
+			return Integer.compare(a.handles, b.handles);
+		}
+	};
+
+	private AgentConfig agentConfig = null;
+
+	public ConnectionMetricCollector(AgentConfig agentConfig) {
+		this.agentConfig = agentConfig;
+	}
+
+	/**
+	 * Reports the connections and returns the most handles held by one of them, or -1 when they couldn't be inquired.
+	 * The agent's model queue and wait interval are used for the reply queue.
+	 */
+	public int reportConnections(MQQueueManager mgr, PCFMessageAgent agent, MetricReporter metricReporter) {
+		int topCount = agentConfig.getConnectionTopCount();
+		PriorityQueue<Connection> top = new PriorityQueue<>(Math.max(topCount, 1), BY_HANDLES);
+		Map<String, Group> groups = new HashMap<>();
+		Connection current = null;
+		int connectionCount = 0;
+		int highestHandleCount = 0;
+
+		MQQueue commandQueue = null;
+		MQQueue replyQueue = null;
+		try {
+			commandQueue = mgr.accessQueue(COMMAND_QUEUE, MQConstants.MQOO_OUTPUT + MQConstants.MQOO_FAIL_IF_QUIESCING,
+					null, null, null);
+			replyQueue = mgr.accessQueue(agent.getModelQueueName(),
+					MQConstants.MQOO_INPUT_EXCLUSIVE + MQConstants.MQOO_FAIL_IF_QUIESCING, null, REPLY_QUEUE_PREFIX, null);
+
+			PCFMessage request = new PCFMessage(MQConstants.MQCMD_INQUIRE_CONNECTION);
+			request.addParameter(MQConstants.MQBACF_GENERIC_CONNECTION_ID, new byte[0]);
+			request.addParameter(MQConstants.MQIACF_CONN_INFO_TYPE, MQConstants.MQIACF_CONN_INFO_ALL);
+			request.addParameter(MQConstants.MQIACF_CONNECTION_ATTRS, CONNECTION_ATTRS);
+			MQMessage message = new MQMessage();
+			message.messageType = MQConstants.MQMT_REQUEST;
+			message.format = MQConstants.MQFMT_ADMIN;
+			message.persistence = MQConstants.MQPER_NOT_PERSISTENT;
+			message.replyToQueueName = replyQueue.getName();
+			request.write(message);
+			MQPutMessageOptions putOptions = new MQPutMessageOptions();
+			putOptions.options = MQConstants.MQPMO_NO_SYNCPOINT + MQConstants.MQPMO_NEW_MSG_ID
+					+ MQConstants.MQPMO_FAIL_IF_QUIESCING;
+			commandQueue.put(message, putOptions);
+
+			// The command server correlates its responses with the request's message id.
+			byte[] correlationId = message.messageId;
+			MQGetMessageOptions getOptions = new MQGetMessageOptions();
+			getOptions.options = MQConstants.MQGMO_WAIT + MQConstants.MQGMO_NO_SYNCPOINT + MQConstants.MQGMO_CONVERT
+					+ MQConstants.MQGMO_FAIL_IF_QUIESCING;
+			getOptions.matchOptions = MQConstants.MQMO_MATCH_CORREL_ID;
+			getOptions.waitInterval = agent.getWaitInterval() * 1000;
+
+			while (true) {
+				message.clearMessage();
+				message.messageId = MQConstants.MQMI_NONE;
+				message.correlationId = correlationId;
+				replyQueue.get(message, getOptions);
+				PCFMessage res = new PCFMessage(message);
+				if (res.getCompCode() == MQConstants.MQCC_FAILED) {
+					logger.error("Error inquiring connections, reason {}", res.getReason());
+					return -1;
+				}
+				Object infoType = res.getParameterValue(MQConstants.MQIACF_CONN_INFO_TYPE);
+				if (infoType instanceof Integer && (Integer) infoType == MQConstants.MQIACF_CONN_INFO_HANDLE) {
+					if (current != null) {
+						current.handles++;
+					}
+				} else {
+					if (current != null) {
+						add(current, groups, top, topCount);
+						highestHandleCount = Math.max(highestHandleCount, current.handles);
+					}
+					current = new Connection(res);
+					connectionCount++;
+				}
+				if (res.getControl() == MQConstants.MQCFC_LAST) {
+					break;
+				}
+			}
+		} catch (MQException e) {
+			logger.error("Error inquiring connections", e);
+			return -1;
+		} catch (IOException | MQDataException e) {
+			logger.error("Error inquiring connections", e);
+			return -1;
+		} finally {
+			close(replyQueue);
+			close(commandQueue);
+		}
+		if (current != null) {
+			add(current, groups, top, topCount);
+			highestHandleCount = Math.max(highestHandleCount, current.handles);
+		}
+
+		logger.debug("{} connections in {} groups", connectionCount, groups.size());
+		long now = System.currentTimeMillis();
+		for (Group group : groups.values()) {
+			reportGroup(group, now, metricReporter);
+		}
+		List<Connection> topConnections = new ArrayList<>(top);
+		Collections.sort(topConnections, Collections.reverseOrder(BY_HANDLES));
+		int rank = 1;
+		for (Connection connection : topConnections) {
+			reportConnection(connection, rank++, now, metricReporter);
+		}
+		return highestHandleCount;
+	}
+
+	static void add(Connection connection, Map<String, Group> groups, PriorityQueue<Connection> top, int topCount) {
+		String key = connection.applTag + KEY_SEPARATOR + connection.userId + KEY_SEPARATOR + connection.channelName;
+		Group group = groups.get(key);
+		if (group == null) {
+			if (groups.size() >= MAX_GROUPS) {
+				key = OVERFLOW_GROUP;
+				group = groups.get(key);
+			}
+			if (group == null) {
+				group = OVERFLOW_GROUP.equals(key) ? new Group(OVERFLOW_GROUP, OVERFLOW_GROUP, OVERFLOW_GROUP)
+						: new Group(connection.applTag, connection.userId, connection.channelName);
+				groups.put(key, group);
+			}
+		}
+		group.connections++;
+		group.handles += connection.handles;
+		if (connection.uowStart >= 0) {
+			group.openUnitsOfWork++;
+			if (group.oldestUowStart < 0 || connection.uowStart < group.oldestUowStart) {
+				group.oldestUowStart = connection.uowStart;
+			}
+		}
+
+		if (topCount > 0 && connection.handles > 0) {
+			top.offer(connection);
+			if (top.size() > topCount) {
+				top.poll();
+			}
+		}
+	}
+
+	private void reportGroup(Group group, long now, MetricReporter metricReporter) {
+		List<Metric> metricset = newMetricset("connectionSummary");
+		metricset.add(new AttributeMetric("applTag", group.applTag));
+		metricset.add(new AttributeMetric(EventConstants.USER_ID, group.userId));
+		metricset.add(new AttributeMetric(EventConstants.CHANNEL_NAME, group.channelName));
+		metricset.add(new GaugeMetric("connectionCount", group.connections));
+		metricset.add(new GaugeMetric("openHandleCount", group.handles));
+		metricset.add(new GaugeMetric("openUnitOfWorkCount", group.openUnitsOfWork));
+		if (group.oldestUowStart >= 0) {
+			metricset.add(new GaugeMetric("oldestUnitOfWorkAgeSeconds", Math.max(0, (now - group.oldestUowStart) / 1000)));
+		}
+		metricReporter.report("MQConnectionSummarySample", metricset);
+	}
+
+	private void reportConnection(Connection connection, int rank, long now, MetricReporter metricReporter) {
+		List<Metric> metricset = newMetricset("connection");
+		metricset.add(new AttributeMetric("applTag", connection.applTag));
+		metricset.add(new AttributeMetric(EventConstants.USER_ID, connection.userId));
+		metricset.add(new AttributeMetric(EventConstants.CHANNEL_NAME, connection.channelName));
+		metricset.add(new AttributeMetric(EventConstants.CONNECTION_NAME, connection.connectionName));
+		if (connection.processId >= 0) {
+			metricset.add(new AttributeMetric("processId", connection.processId));
+		}
+		metricset.add(new GaugeMetric("rank", rank));
+		metricset.add(new GaugeMetric("openHandleCount", connection.handles));
+		if (connection.uowStart >= 0) {
+			metricset.add(new GaugeMetric("unitOfWorkAgeSeconds", Math.max(0, (now - connection.uowStart) / 1000)));
+		}
+		metricReporter.report("MQConnectionSample", metricset);
+	}
+
+	private List<Metric> newMetricset(String object) {
+		List<Metric> metricset = new LinkedList<>();
+		metricset.add(new AttributeMetric(EventConstants.PROVIDER, EventConstants.IBM_PROVIDER));
+		metricset.add(new AttributeMetric(EventConstants.Q_MANAGER_NAME, agentConfig.getServerQueueManagerName()));
+		metricset.add(new AttributeMetric(EventConstants.Q_MANAGER_HOST, agentConfig.getServerHost()));
+		metricset.add(new AttributeMetric(EventConstants.OBJECT_ATTRIBUTE, object));
+		return metricset;
+	}
+
+	private static void close(MQQueue queue) {
+		if (queue != null) {
+			try {
+				queue.close();
+			} catch (MQException e) {
+				logger.error("Couldn't close queue " + queue.getResolvedQName());
+			}
+		}
+	}
+
+	// The start of a unit of work is in the queue manager's local time, taken here as the agent's.
+	private static long uowStart(PCFMessage res) {
+		String date = string(res, MQConstants.MQCACF_UOW_START_DATE);
+		String time = string(res, MQConstants.MQCACF_UOW_START_TIME);
+		if (date.isEmpty() || time.isEmpty()) {
+			return -1;
+		}
+		try {
+			return UOW_START_FORMAT.parse(date + " " + time).getTime();
+		} catch (ParseException e) {
+			logger.debug("Couldn't parse unit of work start {} {}", date, time);
+			return -1;
+		}
+	}
+
+	private static String string(PCFMessage res, int parameter) {
+		Object value = res.getParameterValue(parameter);
+		return value == null ? "" : value.toString().trim();
+	}
+}
@@ -0,0 +1,329 @@
+package com.newrelic.infra.ibmmq;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.mq.MQException;
+import com.ibm.mq.MQGetMessageOptions;
+import com.ibm.mq.MQMessage;
+import com.ibm.mq.MQQueue;
+import com.ibm.mq.MQQueueManager;
+import com.ibm.mq.constants.CMQCFC;
+import com.ibm.mq.constants.MQConstants;
+import com.ibm.mq.headers.MQDLH;
+import com.ibm.mq.headers.MQDataException;
+import com.ibm.mq.headers.pcf.PCFException;
+import com.ibm.mq.headers.pcf.PCFMessage;
+import com.ibm.mq.headers.pcf.PCFMessageAgent;
+import com.newrelic.infra.publish.api.MetricReporter;
+import com.newrelic.infra.publish.api.metrics.AttributeMetric;
+import com.newrelic.infra.publish.api.metrics.GaugeMetric;
+import com.newrelic.infra.publish.api.metrics.Metric;
+
+/**
+ * Browses the queue manager's dead-letter queue and reports why the messages dead-lettered since the last cycle died,
+ * as one MQDeadLetterSample per reason, destination queue and destination queue manager with the number of messages.
+ * Only the MQDLH header at the start of each message is got, the rest is truncated by the queue manager. The queue is
+ * kept open on a connection of its own, so the browse cursor carries over from one cycle to the next and each cycle
+ * browses at most deadLetterMaxMessages messages after it. Once the end of the queue is reached the next cycle starts
+ * over from the first message, as dead-lettered messages keep their priority and may have been put before the cursor.
+ * Messages dead-lettered before the checkpoint taken at the start of that pass, by the MQDLH put date and time and then
+ * message id, were counted by an earlier pass and are skipped. The newest one is checkpointed like the browsed event
+ * queues, so a restarted agent doesn't count the same messages again.
+ */
+public class DeadLetterQueueCollector {
+
+	private static final Logger logger = LoggerFactory.getLogger(DeadLetterQueueCollector.class);
+
+	private static final long DLQ_NAME_REFRESH_MS = 3600000;
+	static final int MAX_GROUPS = 100;
+	static final String OVERFLOW_GROUP = "*";
+	static final String NO_HEADER = "NO_DEAD_LETTER_HEADER";
+
+	/**
+	 * What the dead-letter header of a message says about it.
+	 */
+	static class DeadLetter {
+		final String reason;
+		final String destQueue;
+		final String destQueueManager;
+		final String putApplName;
+		// When the message was put to the dead-letter queue.
+		final long time;
+
+		DeadLetter(String reason, String destQueue, String destQueueManager, String putApplName, long time) {
+			this.reason = reason;
+			this.destQueue = destQueue;
+			this.destQueueManager = destQueueManager;
+			this.putApplName = putApplName;
+			this.time = time;
+		}
+	}
+
+	static class Group {
+		final String reason;
+		final String destQueue;
+		final String destQueueManager;
+		int count = 0;
+		String putApplName;
+
+		Group(String reason, String destQueue, String destQueueManager) {
+			this.reason = reason;
+			this.destQueue = destQueue;
+			this.destQueueManager = destQueueManager;
+		}
+	}
+
+	private AgentConfig agentConfig = null;
+	private EventBrowseCheckpoint browseCheckpoint = null;
+
+	private String deadLetterQueue = null;
+	private long deadLetterQueueInquiredAt = 0;
+
+	// The dead-letter queue stays open between cycles to keep its browse cursor.
+	private MQQueueManager mgr = null;
+	private MQQueue queue = null;
+	private String openQueueName = null;
+	private boolean browseFirst = true;
+	// The checkpoint when the current pass over the queue started, older messages were counted by an earlier pass.
+	private EventBrowseCheckpoint.Position passFrom = null;
+
+	public DeadLetterQueueCollector(AgentConfig agentConfig) {
+		this.agentConfig = agentConfig;
+		this.browseCheckpoint = new EventBrowseCheckpoint(agentConfig.getAgentTempPath() + "/"
+				+ agentConfig.getServerQueueManagerName() + "-dlq-browse.state");
+	}
+
+	public void reportDeadLetters(PCFMessageAgent agent, MetricReporter metricReporter) {
+		String queueName = deadLetterQueue(agent);
+		if (queueName == null || queueName.isEmpty()) {
+			return;
+		}
+		if (!queueName.equals(openQueueName)) {
+			close();
+		}
+
+		Map<String, Group> groups = new LinkedHashMap<>();
+		int browsed = 0;
+		int counted = 0;
+		try {
+			if (queue == null) {
+				mgr = MQAgent.connect(agentConfig);
+				queue = mgr.accessQueue(queueName, MQConstants.MQOO_BROWSE + MQConstants.MQOO_FAIL_IF_QUIESCING, null,
+						null, null);
+				openQueueName = queueName;
+				browseFirst = true;
+			}
+
+			// No conversion: the header carries its own encoding and the truncated body couldn't be converted anyway.
+			int browseOptions = MQConstants.MQGMO_NO_WAIT + MQConstants.MQGMO_FAIL_IF_QUIESCING
+					+ MQConstants.MQGMO_ACCEPT_TRUNCATED_MSG;
+			MQGetMessageOptions getOptions = new MQGetMessageOptions();
+			getOptions.matchOptions = MQConstants.MQMO_NONE;
+
+			MQMessage message = new MQMessage();
+			EventBrowseCheckpoint.Position last = browseCheckpoint.get(queueName);
+			EventBrowseCheckpoint.Position newest = last;
+			if (browseFirst) {
+				passFrom = last;
+			}
+
+			while (browsed < agentConfig.getDeadLetterMaxMessages()) {
+				message.clearMessage();
+				message.messageId = MQConstants.MQMI_NONE;
+				getOptions.options = browseOptions
+						+ (browseFirst ? MQConstants.MQGMO_BROWSE_FIRST : MQConstants.MQGMO_BROWSE_NEXT);
+				if (!browse(queue, message, getOptions)) {
+					// The end of the queue: the next cycle starts a new pass from the first message.
+					browseFirst = true;
+					break;
+				}
+				browseFirst = false;
+				browsed++;
+
+				DeadLetter deadLetter = read(message);
+				if (passFrom != null && !passFrom.isBefore(deadLetter.time, message.messageId)) {
+					continue;
+				}
+				counted++;
+				count(groups, deadLetter);
+				if (newest == null || newest.isBefore(deadLetter.time, message.messageId)) {
+					newest = new EventBrowseCheckpoint.Position(message.messageId.clone(), deadLetter.time);
+				}
+			}
+			if (newest != null && newest != last) {
+				browseCheckpoint.update(queueName, newest.getMessageId(), newest.getPutTime());
+			}
+			logger.debug("{} messages browsed from dead-letter queue {}, {} of them new", browsed, queueName, counted);
+		} catch (MQException | IOException e) {
+			logger.error("Problem browsing dead-letter queue " + queueName + ".", e);
+			close();
+		}
+
+		for (Group group : groups.values()) {
+			List<Metric> metricset = new LinkedList<>();
+			metricset.add(new AttributeMetric("provider", "ibm"));
+			metricset.add(new AttributeMetric("qManagerName", agentConfig.getServerQueueManagerName()));
+			metricset.add(new AttributeMetric("qManagerHost", agentConfig.getServerHost()));
+			metricset.add(new AttributeMetric("deadLetterQueue", queueName));
+			metricset.add(new AttributeMetric("reasonCode", group.reason));
+			metricset.add(new AttributeMetric("destQueue", group.destQueue));
+			metricset.add(new AttributeMetric("destQueueManager", group.destQueueManager));
+			if (group.putApplName != null) {
+				metricset.add(new AttributeMetric("putApplName", group.putApplName));
+			}
+			metricset.add(new GaugeMetric("messageCount", group.count));
+			metricReporter.report("MQDeadLetterSample", metricset);
+		}
+
+		try {
+			browseCheckpoint.save();
+		} catch (IOException e) {
+			logger.error("Couldn't save dead-letter queue browse checkpoint", e);
+		}
+	}
+
+	/**
+	 * Closes the dead-letter queue and its connection, the next cycle opens it again and browses from the start.
+	 */
+	public void close() {
+		if (queue != null) {
+			try {
+				queue.close();
+			} catch (MQException e) {
+				logger.error("Couldn't close queue " + openQueueName);
+			}
+			queue = null;
+		}
+		if (mgr != null) {
+			try {
+				mgr.disconnect();
+			} catch (MQException e) {
+				logger.debug("Couldn't disconnect the dead-letter queue connection: {}", e.getMessage());
+			}
+			mgr = null;
+		}
+		openQueueName = null;
+		browseFirst = true;
+	}
+
+	/**
+	 * Reads the dead-letter header at the start of the message. A message without one, put to the dead-letter queue
+	 * directly, is dated by its own put time.
+	 */
+	static DeadLetter read(MQMessage message) {
+		long putTime = message.putDateTime != null ? message.putDateTime.getTimeInMillis() : 0;
+		if (!MQConstants.MQFMT_DEAD_LETTER_HEADER.equals(message.format)) {
+			return new DeadLetter(NO_HEADER, "", "", null, putTime);
+		}
+		try {
+			message.seek(0);
+			MQDLH dlh = new MQDLH(message);
+			long time = dateTime(dlh.getPutDate(), dlh.getPutTime());
+			return new DeadLetter(reasonName(dlh.getReason()), dlh.getDestQName().trim(),
+					dlh.getDestQMgrName().trim(), dlh.getPutApplName().trim(), time >= 0 ? time : putTime);
+		} catch (MQDataException | IOException e) {
+			logger.debug("Couldn't read the dead-letter header of a message: {}", e.getMessage());
+			return new DeadLetter("UNKNOWN", "UNKNOWN", "UNKNOWN", null, putTime);
+		}
+	}
+
+	// The MQDLH put date is YYYYMMDD and put time HHMMSSTH, in GMT. Returns -1 when they can't be parsed.
+	static long dateTime(String date, String time) {
+		String value = (date == null ? "" : date.trim()) + (time == null ? "" : time.trim());
+		if (value.length() < 14) {
+			return -1;
+		}
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss");
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		format.setLenient(false);
+		try {
+			long millis = format.parse(value.substring(0, 14)).getTime();
+			if (value.length() >= 16) {
+				millis += Integer.parseInt(value.substring(14, 16)) * 10;
+			}
+			return millis;
+		} catch (ParseException | NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	static void count(Map<String, Group> groups, DeadLetter deadLetter) {
+		String key = deadLetter.reason + '\t' + deadLetter.destQueue + '\t' + deadLetter.destQueueManager;
+		Group group = groups.get(key);
+		if (group == null) {
+			if (groups.size() >= MAX_GROUPS) {
+				key = OVERFLOW_GROUP;
+				group = groups.get(key);
+				if (group == null) {
+					group = new Group(OVERFLOW_GROUP, OVERFLOW_GROUP, OVERFLOW_GROUP);
+				}
+			} else {
+				group = new Group(deadLetter.reason, deadLetter.destQueue, deadLetter.destQueueManager);
+			}
+			groups.put(key, group);
+		}
+		group.count++;
+		if (deadLetter.putApplName != null && !deadLetter.putApplName.isEmpty()) {
+			group.putApplName = deadLetter.putApplName;
+		}
+	}
+
+	// The reason is an MQRC_ reason code or, for reports, an MQFB_ feedback code.
+	static String reasonName(int reason) {
+		String name = MQConstants.lookupReasonCode(reason);
+		if (name == null) {
+			name = MQConstants.lookup(reason, "MQFB_.*");
+		}
+		return name != null ? name : Integer.toString(reason);
+	}
+
+	// Returns false when there is no (further) message to browse.
+	private boolean browse(MQQueue queue, MQMessage message, MQGetMessageOptions getOptions) throws MQException {
+		try {
+			queue.get(message, getOptions, MQConstants.MQDLH_CURRENT_LENGTH);
+			return true;
+		} catch (MQException e) {
+			if (e.reasonCode == MQConstants.MQRC_TRUNCATED_MSG_ACCEPTED) {
+				return true;
+			}
+			if (e.reasonCode == MQConstants.MQRC_NO_MSG_AVAILABLE) {
+				return false;
+			}
+			throw e;
+		}
+	}
+
+	private String deadLetterQueue(PCFMessageAgent agent) {
+		if (agentConfig.getDeadLetterQueue() != null) {
+			return agentConfig.getDeadLetterQueue();
+		}
+		long now = System.currentTimeMillis();
+		if (now - deadLetterQueueInquiredAt < DLQ_NAME_REFRESH_MS) {
+			return deadLetterQueue;
+		}
+		deadLetterQueueInquiredAt = now;
+		try {
+			PCFMessage req = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q_MGR);
+			req.addParameter(MQConstants.MQIACF_Q_MGR_ATTRS, new int[] { MQConstants.MQCA_DEAD_LETTER_Q_NAME });
+			PCFMessage[] responses = agent.send(req);
+			if (responses.length > 0) {
+				deadLetterQueue = responses[0].getStringParameterValue(MQConstants.MQCA_DEAD_LETTER_Q_NAME).trim();
+			}
+		} catch (PCFException e) {
+			logger.error("Error getting the dead-letter queue name", e);
+		} catch (Throwable e) {
+			logger.error("Error getting the dead-letter queue name", e);
+		}
+		return deadLetterQueue;
+	}
+}
@@ -0,0 +1,214 @@
+package com.newrelic.infra.ibmmq;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.mq.constants.CMQCFC;
+import com.ibm.mq.constants.MQConstants;
+import com.ibm.mq.headers.MQDataException;
+import com.ibm.mq.headers.pcf.PCFException;
+import com.ibm.mq.headers.pcf.PCFMessage;
+import com.ibm.mq.headers.pcf.PCFMessageAgent;
+import com.newrelic.infra.ibmmq.constants.EventConstants;
+import com.newrelic.infra.ibmmq.constants.QueueSampleConstants;
+import com.newrelic.infra.publish.api.MetricReporter;
+import com.newrelic.infra.publish.api.metrics.AttributeMetric;
+import com.newrelic.infra.publish.api.metrics.GaugeMetric;
+import com.newrelic.infra.publish.api.metrics.Metric;
+
+/**
+ * Inquires a queue as soon as a queue depth high or queue full performance event is read for it, so the depth, open
+ * counts, oldest message age and the applications holding the queue open are captured while the spike is on rather
+ * than at the next sweep. Each queue is inquired at most once per debounce window however many events it raises.
+ * The captured values are kept until the next cycle reports them as an MQQueueSample with a trigger attribute.
+ *
+ * Events are triggered from whichever thread reads them, the inquiries run on the thread calling {@link #inquire}.
+ */
+public class DepthEventInquirer {
+
+	private static final Logger logger = LoggerFactory.getLogger(DepthEventInquirer.class);
+
+	private static final int MAX_PENDING_SAMPLES = 1000;
+	private static final int MAX_APPL_TAGS = 10;
+
+	private final AgentConfig agentConfig;
+	private final long debounceMillis;
+
+	// Guards every field below.
+	private final Object lock = new Object();
+	private final Map<String, Long> lastTriggered = new HashMap<>();
+	private final Map<String, String> pendingQueues = new LinkedHashMap<>();
+	private final List<List<Metric>> samples = new ArrayList<>();
+
+	public DepthEventInquirer(AgentConfig agentConfig) {
+		this.agentConfig = agentConfig;
+		this.debounceMillis = agentConfig.getDepthEventDebounce() * 1000L;
+	}
+
+	/**
+	 * Asks for the queue to be inquired, unless it was already asked for within the debounce window.
+	 */
+	public void trigger(String queueName, int reason) {
+		if (queueName == null || queueName.isEmpty()) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		synchronized (lock) {
+			Long last = lastTriggered.get(queueName);
+			if (last != null && now - last < debounceMillis) {
+				return;
+			}
+			if (lastTriggered.size() >= MAX_PENDING_SAMPLES) {
+				forgetExpired(now);
+			}
+			lastTriggered.put(queueName, now);
+			pendingQueues.put(queueName, MQConstants.lookupReasonCode(reason));
+		}
+	}
+
+	public boolean hasPending() {
+		synchronized (lock) {
+			return !pendingQueues.isEmpty();
+		}
+	}
+
+	/**
+	 * Inquires every queue triggered since the last call.
+	 */
+	public void inquire(PCFMessageAgent agent) {
+		Map<String, String> queues;
+		synchronized (lock) {
+			if (pendingQueues.isEmpty()) {
+				return;
+			}
+			queues = new LinkedHashMap<>(pendingQueues);
+			pendingQueues.clear();
+		}
+
+		for (Map.Entry<String, String> queue : queues.entrySet()) {
+			List<Metric> metricset = inquire(agent, queue.getKey(), queue.getValue());
+			if (metricset == null) {
+				continue;
+			}
+			synchronized (lock) {
+				if (samples.size() < MAX_PENDING_SAMPLES) {
+					samples.add(metricset);
+				}
+			}
+		}
+	}
+
+	public void reportSamples(MetricReporter metricReporter) {
+		List<List<Metric>> reported;
+		synchronized (lock) {
+			reported = new ArrayList<>(samples);
+			samples.clear();
+		}
+		for (List<Metric> metricset : reported) {
+			metricReporter.report(QueueSampleConstants.MQ_QUEUE_SAMPLE, metricset);
+		}
+	}
+
+	private List<Metric> inquire(PCFMessageAgent agent, String queueName, String trigger) {
+		try {
+			PCFMessage inquireQueue = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q);
+			inquireQueue.addParameter(MQConstants.MQCA_Q_NAME, queueName);
+			inquireQueue.addParameter(MQConstants.MQIACF_Q_ATTRS,
+					new int[] { MQConstants.MQIA_CURRENT_Q_DEPTH, MQConstants.MQIA_MAX_Q_DEPTH,
+							MQConstants.MQIA_OPEN_INPUT_COUNT, MQConstants.MQIA_OPEN_OUTPUT_COUNT });
+			PCFMessage[] queueResponses = agent.send(inquireQueue);
+			if (queueResponses.length == 0) {
+				return null;
+			}
+			PCFMessage queue = queueResponses[0];
+			int currentDepth = queue.getIntParameterValue(MQConstants.MQIA_CURRENT_Q_DEPTH);
+			int maxDepth = queue.getIntParameterValue(MQConstants.MQIA_MAX_Q_DEPTH);
+
+			List<Metric> metricset = new LinkedList<>();
+			metricset.add(new AttributeMetric(EventConstants.PROVIDER, EventConstants.IBM_PROVIDER));
+			metricset.add(new AttributeMetric(EventConstants.OBJECT_ATTRIBUTE, EventConstants.OBJ_ATTR_TYPE_QUEUE));
+			metricset.add(new AttributeMetric(EventConstants.Q_MANAGER_NAME, agentConfig.getServerQueueManagerName()));
+			metricset.add(new AttributeMetric(EventConstants.Q_MANAGER_HOST, agentConfig.getServerHost()));
+			metricset.add(new AttributeMetric(EventConstants.Q_NAME, queueName));
+			metricset.add(new AttributeMetric("trigger", trigger));
+			metricset.add(new GaugeMetric(QueueSampleConstants.Q_DEPTH, currentDepth));
+			metricset.add(new GaugeMetric(QueueSampleConstants.Q_MAX_DEPTH, maxDepth));
+			metricset.add(new GaugeMetric(QueueSampleConstants.OPEN_INPUT_COUNT, queue.getIntParameterValue(MQConstants.MQIA_OPEN_INPUT_COUNT)));
+			metricset.add(new GaugeMetric(QueueSampleConstants.OPEN_OUTPUT_COUNT, queue.getIntParameterValue(MQConstants.MQIA_OPEN_OUTPUT_COUNT)));
+			metricset.add(new GaugeMetric(QueueSampleConstants.Q_DEPTH_PERCENT, maxDepth > 0 ? currentDepth * 100 / maxDepth : 0));
+
+			PCFMessage inquireStatus = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q_STATUS);
+			inquireStatus.addParameter(MQConstants.MQCA_Q_NAME, queueName);
+			inquireStatus.addParameter(MQConstants.MQIACF_Q_STATUS_TYPE, MQConstants.MQIACF_Q_STATUS);
+			inquireStatus.addParameter(MQConstants.MQIACF_Q_STATUS_ATTRS,
+					new int[] { MQConstants.MQIACF_OLDEST_MSG_AGE, MQConstants.MQIACF_UNCOMMITTED_MSGS });
+			for (PCFMessage status : agent.send(inquireStatus)) {
+				metricset.add(new GaugeMetric(QueueSampleConstants.OLDEST_MSG_AGE, status.getIntParameterValue(MQConstants.MQIACF_OLDEST_MSG_AGE)));
+				metricset.add(new GaugeMetric(QueueSampleConstants.UNCOMITTED_MSGS, status.getIntParameterValue(MQConstants.MQIACF_UNCOMMITTED_MSGS)));
+			}
+
+			addHandles(agent, queueName, metricset);
+			return metricset;
+		} catch (PCFException e) {
+			logger.error("Error inquiring queue " + queueName + " after a depth event, reason " + e.reasonCode);
+		} catch (Throwable t) {
+			logger.error("Error inquiring queue " + queueName + " after a depth event", t);
+		}
+		return null;
+	}
+
+	private static void addHandles(PCFMessageAgent agent, String queueName, List<Metric> metricset)
+			throws PCFException, MQDataException, IOException {
+		PCFMessage inquireHandles = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q_STATUS);
+		inquireHandles.addParameter(MQConstants.MQCA_Q_NAME, queueName);
+		inquireHandles.addParameter(MQConstants.MQIACF_Q_STATUS_TYPE, MQConstants.MQIACF_Q_HANDLE);
+		inquireHandles.addParameter(MQConstants.MQIACF_Q_STATUS_ATTRS, new int[] { MQConstants.MQCACF_APPL_TAG });
+		PCFMessage[] handles;
+		try {
+			handles = agent.send(inquireHandles);
+		} catch (PCFException e) {
+			// Nothing has the queue open.
+			if (e.reasonCode == MQConstants.MQRCCF_Q_STATUS_NOT_FOUND || e.reasonCode == MQConstants.MQRCCF_NONE_FOUND) {
+				metricset.add(new GaugeMetric("openHandleCount", 0));
+				return;
+			}
+			throw e;
+		}
+		Set<String> applTags = new LinkedHashSet<>();
+		for (PCFMessage handle : handles) {
+			Object applTag = handle.getParameterValue(MQConstants.MQCACF_APPL_TAG);
+			if (applTag != null && applTags.size() < MAX_APPL_TAGS) {
+				applTags.add(applTag.toString().trim());
+			}
+		}
+		metricset.add(new GaugeMetric("openHandleCount", handles.length));
+		StringBuilder b = new StringBuilder();
+		for (String applTag : applTags) {
+			if (b.length() > 0) {
+				b.append(',');
+			}
+			b.append(applTag);
+		}
+		metricset.add(new AttributeMetric("applTags", b.toString()));
+	}
+
+	private void forgetExpired(long now) {
+		Iterator<Long> it = lastTriggered.values().iterator();
+		while (it.hasNext()) {
+			if (now - it.next() >= debounceMillis) {
+				it.remove();
+			}
+		}
+	}
+}
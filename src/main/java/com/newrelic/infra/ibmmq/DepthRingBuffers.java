@@ -0,0 +1,177 @@
+package com.newrelic.infra.ibmmq;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fixed-size rings of queue depth samples, one per queue, held in a single primitive array along with the highest
+ * oldest message age seen. Queues keep their slot while they are sampled, so after the first intervals recording and
+ * rolling up allocate nothing; slots of queues not sampled for {@link #EXPIRY_MILLIS} are freed, so deleted queues
+ * and queues that are no longer hot don't hold a slot for good. When more samples are recorded in an interval than a
+ * ring holds, the oldest are overwritten. Not thread safe.
+ */
+class DepthRingBuffers {
+
+	static final long EXPIRY_MILLIS = 3600000;
+
+	private final int ringSize;
+	private final int maxQueues;
+	private final Map<String, Integer> slots = new HashMap<>();
+	private final String[] names;
+	private final int[] depths;
+	private final int[] counts;
+	private final int[] next;
+	private final int[] maxOldestAges;
+	private final long[] lastRecorded;
+	private final int[] scratch;
+
+	DepthRingBuffers(int maxQueues, int ringSize) {
+		this.maxQueues = maxQueues;
+		this.ringSize = ringSize;
+		this.names = new String[maxQueues];
+		this.depths = new int[maxQueues * ringSize];
+		this.counts = new int[maxQueues];
+		this.next = new int[maxQueues];
+		this.maxOldestAges = new int[maxQueues];
+		this.lastRecorded = new long[maxQueues];
+		this.scratch = new int[ringSize];
+		Arrays.fill(maxOldestAges, -1);
+	}
+
+	/**
+	 * Records a depth sample, returning false when the queue has no slot and every slot is taken.
+	 */
+	boolean recordDepth(String queueName, int depth, long now) {
+		int slot = slot(queueName);
+		if (slot < 0) {
+			return false;
+		}
+		lastRecorded[slot] = now;
+		depths[slot * ringSize + next[slot]] = depth;
+		next[slot] = (next[slot] + 1) % ringSize;
+		if (counts[slot] < ringSize) {
+			counts[slot]++;
+		}
+		return true;
+	}
+
+	void recordOldestAge(String queueName, int oldestAge) {
+		Integer slot = slots.get(queueName);
+		if (slot != null && oldestAge > maxOldestAges[slot]) {
+			maxOldestAges[slot] = oldestAge;
+		}
+	}
+
+	int size() {
+		return slots.size();
+	}
+
+	String name(int slot) {
+		return names[slot];
+	}
+
+	int sampleCount(int slot) {
+		return counts[slot];
+	}
+
+	int min(int slot) {
+		int min = Integer.MAX_VALUE;
+		for (int i = 0; i < counts[slot]; i++) {
+			min = Math.min(min, depths[slot * ringSize + i]);
+		}
+		return counts[slot] == 0 ? 0 : min;
+	}
+
+	int max(int slot) {
+		int max = 0;
+		for (int i = 0; i < counts[slot]; i++) {
+			max = Math.max(max, depths[slot * ringSize + i]);
+		}
+		return max;
+	}
+
+	double mean(int slot) {
+		if (counts[slot] == 0) {
+			return 0;
+		}
+		long total = 0;
+		for (int i = 0; i < counts[slot]; i++) {
+			total += depths[slot * ringSize + i];
+		}
+		return (double) total / counts[slot];
+	}
+
+	/**
+	 * Nearest-rank percentile of the samples in the ring.
+	 */
+	int percentile(int slot, double percentile) {
+		int count = counts[slot];
+		if (count == 0) {
+			return 0;
+		}
+		System.arraycopy(depths, slot * ringSize, scratch, 0, count);
+		Arrays.sort(scratch, 0, count);
+		int rank = (int) Math.ceil(count * percentile / 100.0);
+		return scratch[Math.max(rank, 1) - 1];
+	}
+
+	/**
+	 * Highest oldest message age recorded this interval, or -1 when none was.
+	 */
+	int maxOldestAge(int slot) {
+		return maxOldestAges[slot];
+	}
+
+	/**
+	 * Empties every ring for the next interval, keeping the slots.
+	 */
+	void reset() {
+		int used = slots.size();
+		Arrays.fill(counts, 0, used, 0);
+		Arrays.fill(next, 0, used, 0);
+		Arrays.fill(maxOldestAges, 0, used, -1);
+	}
+
+	/**
+	 * Frees the slots of queues with no depth recorded for {@link #EXPIRY_MILLIS}. The last slot is moved into each
+	 * freed one, so slot numbers change.
+	 */
+	void expire(long now) {
+		int slot = 0;
+		while (slot < slots.size()) {
+			if (now - lastRecorded[slot] < EXPIRY_MILLIS) {
+				slot++;
+				continue;
+			}
+			int last = slots.size() - 1;
+			slots.remove(names[slot]);
+			if (slot != last) {
+				names[slot] = names[last];
+				System.arraycopy(depths, last * ringSize, depths, slot * ringSize, ringSize);
+				counts[slot] = counts[last];
+				next[slot] = next[last];
+				maxOldestAges[slot] = maxOldestAges[last];
+				lastRecorded[slot] = lastRecorded[last];
+				slots.put(names[slot], slot);
+			}
+			names[last] = null;
+			counts[last] = 0;
+			next[last] = 0;
+			maxOldestAges[last] = -1;
+		}
+	}
+
+	private int slot(String queueName) {
+		Integer slot = slots.get(queueName);
+		if (slot == null) {
+			if (slots.size() >= maxQueues) {
+				return -1;
+			}
+			slot = slots.size();
+			slots.put(queueName, slot);
+			names[slot] = queueName;
+		}
+		return slot;
+	}
+}
@@ -0,0 +1,112 @@
+package com.newrelic.infra.ibmmq;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Exponentially time-weighted rate of change of each queue's depth, in messages per second, kept in primitive arrays with
+ * one slot per queue. Each observation costs a map lookup and a few arithmetic operations. The table grows with the
+ * number of queues; slots of queues not observed for {@link #EXPIRY_MILLIS} are reused, so temporary dynamic queues
+ * don't accumulate. Not thread safe.
+ */
+class DepthTrendEstimator {
+
+	static final long EXPIRY_MILLIS = 3600000;
+
+	// The weight of the newest rate is 1 - exp(-elapsed / TIME_CONSTANT_MILLIS), so a rate's weight depends on the time
+	// it covers rather than on how often the queue happens to be inquired: a minute of history counts as much whether
+	// it arrives in one observation or in twelve.
+	static final long TIME_CONSTANT_MILLIS = 60000;
+
+	private final Map<String, Integer> slots = new HashMap<>();
+	private int[] depths;
+	private long[] times;
+	private double[] rates;
+	private boolean[] hasRate;
+	private int used = 0;
+	private int[] free = new int[16];
+	private int freeCount = 0;
+
+	DepthTrendEstimator(int initialCapacity) {
+		int capacity = Math.max(initialCapacity, 16);
+		depths = new int[capacity];
+		times = new long[capacity];
+		rates = new double[capacity];
+		hasRate = new boolean[capacity];
+	}
+
+	/**
+	 * Records the queue's depth at the given time and returns the smoothed growth rate in messages per second, or NaN
+	 * while there is only one observation.
+	 */
+	double observe(String queueName, int depth, long now) {
+		Integer slot = slots.get(queueName);
+		if (slot == null) {
+			slot = allocate(now);
+			slots.put(queueName, slot);
+			depths[slot] = depth;
+			times[slot] = now;
+			hasRate[slot] = false;
+			return Double.NaN;
+		}
+
+		long elapsed = now - times[slot];
+		if (elapsed <= 0) {
+			return hasRate[slot] ? rates[slot] : Double.NaN;
+		}
+		double rate = (depth - depths[slot]) * 1000.0 / elapsed;
+		double alpha = 1 - Math.exp(-(double) elapsed / TIME_CONSTANT_MILLIS);
+		rates[slot] = hasRate[slot] ? alpha * rate + (1 - alpha) * rates[slot] : rate;
+		hasRate[slot] = true;
+		depths[slot] = depth;
+		times[slot] = now;
+		return rates[slot];
+	}
+
+	/**
+	 * Seconds until a queue growing at the given rate reaches its maximum depth, or -1 when it isn't growing.
+	 */
+	static long secondsToFull(int depth, int maxDepth, double rate) {
+		if (Double.isNaN(rate) || rate <= 0 || maxDepth <= 0) {
+			return -1;
+		}
+		return (long) (Math.max(maxDepth - depth, 0) / rate);
+	}
+
+	int size() {
+		return slots.size();
+	}
+
+	private int allocate(long now) {
+		if (freeCount == 0 && used == depths.length) {
+			reclaim(now);
+		}
+		if (freeCount > 0) {
+			return free[--freeCount];
+		}
+		if (used == depths.length) {
+			int capacity = depths.length * 2;
+			depths = Arrays.copyOf(depths, capacity);
+			times = Arrays.copyOf(times, capacity);
+			rates = Arrays.copyOf(rates, capacity);
+			hasRate = Arrays.copyOf(hasRate, capacity);
+		}
+		return used++;
+	}
+
+	private void reclaim(long now) {
+		Iterator<Integer> it = slots.values().iterator();
+		while (it.hasNext()) {
+			int slot = it.next();
+			if (now - times[slot] >= EXPIRY_MILLIS) {
+				it.remove();
+				if (freeCount == free.length) {
+					free = Arrays.copyOf(free, free.length * 2);
+				}
+				free[freeCount++] = slot;
+			}
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package com.newrelic.infra.ibmmq;
+
+/**
+ * One entry of a queue manager error log, with the fields read from it. Fields not present in the entry are null.
+ */
+public class ErrorLogEntry {
+
+	private final String text;
+	String time;
+	String messageId;
+	String severity;
+	String message;
+	String explanation;
+	String action;
+	String process;
+	String user;
+	String program;
+
+	ErrorLogEntry(String text) {
+		this.text = text;
+	}
+
+	/**
+	 * The entry as written to the log, searched for the error log patterns.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	public String getTime() {
+		return time;
+	}
+
+	public String getMessageId() {
+		return messageId;
+	}
+
+	public String getSeverity() {
+		return severity;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public String getExplanation() {
+		return explanation;
+	}
+
+	public String getAction() {
+		return action;
+	}
+
+	public String getProcess() {
+		return process;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public String getProgram() {
+		return program;
+	}
+
+	/**
+	 * The severity given by the last letter of an AMQ message id, such as AMQ9526E.
+	 */
+	static String severityOf(String messageId) {
+		if (messageId == null || messageId.isEmpty()) {
+			return null;
+		}
+		switch (messageId.charAt(messageId.length() - 1)) {
+		case 'I':
+			return "INFO";
+		case 'W':
+			return "WARNING";
+		case 'E':
+			return "ERROR";
+		case 'S':
+			return "SEVERE";
+		case 'T':
+			return "TERMINATION";
+		default:
+			return null;
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package com.newrelic.infra.ibmmq;
+
+/**
+ * Assembles error log entries from the lines of a log, fed one complete line at a time. An entry may span several
+ * lines; while part of one has been read, the parser holds it until the line completing it arrives.
+ */
+interface ErrorLogParser {
+
+	/**
+	 * Whether each line is an entry of its own.
+	 */
+	boolean isSingleLine();
+
+	/**
+	 * Whether the line, as bytes of the log, separates entries rather than being part of one. Used to find the end of
+	 * entries without decoding them, so only the entries containing a pattern are parsed.
+	 */
+	boolean isSeparator(byte[] line, int start, int length);
+
+	/**
+	 * Adds the next line of the log and returns the entry it completes, or null.
+	 */
+	ErrorLogEntry addLine(String line);
+
+	/**
+	 * Whether part of an entry has been read and not yet returned.
+	 */
+	boolean isHolding();
+
+	/**
+	 * Returns the entry held, if any, as complete. Used at the end of a log that is no longer written to.
+	 */
+	ErrorLogEntry flush();
+
+	/**
+	 * Drops the entry held, if any.
+	 */
+	void reset();
+}
@@ -0,0 +1,202 @@
+package com.newrelic.infra.ibmmq;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.newrelic.infra.publish.api.MetricReporter;
+import com.newrelic.infra.publish.api.metrics.AttributeMetric;
+import com.newrelic.infra.publish.api.metrics.GaugeMetric;
+import com.newrelic.infra.publish.api.metrics.Metric;
+
+/**
+ * Coalesces bursts of the same event, keyed by event queue, reason code and object name. The first event of a key is
+ * reported straight away and opens a window; further events of that key within the window are only counted. When the
+ * window closes one sample is reported for them, carrying their count, first and last put time and the last of those
+ * events. At most maxKeys keys are tracked: events for further keys share one overflow key per event queue and reason,
+ * and when there is no room for that either the oldest window is closed early to make some. Not thread safe.
+ */
+public class EventAggregator {
+
+	public static final String COALESCED_COUNT = "coalescedCount";
+	public static final String FIRST_SEEN = "firstSeen";
+	public static final String LAST_SEEN = "lastSeen";
+
+	private static final String OVERFLOW_OBJECT_NAME = "*";
+
+	/**
+	 * A decoded event message along with the values it is coalesced by.
+	 */
+	public static class Event {
+		private final String eventQueue;
+		private final int reason;
+		private final String objectName;
+		private final long putTime;
+		private final List<Metric> metricset;
+
+		public Event(String eventQueue, int reason, String objectName, long putTime, List<Metric> metricset) {
+			this.eventQueue = eventQueue;
+			this.reason = reason;
+			this.objectName = objectName;
+			this.putTime = putTime;
+			this.metricset = metricset;
+		}
+
+		public List<Metric> getMetricset() {
+			return metricset;
+		}
+	}
+
+	private static class Window {
+		private final long start;
+		private int count = 0;
+		private long firstSeen;
+		private long lastSeen;
+		private List<Metric> sample;
+
+		Window(long start) {
+			this.start = start;
+		}
+	}
+
+	/**
+	 * Counts the events that don't fit in a bounded batch, per event queue and reason code, to be reported as one
+	 * coalesced sample each with the last of them. Not thread safe.
+	 */
+	static class Overflow {
+		private final Map<String, Window> counts = new LinkedHashMap<>();
+
+		void add(Event event) {
+			String key = key(event.eventQueue, event.reason, OVERFLOW_OBJECT_NAME);
+			Window window = counts.get(key);
+			if (window == null) {
+				window = new Window(event.putTime);
+				window.firstSeen = event.putTime;
+				counts.put(key, window);
+			}
+			window.count++;
+			window.lastSeen = event.putTime;
+			window.sample = event.metricset;
+		}
+
+		int count() {
+			int count = 0;
+			for (Window window : counts.values()) {
+				count += window.count;
+			}
+			return count;
+		}
+
+		void report(MetricReporter metricReporter) {
+			for (Window window : counts.values()) {
+				close(window, metricReporter);
+			}
+			counts.clear();
+		}
+	}
+
+	private final long windowMillis;
+	private final int maxKeys;
+	// In the order the windows were opened.
+	private final Map<String, Window> windows = new LinkedHashMap<>();
+
+	public EventAggregator(long windowMillis, int maxKeys) {
+		this.windowMillis = windowMillis;
+		this.maxKeys = maxKeys;
+	}
+
+	public void report(Event event, MetricReporter metricReporter) {
+		report(event, metricReporter, System.currentTimeMillis());
+	}
+
+	void report(Event event, MetricReporter metricReporter, long now) {
+		if (windowMillis <= 0) {
+			metricReporter.report("MQEventSample", event.metricset);
+			return;
+		}
+
+		String key = key(event.eventQueue, event.reason, event.objectName);
+		Window window = windows.get(key);
+		if (window == null && windows.size() >= maxKeys) {
+			key = key(event.eventQueue, event.reason, OVERFLOW_OBJECT_NAME);
+			window = windows.get(key);
+		}
+		if (window != null && now - window.start >= windowMillis) {
+			close(window, metricReporter);
+			windows.remove(key);
+			window = null;
+		}
+
+		if (window == null) {
+			if (windows.size() >= maxKeys) {
+				closeOldest(metricReporter);
+			}
+			windows.put(key, new Window(now));
+			metricReporter.report("MQEventSample", event.metricset);
+		} else {
+			if (window.count == 0) {
+				window.firstSeen = event.putTime;
+			}
+			window.count++;
+			window.lastSeen = event.putTime;
+			window.sample = event.metricset;
+		}
+	}
+
+	/**
+	 * Reports and forgets every window that has closed by now.
+	 */
+	public void flush(MetricReporter metricReporter) {
+		flush(metricReporter, System.currentTimeMillis());
+	}
+
+	void flush(MetricReporter metricReporter, long now) {
+		Iterator<Window> it = windows.values().iterator();
+		while (it.hasNext()) {
+			Window window = it.next();
+			if (now - window.start >= windowMillis) {
+				close(window, metricReporter);
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Whether any open window holds events that haven't been reported yet.
+	 */
+	public boolean isHolding() {
+		for (Window window : windows.values()) {
+			if (window.count > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	int size() {
+		return windows.size();
+	}
+
+	private void closeOldest(MetricReporter metricReporter) {
+		Iterator<Window> it = windows.values().iterator();
+		if (it.hasNext()) {
+			close(it.next(), metricReporter);
+			it.remove();
+		}
+	}
+
+	private static void close(Window window, MetricReporter metricReporter) {
+		if (window.count == 0) {
+			return;
+		}
+		window.sample.add(new GaugeMetric(COALESCED_COUNT, window.count));
+		window.sample.add(new AttributeMetric(FIRST_SEEN, EventMetricCollector.DATE_TIME_FORMAT.format(window.firstSeen)));
+		window.sample.add(new AttributeMetric(LAST_SEEN, EventMetricCollector.DATE_TIME_FORMAT.format(window.lastSeen)));
+		metricReporter.report("MQEventSample", window.sample);
+	}
+
+	private static String key(String eventQueue, int reason, String objectName) {
+		return eventQueue + '/' + reason + '/' + (objectName == null ? "" : objectName);
+	}
+}
@@ -0,0 +1,120 @@
+package com.newrelic.infra.ibmmq;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The last event message processed on each browsed event queue, identified by its message id and put time. The
+ * positions are kept in a state file so a restarted agent resumes browsing after the last message it reported.
+ */
+public class EventBrowseCheckpoint {
+
+	public static class Position {
+		private final byte[] messageId;
+		private final long putTime;
+
+		Position(byte[] messageId, long putTime) {
+			this.messageId = messageId;
+			this.putTime = putTime;
+		}
+
+		public byte[] getMessageId() {
+			return messageId.clone();
+		}
+
+		public long getPutTime() {
+			return putTime;
+		}
+
+		/**
+		 * Whether a message with this put time and message id comes after this position. Put times only have a
+		 * resolution of a hundredth of a second, so messages put in the same tick are ordered by message id.
+		 */
+		public boolean isBefore(long putTime, byte[] messageId) {
+			if (putTime != this.putTime) {
+				return this.putTime < putTime;
+			}
+			for (int i = 0; i < Math.min(this.messageId.length, messageId.length); i++) {
+				int a = this.messageId[i] & 0xff;
+				int b = messageId[i] & 0xff;
+				if (a != b) {
+					return a < b;
+				}
+			}
+			return this.messageId.length < messageId.length;
+		}
+	}
+
+	private final String statePath;
+	private final Map<String, Position> positions = new HashMap<>();
+	private boolean loaded = false;
+	private boolean dirty = false;
+
+	EventBrowseCheckpoint(String statePath) {
+		this.statePath = statePath;
+	}
+
+	public Position get(String queueName) throws IOException {
+		load();
+		return positions.get(queueName);
+	}
+
+	public void update(String queueName, byte[] messageId, long putTime) {
+		positions.put(queueName, new Position(messageId.clone(), putTime));
+		dirty = true;
+	}
+
+	/**
+	 * Writes the positions if any changed since the last save. The new state is synced to disk before it replaces
+	 * the file by rename, so a crash leaves either the previous or the new state.
+	 */
+	public void save() throws IOException {
+		if (!dirty) {
+			return;
+		}
+		File f = new File(statePath);
+		File tmp = new File(statePath + ".tmp");
+		try (FileOutputStream file = new FileOutputStream(tmp);
+				DataOutputStream out = new DataOutputStream(file)) {
+			out.writeInt(positions.size());
+			for (Map.Entry<String, Position> entry : positions.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue().messageId.length);
+				out.write(entry.getValue().messageId);
+				out.writeLong(entry.getValue().putTime);
+			}
+			out.flush();
+			file.getFD().sync();
+		}
+		Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		dirty = false;
+	}
+
+	private void load() throws IOException {
+		if (loaded) {
+			return;
+		}
+		loaded = true;
+		File f = new File(statePath);
+		if (!f.exists()) {
+			return;
+		}
+		try (DataInputStream in = new DataInputStream(new FileInputStream(f))) {
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String queueName = in.readUTF();
+				byte[] messageId = new byte[in.readInt()];
+				in.readFully(messageId);
+				positions.put(queueName, new Position(messageId, in.readLong()));
+			}
+		}
+	}
+}
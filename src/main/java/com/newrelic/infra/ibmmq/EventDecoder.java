@@ -0,0 +1,191 @@
+package com.newrelic.infra.ibmmq;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.ibm.mq.constants.MQConstants;
+import com.ibm.mq.headers.pcf.MQCFGR;
+import com.ibm.mq.headers.pcf.PCFMessage;
+import com.ibm.mq.headers.pcf.PCFParameter;
+import com.newrelic.infra.ibmmq.constants.EventConstants;
+import com.newrelic.infra.publish.api.metrics.AttributeMetric;
+import com.newrelic.infra.publish.api.metrics.GaugeMetric;
+import com.newrelic.infra.publish.api.metrics.Metric;
+
+/**
+ * Decodes the PCF parameters of known event types into typed MQEventSample attributes, one field table per event
+ * reason code. Parameters nested in groups, like the command context of command events, are found as well.
+ */
+class EventDecoder {
+
+	private enum Kind { STRING, GAUGE, OBJECT_TYPE, COMMAND }
+
+	private static final class Field {
+		final int parameter;
+		final String attribute;
+		final Kind kind;
+
+		Field(int parameter, String attribute, Kind kind) {
+			this.parameter = parameter;
+			this.attribute = attribute;
+			this.kind = kind;
+		}
+	}
+
+	private static final Map<Integer, Field[]> decoders;
+
+	// Top level parameters naming what an event is about, in order of preference.
+	private static final int[] KEY_PARAMETERS = {
+			MQConstants.MQCA_BASE_OBJECT_NAME,
+			MQConstants.MQCA_Q_NAME,
+			MQConstants.MQCACF_OBJECT_NAME,
+			MQConstants.MQCACH_CHANNEL_NAME,
+			MQConstants.MQCACF_USER_IDENTIFIER
+	};
+
+	static {
+		Field[] queueDepth = {
+				new Field(MQConstants.MQCA_BASE_OBJECT_NAME, EventConstants.OBJECT_NAME, Kind.STRING),
+				new Field(MQConstants.MQIA_HIGH_Q_DEPTH, EventConstants.EVENT_HIGH_Q_DEPTH, Kind.GAUGE),
+				new Field(MQConstants.MQIA_MSG_ENQ_COUNT, EventConstants.EVENT_MSG_ENQ_COUNT, Kind.GAUGE),
+				new Field(MQConstants.MQIA_MSG_DEQ_COUNT, EventConstants.EVENT_MSG_DEQ_COUNT, Kind.GAUGE),
+				new Field(MQConstants.MQIA_TIME_SINCE_RESET, EventConstants.EVENT_TIME_SINCE_RESET, Kind.GAUGE) };
+
+		Field[] channel = {
+				new Field(MQConstants.MQCACH_CHANNEL_NAME, EventConstants.CHANNEL_NAME, Kind.STRING),
+				new Field(MQConstants.MQCACH_CONNECTION_NAME, EventConstants.CONNECTION_NAME, Kind.STRING),
+				new Field(MQConstants.MQCACH_XMIT_Q_NAME, EventConstants.XMIT_Q_NAME, Kind.STRING) };
+
+		Field[] authority = {
+				new Field(MQConstants.MQCACF_USER_IDENTIFIER, EventConstants.USER_ID, Kind.STRING),
+				new Field(MQConstants.MQCACF_APPL_NAME, EventConstants.APPL_NAME, Kind.STRING),
+				new Field(MQConstants.MQCA_Q_NAME, EventConstants.OBJECT_NAME, Kind.STRING),
+				new Field(MQConstants.MQCACF_OBJECT_NAME, EventConstants.OBJECT_NAME, Kind.STRING),
+				new Field(MQConstants.MQIACF_OBJECT_TYPE, EventConstants.OBJECT_TYPE, Kind.OBJECT_TYPE),
+				new Field(MQConstants.MQCACH_CHANNEL_NAME, EventConstants.CHANNEL_NAME, Kind.STRING),
+				new Field(MQConstants.MQCACH_CONNECTION_NAME, EventConstants.CONNECTION_NAME, Kind.STRING) };
+
+		Field[] command = {
+				new Field(MQConstants.MQCACF_EVENT_USER_ID, EventConstants.USER_ID, Kind.STRING),
+				new Field(MQConstants.MQCACF_EVENT_APPL_NAME, EventConstants.APPL_NAME, Kind.STRING),
+				new Field(MQConstants.MQIACF_COMMAND, EventConstants.COMMAND, Kind.COMMAND) };
+
+		Field[] config = {
+				new Field(MQConstants.MQCACF_EVENT_USER_ID, EventConstants.USER_ID, Kind.STRING),
+				new Field(MQConstants.MQCACF_EVENT_APPL_NAME, EventConstants.APPL_NAME, Kind.STRING),
+				new Field(MQConstants.MQIACF_OBJECT_TYPE, EventConstants.OBJECT_TYPE, Kind.OBJECT_TYPE),
+				new Field(MQConstants.MQCA_Q_NAME, EventConstants.OBJECT_NAME, Kind.STRING),
+				new Field(MQConstants.MQCACH_CHANNEL_NAME, EventConstants.OBJECT_NAME, Kind.STRING),
+				new Field(MQConstants.MQCA_TOPIC_NAME, EventConstants.OBJECT_NAME, Kind.STRING),
+				new Field(MQConstants.MQCA_PROCESS_NAME, EventConstants.OBJECT_NAME, Kind.STRING),
+				new Field(MQConstants.MQCA_NAMELIST_NAME, EventConstants.OBJECT_NAME, Kind.STRING),
+				new Field(MQConstants.MQCACH_LISTENER_NAME, EventConstants.OBJECT_NAME, Kind.STRING),
+				new Field(MQConstants.MQCA_SERVICE_NAME, EventConstants.OBJECT_NAME, Kind.STRING),
+				new Field(MQConstants.MQCA_AUTH_INFO_NAME, EventConstants.OBJECT_NAME, Kind.STRING),
+				new Field(MQConstants.MQCA_COMM_INFO_NAME, EventConstants.OBJECT_NAME, Kind.STRING) };
+
+		Map<Integer, Field[]> mDecoders = new HashMap<>();
+		mDecoders.put(MQConstants.MQRC_Q_DEPTH_HIGH, queueDepth);
+		mDecoders.put(MQConstants.MQRC_Q_DEPTH_LOW, queueDepth);
+		mDecoders.put(MQConstants.MQRC_Q_FULL, queueDepth);
+		mDecoders.put(MQConstants.MQRC_Q_SERVICE_INTERVAL_HIGH, queueDepth);
+		mDecoders.put(MQConstants.MQRC_Q_SERVICE_INTERVAL_OK, queueDepth);
+
+		mDecoders.put(MQConstants.MQRC_CHANNEL_STARTED, channel);
+		mDecoders.put(MQConstants.MQRC_CHANNEL_STOPPED, channel);
+		mDecoders.put(MQConstants.MQRC_CHANNEL_STOPPED_BY_USER, channel);
+		mDecoders.put(MQConstants.MQRC_CHANNEL_ACTIVATED, channel);
+		mDecoders.put(MQConstants.MQRC_CHANNEL_NOT_ACTIVATED, channel);
+
+		mDecoders.put(MQConstants.MQRC_NOT_AUTHORIZED, authority);
+
+		mDecoders.put(MQConstants.MQRC_COMMAND_MQSC, command);
+		mDecoders.put(MQConstants.MQRC_COMMAND_PCF, command);
+
+		mDecoders.put(MQConstants.MQRC_CONFIG_CREATE_OBJECT, config);
+		mDecoders.put(MQConstants.MQRC_CONFIG_CHANGE_OBJECT, config);
+		mDecoders.put(MQConstants.MQRC_CONFIG_DELETE_OBJECT, config);
+		mDecoders.put(MQConstants.MQRC_CONFIG_REFRESH_OBJECT, config);
+
+		decoders = Collections.unmodifiableMap(mDecoders);
+	}
+
+	private EventDecoder() {
+	}
+
+	/**
+	 * Adds the typed attributes of the event to the metric set. Returns false when the event type has no decoder,
+	 * in which case nothing is added.
+	 */
+	static boolean decode(PCFMessage pcf, List<Metric> metricset) {
+		Field[] fields = decoders.get(pcf.getReason());
+		if (fields == null) {
+			return false;
+		}
+
+		Map<Integer, Object> values = new HashMap<>();
+		collect(pcf.getParameters(), values);
+
+		// The first parameter found wins when several map onto the same attribute.
+		Set<String> added = new HashSet<>();
+		for (Field field : fields) {
+			Object value = values.get(field.parameter);
+			if (value == null || !added.add(field.attribute)) {
+				continue;
+			}
+			switch (field.kind) {
+			case GAUGE:
+				if (value instanceof Number) {
+					metricset.add(new GaugeMetric(field.attribute, (Number) value));
+				}
+				break;
+			case OBJECT_TYPE:
+				if (value instanceof Integer) {
+					metricset.add(new AttributeMetric(field.attribute, MQAgent.friendlyCodeLookup((Integer) value, "MQOT_.*")));
+				}
+				break;
+			case COMMAND:
+				if (value instanceof Integer) {
+					metricset.add(new AttributeMetric(field.attribute, MQAgent.friendlyCodeLookup((Integer) value, "MQCMD_.*")));
+				}
+				break;
+			default:
+				metricset.add(new AttributeMetric(field.attribute, value.toString().trim()));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the name of the object the event is about, or null when it names none.
+	 */
+	static String objectName(PCFMessage pcf) {
+		for (int parameter : KEY_PARAMETERS) {
+			Object value = pcf.getParameterValue(parameter);
+			if (value != null) {
+				return value.toString().trim();
+			}
+		}
+		return null;
+	}
+
+	private static void collect(Enumeration<?> params, Map<Integer, Object> values) {
+		while (params.hasMoreElements()) {
+			Object next = params.nextElement();
+			if (!(next instanceof PCFParameter)) {
+				continue;
+			}
+			PCFParameter param = (PCFParameter) next;
+			if (param instanceof MQCFGR) {
+				collect(((MQCFGR) param).getParameters(), values);
+			} else if (!values.containsKey(param.getParameter())) {
+				values.put(param.getParameter(), param.getValue());
+			}
+		}
+	}
+}
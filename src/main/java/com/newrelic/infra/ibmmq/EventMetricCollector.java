@@ -9,12 +9,14 @@
 package com.newrelic.infra.ibmmq;
 
 import java.io.IOException;
-import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
+import org.apache.commons.lang3.time.FastDateFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,22 +38,189 @@ public class EventMetricCollector {
 
 	private static final Logger logger = LoggerFactory.getLogger(EventMetricCollector.class);
 
-	private final SimpleDateFormat dateTimeFormat = new SimpleDateFormat("dd MMM HH:mm:ss");
+	static final String[] EVENT_QUEUES = {
+			"SYSTEM.ADMIN.QMGR.EVENT",
+			"SYSTEM.ADMIN.CHANNEL.EVENT",
+			"SYSTEM.ADMIN.PERFM.EVENT",
+			"SYSTEM.ADMIN.CONFIG.EVENT",
+			"SYSTEM.ADMIN.COMMAND.EVENT",
+			"SYSTEM.ADMIN.LOGGER.EVENT",
+			"SYSTEM.ADMIN.PUBSUB.EVENT"
+	};
+
+	private static final int[] DETAILS_IGNORE = { MQConstants.MQIACF_REASON_QUALIFIER, MQConstants.MQCA_Q_MGR_NAME };
+
+	static {
+		Arrays.sort(DETAILS_IGNORE);
+	}
+
+	static final FastDateFormat DATE_TIME_FORMAT = FastDateFormat.getInstance("dd MMM HH:mm:ss");
 	
 	private AgentConfig agentConfig = null;
+
+	private EventBrowseCheckpoint browseCheckpoint = null;
+
+	// The last message browsed on each queue by a pass from the start that stopped at eventBatchSize, the next cycle
+	// carries on skipping after it rather than browsing the same messages again.
+	private Map<String, byte[]> skipResume = new HashMap<>();
+
+	private EventAggregator eventAggregator = null;
+
+	private DepthEventInquirer depthEventInquirer = null;
 	
 	public EventMetricCollector(AgentConfig agentConfig) {
 		this.agentConfig  = agentConfig;
+		this.eventAggregator = new EventAggregator(agentConfig.getEventCoalesceWindow() * 1000L,
+				agentConfig.getEventCoalesceMaxKeys());
+		if (agentConfig.browseEventMessages()) {
+			this.browseCheckpoint = new EventBrowseCheckpoint(agentConfig.getAgentTempPath() + "/"
+					+ agentConfig.getServerQueueManagerName() + "-event-browse.state");
+		}
 	}
 	
+	public void setDepthEventInquirer(DepthEventInquirer depthEventInquirer) {
+		this.depthEventInquirer = depthEventInquirer;
+	}
+
+	public DepthEventInquirer getDepthEventInquirer() {
+		return depthEventInquirer;
+	}
+
 	protected void reportEventStats(MQQueueManager mqQueueManager , MetricReporter metricReporter) {
-		reportEventStatsForQueue(mqQueueManager, metricReporter, "SYSTEM.ADMIN.QMGR.EVENT");
-		reportEventStatsForQueue(mqQueueManager, metricReporter, "SYSTEM.ADMIN.CHANNEL.EVENT");
-		reportEventStatsForQueue(mqQueueManager, metricReporter, "SYSTEM.ADMIN.PERFM.EVENT");
-		reportEventStatsForQueue(mqQueueManager, metricReporter, "SYSTEM.ADMIN.CONFIG.EVENT");
-		reportEventStatsForQueue(mqQueueManager, metricReporter, "SYSTEM.ADMIN.COMMAND.EVENT");
-		reportEventStatsForQueue(mqQueueManager, metricReporter, "SYSTEM.ADMIN.LOGGER.EVENT");
-		reportEventStatsForQueue(mqQueueManager, metricReporter, "SYSTEM.ADMIN.PUBSUB.EVENT");
+		if (browseCheckpoint != null) {
+			for (String queueName : EVENT_QUEUES) {
+				browseEventStatsForQueue(mqQueueManager, metricReporter, queueName);
+			}
+			try {
+				browseCheckpoint.save();
+			} catch (IOException e) {
+				logger.error("Couldn't save event browse checkpoint", e);
+			}
+		} else {
+			for (String queueName : EVENT_QUEUES) {
+				reportEventStatsForQueue(mqQueueManager, metricReporter, queueName);
+			}
+		}
+		eventAggregator.flush(metricReporter);
+	}
+
+	/**
+	 * Reports a decoded event, coalescing it with recent events of the same kind when a window is configured.
+	 */
+	void reportEvent(EventAggregator.Event event, MetricReporter metricReporter) {
+		eventAggregator.report(event, metricReporter);
+	}
+
+	/**
+	 * Reports the coalesced events of every window that has closed.
+	 */
+	void flushCoalescedEvents(MetricReporter metricReporter) {
+		eventAggregator.flush(metricReporter);
+	}
+
+	/**
+	 * Reports the event messages put since the last checkpoint without removing them, so other consumers of the event
+	 * queues still see every message. The browse cursor is positioned on the last processed message by its id, so
+	 * only newer messages are read. If that message is gone (consumed elsewhere, expired or the queue was purged) the
+	 * queue is browsed from the start and messages that don't come after the checkpoint, by put time then message
+	 * id, are skipped. At most eventBatchSize messages are browsed per queue and cycle, skipped ones included. When a
+	 * pass from the start stops there, the last message browsed is remembered and the next cycle carries on skipping
+	 * after it, so a long run of old messages is worked through over several cycles instead of being browsed again.
+	 */
+	protected void browseEventStatsForQueue(MQQueueManager mgr, MetricReporter metricReporter, String queueName) {
+		MQQueue queue = null;
+
+		try {
+			queue = mgr.accessQueue(queueName, MQConstants.MQOO_BROWSE + MQConstants.MQOO_FAIL_IF_QUIESCING, null,
+					null, null);
+
+			int browseOptions = MQConstants.MQGMO_NO_WAIT + MQConstants.MQGMO_FAIL_IF_QUIESCING
+					+ MQConstants.MQGMO_CONVERT;
+			MQGetMessageOptions getOptions = new MQGetMessageOptions();
+			getOptions.options = browseOptions + MQConstants.MQGMO_BROWSE_FIRST;
+			getOptions.matchOptions = MQConstants.MQMO_NONE;
+
+			MQMessage message = new MQMessage();
+			// Set when browsing from the start: the messages up to the checkpoint are skipped.
+			EventBrowseCheckpoint.Position skipUpTo = null;
+
+			EventBrowseCheckpoint.Position last = browseCheckpoint.get(queueName);
+			byte[] resume = skipResume.remove(queueName);
+			if (last != null) {
+				getOptions.matchOptions = MQConstants.MQMO_MATCH_MSG_ID;
+				if (resume != null) {
+					// An earlier pass from the start stopped here, carry on skipping after it.
+					skipUpTo = last;
+					message.messageId = resume;
+					if (browse(queue, message, getOptions)) {
+						getOptions.options = browseOptions + MQConstants.MQGMO_BROWSE_NEXT;
+					}
+				} else {
+					message.messageId = last.getMessageId();
+					if (browse(queue, message, getOptions)) {
+						getOptions.options = browseOptions + MQConstants.MQGMO_BROWSE_NEXT;
+					} else {
+						skipUpTo = last;
+					}
+				}
+				getOptions.matchOptions = MQConstants.MQMO_NONE;
+			}
+
+			int browsed = 0;
+			int count = 0;
+			while (browsed < agentConfig.getEventBatchSize()) {
+				message.clearMessage();
+				message.messageId = MQConstants.MQMI_NONE;
+				if (!browse(queue, message, getOptions)) {
+					break;
+				}
+				getOptions.options = browseOptions + MQConstants.MQGMO_BROWSE_NEXT;
+				browsed++;
+
+				long putTime = message.putDateTime.getTimeInMillis();
+				if (skipUpTo != null && !skipUpTo.isBefore(putTime, message.messageId)) {
+					continue;
+				}
+				count++;
+				try {
+					reportEvent(toEvent(message, queueName), metricReporter);
+				} catch (MQDataException e) {
+					logger.error("Skipping event message from " + queueName + " that couldn't be decoded", e);
+				}
+				// Messages browsed from the start needn't be in put order, only a later one moves the checkpoint then.
+				EventBrowseCheckpoint.Position newest = browseCheckpoint.get(queueName);
+				if (skipUpTo == null || newest.isBefore(putTime, message.messageId)) {
+					browseCheckpoint.update(queueName, message.messageId, putTime);
+				}
+			}
+			if (skipUpTo != null && browsed >= agentConfig.getEventBatchSize()) {
+				skipResume.put(queueName, message.messageId.clone());
+			}
+			logger.debug("{} event messages browsed from {}, {} of them reported", browsed, queueName, count);
+		} catch (IOException | MQException e) {
+			logger.error("Problem browsing event stats from " + queueName + ".", e);
+		} finally {
+			if (queue != null) {
+				try {
+					queue.close();
+				} catch (MQException e) {
+					logger.error("Couldn't close queue " + queueName);
+				}
+			}
+		}
+	}
+
+	// Returns false when there is no (further) message to browse.
+	private boolean browse(MQQueue queue, MQMessage message, MQGetMessageOptions getOptions) throws MQException {
+		try {
+			queue.get(message, getOptions);
+			return true;
+		} catch (MQException e) {
+			if (e.reasonCode == MQConstants.MQRC_NO_MSG_AVAILABLE) {
+				return false;
+			}
+			throw e;
+		}
 	}
 
 	protected void reportEventStatsForQueue(MQQueueManager mgr, MetricReporter metricReporter, String queueName) {
@@ -69,39 +238,10 @@ public class EventMetricCollector {
 
 			MQMessage message = new MQMessage();
 
-			int[] detailsIgnore = new int[] { MQConstants.MQIACF_REASON_QUALIFIER, MQConstants.MQCA_Q_MGR_NAME };
-			Arrays.sort(detailsIgnore);
-
 			while (true) {
 				try {
 					queue.get(message, getOptions);
-					PCFMessage pcf = new PCFMessage(message);
-
-					StringBuilder b = new StringBuilder();
-					Enumeration params = pcf.getParameters();
-					while (params.hasMoreElements()) {
-						//TODO: unsafe cast? 
-						PCFParameter param = (PCFParameter)params.nextElement();
-						if (Arrays.binarySearch(detailsIgnore, param.getParameter()) < 0) {
-							b.append(param.getParameterName()).append('=').append(param.getStringValue().trim())
-									.append(';');
-						}
-					}
-					String details = b.length() > 0 ? b.substring(0, b.length() - 1) : "";
-
-					List<Metric> metricset = new LinkedList<>();
-					metricset.add(new AttributeMetric("provider", "ibm"));
-					metricset.add(new AttributeMetric("qManagerName", agentConfig.getServerQueueManagerName()));
-					metricset.add(new AttributeMetric("qManagerHost", agentConfig.getServerHost()));
-					
-					metricset.add(new AttributeMetric("object", "event"));
-					metricset.add(new AttributeMetric("putTime", dateTimeFormat.format(message.putDateTime.getTime())));
-					metricset.add(new AttributeMetric("eventQueue", queueName));
-					metricset.add(new AttributeMetric("queueManager", pcf.getStringParameterValue(MQConstants.MQCA_Q_MGR_NAME).trim()));
-					metricset.add(new AttributeMetric("reasonCode", MQConstants.lookupReasonCode(pcf.getReason())));
-					metricset.add(new AttributeMetric("reasonQualifier", tryGetPCFIntParam(pcf, MQConstants.MQIACF_REASON_QUALIFIER, "MQRQ_.*")));
-					metricset.add(new AttributeMetric("details", details));
-					metricReporter.report("MQEventSample", metricset);
+					reportEvent(toEvent(message, queueName), metricReporter);
 					
 					message.clearMessage();
 
@@ -131,7 +271,54 @@ public class EventMetricCollector {
 			}
 		}
 	}
+
+	/**
+	 * Decodes one event message read from the given event queue into the attributes of an MQEventSample.
+	 */
+	EventAggregator.Event toEvent(MQMessage message, String queueName) throws MQDataException, IOException {
+		PCFMessage pcf = new PCFMessage(message);
+
+		List<Metric> metricset = new LinkedList<>();
+		metricset.add(new AttributeMetric("provider", "ibm"));
+		metricset.add(new AttributeMetric("qManagerName", agentConfig.getServerQueueManagerName()));
+		metricset.add(new AttributeMetric("qManagerHost", agentConfig.getServerHost()));
+		
+		metricset.add(new AttributeMetric("object", "event"));
+		metricset.add(new AttributeMetric("putTime", DATE_TIME_FORMAT.format(message.putDateTime)));
+		metricset.add(new AttributeMetric("eventQueue", queueName));
+		metricset.add(new AttributeMetric("queueManager", pcf.getStringParameterValue(MQConstants.MQCA_Q_MGR_NAME).trim()));
+		metricset.add(new AttributeMetric("reasonCode", MQConstants.lookupReasonCode(pcf.getReason())));
+		metricset.add(new AttributeMetric("reasonQualifier", tryGetPCFIntParam(pcf, MQConstants.MQIACF_REASON_QUALIFIER, "MQRQ_.*")));
+		if (!EventDecoder.decode(pcf, metricset)) {
+			metricset.add(new AttributeMetric("details", details(pcf)));
+		}
+		String objectName = EventDecoder.objectName(pcf);
+		if (depthEventInquirer != null
+				&& (pcf.getReason() == MQConstants.MQRC_Q_DEPTH_HIGH || pcf.getReason() == MQConstants.MQRC_Q_FULL)) {
+			depthEventInquirer.trigger(objectName, pcf.getReason());
+		}
+		return new EventAggregator.Event(queueName, pcf.getReason(), objectName,
+				message.putDateTime.getTimeInMillis(), metricset);
+	}
 	
+	// Flattens every parameter of an event type without a decoder into name=value pairs.
+	private String details(PCFMessage pcf) {
+		StringBuilder b = new StringBuilder();
+		Enumeration<?> params = pcf.getParameters();
+		while (params.hasMoreElements()) {
+			Object next = params.nextElement();
+			if (!(next instanceof PCFParameter)) {
+				continue;
+			}
+			PCFParameter param = (PCFParameter) next;
+			if (Arrays.binarySearch(DETAILS_IGNORE, param.getParameter()) < 0) {
+				b.append(param.getParameterName()).append('=').append(param.getStringValue().trim())
+						.append(';');
+			}
+		}
+		return b.length() > 0 ? b.substring(0, b.length() - 1) : "";
+	}
+
 	private String tryGetPCFIntParam(PCFMessage pcf, int paramId, String lookupFilter) throws PCFException {
 		try {
 			return MQConstants.lookup(pcf.getIntParameterValue(paramId), lookupFilter);
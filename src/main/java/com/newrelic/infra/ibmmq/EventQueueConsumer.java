@@ -0,0 +1,281 @@
+package com.newrelic.infra.ibmmq;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.mq.MQException;
+import com.ibm.mq.MQGetMessageOptions;
+import com.ibm.mq.MQMessage;
+import com.ibm.mq.MQQueue;
+import com.ibm.mq.MQQueueManager;
+import com.ibm.mq.constants.MQConstants;
+import com.ibm.mq.headers.MQDataException;
+import com.ibm.mq.headers.pcf.PCFMessageAgent;
+import com.newrelic.infra.publish.api.MetricReporter;
+
+/**
+ * Keeps the event queues open on a dedicated connection and reads them with blocking gets, so events are picked up
+ * within seconds instead of once per polling interval. Messages are got under syncpoint and the unit of work is
+ * committed as soon as their events are held in memory, at least every MAX_GETS_PER_QUEUE messages, so the queues are
+ * drained at the rate events arrive rather than once per cycle. {@link #reportPendingEvents} reports the events held
+ * since the last cycle. At most eventBatchSize events are held one by one; the rest are counted per event queue and
+ * reason code and reported as one coalesced sample each, so an event storm neither grows the memory used nor leaves
+ * the event queues to fill up. The event queues are read in turn, at most MAX_GETS_PER_QUEUE messages at a time, so a
+ * busy queue doesn't hold up the others.
+ */
+public class EventQueueConsumer implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(EventQueueConsumer.class);
+
+	private static final long RECONNECT_DELAY_MS = 30000;
+	private static final int MAX_GETS_PER_QUEUE = 100;
+
+	private final AgentConfig agentConfig;
+	private final EventMetricCollector eventMetricCollector;
+
+	// Guards the events held below, and is notified to stop the consumer while it waits to reconnect.
+	private final Object lock = new Object();
+	private List<EventAggregator.Event> pendingEvents = new ArrayList<>();
+	private EventAggregator.Overflow overflow = new EventAggregator.Overflow();
+
+	// Messages got under the current unit of work, only touched by the consumer thread.
+	private int uncommittedCount = 0;
+
+	// Separate connection for the inquiries triggered by depth events, so their PCF messages stay out of the unit of
+	// work. Opened on the first trigger and only touched by the consumer thread.
+	private MQQueueManager inquiryManager = null;
+	private PCFMessageAgent inquiryAgent = null;
+
+	private volatile boolean running = false;
+	private Thread thread = null;
+
+	public EventQueueConsumer(AgentConfig agentConfig, EventMetricCollector eventMetricCollector) {
+		this.agentConfig = agentConfig;
+		this.eventMetricCollector = eventMetricCollector;
+	}
+
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "mq-event-consumer-" + agentConfig.getServerQueueManagerName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop() {
+		if (thread == null) {
+			return;
+		}
+		running = false;
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+		try {
+			thread.join(agentConfig.getEventWaitInterval() * 2L + 1000L);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+	}
+
+	/**
+	 * Reports the events consumed since the last call, along with the coalesced samples of those that didn't fit.
+	 */
+	public void reportPendingEvents(MetricReporter metricReporter) {
+		List<EventAggregator.Event> events;
+		EventAggregator.Overflow overflowed;
+		synchronized (lock) {
+			events = pendingEvents;
+			overflowed = overflow;
+			pendingEvents = new ArrayList<>();
+			overflow = new EventAggregator.Overflow();
+		}
+
+		for (EventAggregator.Event event : events) {
+			eventMetricCollector.reportEvent(event, metricReporter);
+		}
+		int overflowCount = overflowed.count();
+		if (overflowCount > 0) {
+			logger.warn("{} event messages for queue manager {} beyond eventBatchSize were reported coalesced",
+					overflowCount, agentConfig.getServerQueueManagerName());
+		}
+		overflowed.report(metricReporter);
+		eventMetricCollector.flushCoalescedEvents(metricReporter);
+		logger.debug("{} event messages reported for queue manager {}", events.size() + overflowCount,
+				agentConfig.getServerQueueManagerName());
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			MQQueueManager mgr = null;
+			List<MQQueue> queues = new ArrayList<>();
+			List<String> queueNames = new ArrayList<>();
+			try {
+				mgr = MQAgent.connect(agentConfig);
+				for (String queueName : EventMetricCollector.EVENT_QUEUES) {
+					try {
+						queues.add(mgr.accessQueue(queueName,
+								MQConstants.MQOO_INPUT_SHARED + MQConstants.MQOO_FAIL_IF_QUIESCING, null, null, null));
+						queueNames.add(queueName);
+					} catch (MQException e) {
+						logger.error("Couldn't open event queue " + queueName + ", reason " + e.reasonCode);
+					}
+				}
+				if (!queues.isEmpty()) {
+					consume(mgr, queues, queueNames);
+				}
+			} catch (MQException e) {
+				logger.error("Problem consuming event messages for " + agentConfig.getServerQueueManagerName(), e);
+			} catch (Throwable t) {
+				logger.error("Problem consuming event messages for " + agentConfig.getServerQueueManagerName(), t);
+			} finally {
+				release(mgr, queues);
+			}
+
+			if (running) {
+				synchronized (lock) {
+					try {
+						lock.wait(RECONNECT_DELAY_MS);
+					} catch (InterruptedException e) {
+						running = false;
+					}
+				}
+			}
+		}
+	}
+
+	private void consume(MQQueueManager mgr, List<MQQueue> queues, List<String> queueNames)
+			throws MQException, IOException {
+		MQGetMessageOptions getOptions = new MQGetMessageOptions();
+		getOptions.options = MQConstants.MQGMO_WAIT + MQConstants.MQGMO_SYNCPOINT + MQConstants.MQGMO_FAIL_IF_QUIESCING
+				+ MQConstants.MQGMO_CONVERT;
+		getOptions.matchOptions = MQConstants.MQMO_NONE;
+		getOptions.waitInterval = agentConfig.getEventWaitInterval();
+
+		MQMessage message = new MQMessage();
+		int index = 0;
+		int gets = 0;
+		while (running) {
+			inquireTriggeredQueues();
+
+			MQQueue queue = queues.get(index);
+			try {
+				message.clearMessage();
+				queue.get(message, getOptions);
+				uncommittedCount++;
+				EventAggregator.Event event = decode(message, queueNames.get(index));
+				if (event != null) {
+					hold(event);
+				}
+				if (++gets >= MAX_GETS_PER_QUEUE) {
+					// Give the other queues their turn.
+					commit(mgr);
+					index = (index + 1) % queues.size();
+					gets = 0;
+				}
+			} catch (MQException e) {
+				if (e.reasonCode == MQConstants.MQRC_NO_MSG_AVAILABLE) {
+					// This queue is drained, wait on the next one.
+					commit(mgr);
+					index = (index + 1) % queues.size();
+					gets = 0;
+				} else {
+					throw e;
+				}
+			}
+		}
+	}
+
+	private void hold(EventAggregator.Event event) {
+		synchronized (lock) {
+			if (pendingEvents.size() < agentConfig.getEventBatchSize()) {
+				pendingEvents.add(event);
+			} else {
+				overflow.add(event);
+			}
+		}
+	}
+
+	// The events of the messages got are held in memory by now, so their unit of work can be committed.
+	private void commit(MQQueueManager mgr) throws MQException {
+		if (uncommittedCount > 0) {
+			mgr.commit();
+			uncommittedCount = 0;
+		}
+	}
+
+	private EventAggregator.Event decode(MQMessage message, String queueName) {
+		try {
+			return eventMetricCollector.toEvent(message, queueName);
+		} catch (MQDataException | IOException e) {
+			logger.error("Skipping event message from " + queueName + " that couldn't be decoded", e);
+			return null;
+		}
+	}
+
+	private void inquireTriggeredQueues() {
+		DepthEventInquirer inquirer = eventMetricCollector.getDepthEventInquirer();
+		if (inquirer == null || !inquirer.hasPending()) {
+			return;
+		}
+		try {
+			if (inquiryAgent == null) {
+				inquiryManager = MQAgent.connect(agentConfig);
+				inquiryAgent = new PCFMessageAgent(inquiryManager);
+			}
+			inquirer.inquire(inquiryAgent);
+		} catch (MQException | MQDataException e) {
+			logger.error("Couldn't connect to inquire queues after depth events", e);
+			closeInquiryAgent();
+		}
+	}
+
+	private void closeInquiryAgent() {
+		if (inquiryAgent != null) {
+			try {
+				inquiryAgent.disconnect();
+			} catch (MQDataException e) {
+			}
+			inquiryAgent = null;
+		}
+		if (inquiryManager != null) {
+			try {
+				inquiryManager.disconnect();
+			} catch (MQException e) {
+			}
+			inquiryManager = null;
+		}
+	}
+
+	private void release(MQQueueManager mgr, List<MQQueue> queues) {
+		closeInquiryAgent();
+		if (mgr == null) {
+			return;
+		}
+		try {
+			// The events of the messages got are already held, so they are committed rather than delivered again.
+			commit(mgr);
+		} catch (MQException e) {
+			logger.error("Couldn't commit the event unit of work for " + agentConfig.getServerQueueManagerName(), e);
+		}
+		uncommittedCount = 0;
+		for (MQQueue queue : queues) {
+			try {
+				queue.close();
+			} catch (MQException e) {
+				logger.error("Couldn't close event queue");
+			}
+		}
+		try {
+			mgr.disconnect();
+		} catch (MQException e) {
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package com.newrelic.infra.ibmmq;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the header of each failure report in an FDC file: the box of "| Name :- value |" lines at the top of the
+ * report. Every other line, including the box borders and the function stacks and trace that follow, separates
+ * entries, so the reader only keeps the header lines and never decodes the rest of the report.
+ */
+class FdcHeaderParser implements ErrorLogParser {
+
+	static final String HEADER_TITLE = "First Failure Symptom Report";
+
+	private final List<String> lines = new ArrayList<>();
+
+	@Override
+	public boolean isSingleLine() {
+		return false;
+	}
+
+	@Override
+	public boolean isSeparator(byte[] line, int start, int length) {
+		return length == 0 || line[start] != '|';
+	}
+
+	@Override
+	public ErrorLogEntry addLine(String line) {
+		if (!line.startsWith("|")) {
+			return flush();
+		}
+		lines.add(line);
+		return null;
+	}
+
+	@Override
+	public boolean isHolding() {
+		return !lines.isEmpty();
+	}
+
+	@Override
+	public ErrorLogEntry flush() {
+		if (lines.isEmpty()) {
+			return null;
+		}
+		StringBuilder text = new StringBuilder();
+		for (String line : lines) {
+			if (text.length() > 0) {
+				text.append('\n');
+			}
+			text.append(line);
+		}
+		lines.clear();
+
+		String header = text.toString();
+		Map<String, String> fields = fields(header);
+		ErrorLogEntry entry = new ErrorLogEntry(header);
+		entry.time = fields.get("Date/Time");
+		entry.messageId = fields.get("Probe Id");
+		entry.severity = fields.get("Probe Severity");
+		entry.message = fields.get("Probe Description");
+		entry.process = fields.get("Process");
+		entry.user = fields.get("UserID");
+		entry.program = fields.get("Program Name");
+		return entry;
+	}
+
+	@Override
+	public void reset() {
+		lines.clear();
+	}
+
+	/**
+	 * The "Name :- value" fields of a header, such as Probe Id, Component and Major Errorcode.
+	 */
+	static Map<String, String> fields(String header) {
+		Map<String, String> fields = new HashMap<>();
+		for (String line : header.split("\n")) {
+			int separator = line.indexOf(":-");
+			if (separator < 0) {
+				continue;
+			}
+			String name = line.substring(0, separator).trim();
+			if (name.startsWith("|")) {
+				name = name.substring(1).trim();
+			}
+			String value = line.substring(separator + 2).trim();
+			if (value.endsWith("|")) {
+				value = value.substring(0, value.length() - 1).trim();
+			}
+			fields.put(name, value);
+		}
+		return fields;
+	}
+}
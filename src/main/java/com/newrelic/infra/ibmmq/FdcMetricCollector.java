@@ -0,0 +1,192 @@
+package com.newrelic.infra.ibmmq;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.newrelic.infra.publish.api.MetricReporter;
+import com.newrelic.infra.publish.api.metrics.AttributeMetric;
+import com.newrelic.infra.publish.api.metrics.GaugeMetric;
+import com.newrelic.infra.publish.api.metrics.Metric;
+
+/**
+ * Reports the FDC (First Failure Data Capture) files written to fdcPath for the queue manager. Only the header of each
+ * failure report is parsed; the function stacks and trace after it are skipped as bytes. The position reached in each
+ * file is kept in the log checkpoint store, so files are only opened when they are new or have grown, and a restart
+ * doesn't read them again. Reports with the same probe id, component and major error code are counted together in one
+ * MQFdcSample per cycle, so a burst of FDCs costs one sample per distinct probe. Files not changed in the last day
+ * when first seen are skipped to their end, so the FDCs of past failures aren't reported as new ones.
+ */
+public class FdcMetricCollector {
+
+	private static final Logger logger = LoggerFactory.getLogger(FdcMetricCollector.class);
+
+	// Distinct probes reported per cycle; further probes are counted under probeId "*".
+	private static final int MAX_PROBES = 100;
+	private static final String FDC_SUFFIX = ".FDC";
+	private static final long FDC_MAX_AGE = 86400000;
+
+	private static class ProbeCount {
+		private final Map<String, String> fields;
+		private int count = 0;
+		private String lastTime;
+		private String lastProcess;
+		private String lastFile;
+
+		ProbeCount(Map<String, String> fields) {
+			this.fields = fields;
+		}
+	}
+
+	private AgentConfig agentConfig = null;
+	private LogCheckpointStore checkpoints = null;
+	private LogPatternMatcher headerMatcher = new LogPatternMatcher(
+			Collections.singletonList(FdcHeaderParser.HEADER_TITLE));
+	private FdcHeaderParser parser = new FdcHeaderParser();
+
+	// Counts and the readers whose positions can be committed once they are reported; guarded by this collector.
+	private final Map<String, ProbeCount> probes = new LinkedHashMap<>();
+	private final Map<String, LogReader> uncommitted = new LinkedHashMap<>();
+	private volatile boolean watched = false;
+
+	public FdcMetricCollector(AgentConfig agentConfig, LogCheckpointStore checkpoints) {
+		this.agentConfig = agentConfig;
+		this.checkpoints = checkpoints;
+	}
+
+	public void setWatched(boolean watched) {
+		this.watched = watched;
+	}
+
+	/**
+	 * Reads the headers of the failure reports added to the FDC files since the last read, at most fdcMaxFiles files
+	 * at a time, and returns whether there may be more to read.
+	 */
+	public synchronized boolean collectFdcFiles() {
+		File[] files = new File(agentConfig.getFdcPath()).listFiles();
+		if (files == null) {
+			logger.error("Can't list the FDC files in " + agentConfig.getFdcPath());
+			return false;
+		}
+
+		Set<String> paths = new HashSet<>();
+		long now = System.currentTimeMillis();
+		int opened = 0;
+		for (File f : files) {
+			if (!f.getName().endsWith(FDC_SUFFIX)) {
+				continue;
+			}
+			String path = f.getPath();
+			paths.add(path);
+			LogReader reader = uncommitted.get(path);
+			if (reader == null) {
+				LogReader.State state = checkpoints.get(path);
+				if (state != null && state.offset == f.length()) {
+					continue;
+				}
+				if (state == null && now - f.lastModified() > FDC_MAX_AGE) {
+					// An old file, seen for the first time; start at its end rather than reporting past failures.
+					try {
+						state = LogReader.State.of(f);
+						state.offset = f.length();
+						checkpoints.update(path, state);
+					} catch (IOException e) {
+						logger.error("Trouble reading FDC file " + path);
+					}
+					continue;
+				}
+				if (opened >= agentConfig.getFdcMaxFiles()) {
+					logger.debug("Read {} FDC files, the rest are left for the next cycle", opened);
+					return true;
+				}
+				reader = new LogReader(path, checkpoints);
+			}
+			opened++;
+
+			try {
+				for (LogReader.Match match : reader.findEntries(parser, headerMatcher, Integer.MAX_VALUE)) {
+					count(match.getEntry(), f.getName());
+				}
+				uncommitted.put(path, reader);
+			} catch (IOException e) {
+				logger.error("Trouble reading FDC file " + path);
+			}
+		}
+		checkpoints.retain(agentConfig.getFdcPath(), "", FDC_SUFFIX, paths);
+		return false;
+	}
+
+	public synchronized void reportFdcs(MetricReporter metricReporter) {
+		if (!watched) {
+			collectFdcFiles();
+		}
+		for (ProbeCount probe : probes.values()) {
+			List<Metric> metricset = new LinkedList<>();
+			metricset.add(new AttributeMetric("provider", "ibm"));
+			metricset.add(new AttributeMetric("qManagerName", agentConfig.getServerQueueManagerName()));
+			metricset.add(new AttributeMetric("qManagerHost", agentConfig.getServerHost()));
+			addAttribute(metricset, "probeId", probe.fields.get("Probe Id"));
+			addAttribute(metricset, "component", probe.fields.get("Component"));
+			addAttribute(metricset, "majorErrorcode", probe.fields.get("Major Errorcode"));
+			addAttribute(metricset, "minorErrorcode", probe.fields.get("Minor Errorcode"));
+			addAttribute(metricset, "probeType", probe.fields.get("Probe Type"));
+			addAttribute(metricset, "probeSeverity", probe.fields.get("Probe Severity"));
+			addAttribute(metricset, "probeDescription", probe.fields.get("Probe Description"));
+			addAttribute(metricset, "programName", probe.fields.get("Program Name"));
+			addAttribute(metricset, "lastTime", probe.lastTime);
+			addAttribute(metricset, "lastProcess", probe.lastProcess);
+			addAttribute(metricset, "lastFile", probe.lastFile);
+			metricset.add(new GaugeMetric("fdcCount", probe.count));
+			metricReporter.report("MQFdcSample", metricset);
+		}
+		probes.clear();
+		for (LogReader reader : uncommitted.values()) {
+			reader.commit();
+		}
+		uncommitted.clear();
+	}
+
+	private void count(ErrorLogEntry header, String fileName) {
+		Map<String, String> fields = FdcHeaderParser.fields(header.getText());
+		String queueManager = fields.get("QueueManager");
+		if (queueManager == null || !queueManager.equals(agentConfig.getServerQueueManagerName())) {
+			return;
+		}
+
+		String key = fields.get("Probe Id") + "|" + fields.get("Component") + "|" + fields.get("Major Errorcode");
+		ProbeCount probe = probes.get(key);
+		if (probe == null) {
+			if (probes.size() >= MAX_PROBES) {
+				key = "*";
+				probe = probes.get(key);
+				if (probe == null) {
+					Map<String, String> other = new LinkedHashMap<>();
+					other.put("Probe Id", "*");
+					probe = new ProbeCount(other);
+				}
+			} else {
+				probe = new ProbeCount(fields);
+			}
+			probes.put(key, probe);
+		}
+		probe.count++;
+		probe.lastTime = fields.get("Date/Time");
+		probe.lastProcess = fields.get("Process");
+		probe.lastFile = fileName;
+	}
+
+	private static void addAttribute(List<Metric> metricset, String name, String value) {
+		if (value != null && !value.isEmpty()) {
+			metricset.add(new AttributeMetric(name, value));
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package com.newrelic.infra.ibmmq;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which queues are inquired each cycle when the full wildcard sweep runs on a slower cadence than the agent.
+ * The depth of every queue seen by a sweep is remembered; a queue whose depth moves, or that has messages put or got,
+ * is promoted to the hot set and is then inquired by name every cycle until it has been quiet for quietMillis. The hot
+ * set holds at most maxSize queues, the least recently active one making room for a new one.
+ */
+class HotQueueSet {
+
+	private final int maxSize;
+	private final long sweepIntervalMillis;
+	private final long quietMillis;
+
+	private final LinkedHashMap<String, Long> hot;
+	private Map<String, Integer> depths = new HashMap<>();
+	// Depths seen by the sweep in progress, so queues deleted since the last sweep are forgotten.
+	private Map<String, Integer> sweepDepths = null;
+	private long lastSweep = 0;
+
+	HotQueueSet(int maxSize, long sweepIntervalMillis, long quietMillis) {
+		this.maxSize = maxSize;
+		this.sweepIntervalMillis = sweepIntervalMillis;
+		this.quietMillis = quietMillis;
+		this.hot = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+				return size() > HotQueueSet.this.maxSize;
+			}
+		};
+	}
+
+	boolean isSweepDue(long now) {
+		return lastSweep == 0 || now - lastSweep >= sweepIntervalMillis;
+	}
+
+	void beginSweep(long now) {
+		lastSweep = now;
+		sweepDepths = new HashMap<>(depths.size());
+	}
+
+	/**
+	 * Ends the sweep in progress. A sweep that didn't complete keeps the depths known before it.
+	 */
+	void endSweep(boolean completed) {
+		if (completed && sweepDepths != null) {
+			depths = sweepDepths;
+		}
+		sweepDepths = null;
+	}
+
+	void observeDepth(String queueName, int depth, long now) {
+		Integer previous = depths.get(queueName);
+		if (sweepDepths != null) {
+			sweepDepths.put(queueName, depth);
+		} else {
+			depths.put(queueName, depth);
+		}
+		if (previous != null && previous != depth) {
+			noteActivity(queueName, now);
+		}
+	}
+
+	void noteActivity(String queueName, long now) {
+		if (maxSize > 0) {
+			hot.put(queueName, now);
+		}
+	}
+
+	void remove(String queueName) {
+		hot.remove(queueName);
+	}
+
+	boolean isHot(String queueName) {
+		return hot.containsKey(queueName);
+	}
+
+	/**
+	 * The queues to inquire by name this cycle, after demoting the ones that have been quiet for too long.
+	 */
+	List<String> hotQueues(long now) {
+		Iterator<Long> it = hot.values().iterator();
+		while (it.hasNext()) {
+			if (now - it.next() >= quietMillis) {
+				it.remove();
+			}
+		}
+		return new ArrayList<>(hot.keySet());
+	}
+}
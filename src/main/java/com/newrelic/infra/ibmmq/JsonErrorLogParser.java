@@ -0,0 +1,198 @@
+package com.newrelic.infra.ibmmq;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parses the AMQERR0x.json format, written by queue managers configured with ErrorLog Format=json, where each line is
+ * one entry as a flat JSON object. Only string, number, boolean and null values are read; nested values are skipped.
+ * A line that isn't a JSON object is returned as an entry with just its text.
+ */
+class JsonErrorLogParser implements ErrorLogParser {
+
+	@Override
+	public boolean isSingleLine() {
+		return true;
+	}
+
+	@Override
+	public boolean isSeparator(byte[] line, int start, int length) {
+		return false;
+	}
+
+	@Override
+	public ErrorLogEntry addLine(String line) {
+		if (line.trim().isEmpty()) {
+			return null;
+		}
+		ErrorLogEntry entry = new ErrorLogEntry(line);
+		Map<String, String> fields = parseObject(line);
+		if (fields == null) {
+			entry.message = line;
+			return entry;
+		}
+		entry.time = fields.get("ibm_datetime");
+		entry.messageId = fields.get("ibm_messageId");
+		entry.severity = ErrorLogEntry.severityOf(entry.messageId);
+		if (entry.severity == null) {
+			entry.severity = fields.get("loglevel");
+		}
+		entry.message = fields.get("message");
+		entry.explanation = fields.get("ibm_explanation");
+		entry.action = fields.get("ibm_action");
+		entry.process = fields.get("ibm_processId");
+		entry.user = fields.get("ibm_userName");
+		entry.program = fields.get("ibm_programName");
+		return entry;
+	}
+
+	@Override
+	public boolean isHolding() {
+		return false;
+	}
+
+	@Override
+	public ErrorLogEntry flush() {
+		return null;
+	}
+
+	@Override
+	public void reset() {
+	}
+
+	/**
+	 * The top level members of a JSON object, or null when the text isn't one.
+	 */
+	static Map<String, String> parseObject(String text) {
+		Map<String, String> fields = new HashMap<>();
+		int[] pos = { skipSpace(text, 0) };
+		if (!consume(text, pos, '{')) {
+			return null;
+		}
+		if (consume(text, pos, '}')) {
+			return fields;
+		}
+		do {
+			String name = parseString(text, pos);
+			if (name == null || !consume(text, pos, ':')) {
+				return null;
+			}
+			pos[0] = skipSpace(text, pos[0]);
+			if (pos[0] >= text.length()) {
+				return null;
+			}
+			char c = text.charAt(pos[0]);
+			if (c == '"') {
+				String value = parseString(text, pos);
+				if (value == null) {
+					return null;
+				}
+				fields.put(name, value);
+			} else if (c == '{' || c == '[') {
+				if (!skipNested(text, pos)) {
+					return null;
+				}
+			} else {
+				int start = pos[0];
+				while (pos[0] < text.length() && ",} \t".indexOf(text.charAt(pos[0])) < 0) {
+					pos[0]++;
+				}
+				String value = text.substring(start, pos[0]);
+				if (!value.equals("null")) {
+					fields.put(name, value);
+				}
+			}
+		} while (consume(text, pos, ','));
+		return consume(text, pos, '}') ? fields : null;
+	}
+
+	private static String parseString(String text, int[] pos) {
+		pos[0] = skipSpace(text, pos[0]);
+		if (pos[0] >= text.length() || text.charAt(pos[0]) != '"') {
+			return null;
+		}
+		StringBuilder value = new StringBuilder();
+		for (int i = pos[0] + 1; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"') {
+				pos[0] = i + 1;
+				return value.toString();
+			}
+			if (c != '\\') {
+				value.append(c);
+				continue;
+			}
+			if (++i >= text.length()) {
+				return null;
+			}
+			c = text.charAt(i);
+			switch (c) {
+			case 'n':
+				value.append('\n');
+				break;
+			case 't':
+				value.append('\t');
+				break;
+			case 'r':
+				value.append('\r');
+				break;
+			case 'b':
+				value.append('\b');
+				break;
+			case 'f':
+				value.append('\f');
+				break;
+			case 'u':
+				if (i + 4 >= text.length()) {
+					return null;
+				}
+				try {
+					value.append((char) Integer.parseInt(text.substring(i + 1, i + 5), 16));
+				} catch (NumberFormatException e) {
+					return null;
+				}
+				i += 4;
+				break;
+			default:
+				value.append(c);
+			}
+		}
+		return null;
+	}
+
+	private static boolean skipNested(String text, int[] pos) {
+		int depth = 0;
+		for (int i = pos[0]; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"') {
+				int[] stringPos = { i };
+				if (parseString(text, stringPos) == null) {
+					return false;
+				}
+				i = stringPos[0] - 1;
+			} else if (c == '{' || c == '[') {
+				depth++;
+			} else if ((c == '}' || c == ']') && --depth == 0) {
+				pos[0] = i + 1;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean consume(String text, int[] pos, char c) {
+		pos[0] = skipSpace(text, pos[0]);
+		if (pos[0] < text.length() && text.charAt(pos[0]) == c) {
+			pos[0]++;
+			return true;
+		}
+		return false;
+	}
+
+	private static int skipSpace(String text, int pos) {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+			pos++;
+		}
+		return pos;
+	}
+}
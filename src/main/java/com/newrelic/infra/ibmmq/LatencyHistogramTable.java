@@ -0,0 +1,164 @@
+package com.newrelic.infra.ibmmq;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Latency histograms and call counts for a bounded number of keys, kept in flat primitive arrays that are reused from
+ * one interval to the next. Latencies are recorded in microseconds into fixed exponential buckets, so percentiles are
+ * reported as the upper bound of the bucket they fall in. Keys beyond the capacity are recorded under the overflow
+ * key, {@link #OVERFLOW_KEY} for tables keyed by name. Callers on a hot path can look a key up with {@link #find}
+ * using a reusable key object, and only {@link #add} a copy of it the first time, so recording allocates nothing.
+ */
+class LatencyHistogramTable<K> {
+
+	static final String OVERFLOW_KEY = "*";
+
+	static final long[] BUCKET_BOUNDS_MICROS = { 10, 50, 100, 500, 1000, 5000, 10000, 50000, 100000, 500000, 1000000,
+			5000000, Long.MAX_VALUE };
+
+	private static final int BUCKETS = BUCKET_BOUNDS_MICROS.length;
+
+	private final int capacity;
+	private final K overflowKey;
+	private final Map<K, Integer> slots = new HashMap<>();
+	private final Object[] keys;
+	private final long[] counts;
+	private final long[] failures;
+	private final long[] totals;
+	private final long[] maxima;
+	private final long[] buckets;
+
+	LatencyHistogramTable(int capacity, K overflowKey) {
+		// One extra slot is kept for the overflow key.
+		this.capacity = Math.max(capacity, 1) + 1;
+		this.overflowKey = overflowKey;
+		this.keys = new Object[this.capacity];
+		this.counts = new long[this.capacity];
+		this.failures = new long[this.capacity];
+		this.totals = new long[this.capacity];
+		this.maxima = new long[this.capacity];
+		this.buckets = new long[this.capacity * BUCKETS];
+	}
+
+	void record(K key, long micros, boolean failed) {
+		Integer slot = slots.get(key);
+		record(slot == null ? add(key) : slot, micros, failed);
+	}
+
+	/**
+	 * Records into a slot returned by {@link #find} or {@link #add}.
+	 */
+	void record(int slot, long micros, boolean failed) {
+		counts[slot]++;
+		if (failed) {
+			failures[slot]++;
+		}
+		if (micros < 0) {
+			return;
+		}
+		totals[slot] += micros;
+		if (micros > maxima[slot]) {
+			maxima[slot] = micros;
+		}
+		int bucket = 0;
+		while (micros > BUCKET_BOUNDS_MICROS[bucket]) {
+			bucket++;
+		}
+		buckets[slot * BUCKETS + bucket]++;
+	}
+
+	/**
+	 * Number of slots in use. Slots are numbered from 0 in the order their keys were first recorded.
+	 */
+	int size() {
+		return slots.size();
+	}
+
+	@SuppressWarnings("unchecked")
+	K key(int slot) {
+		return (K) keys[slot];
+	}
+
+	long count(int slot) {
+		return counts[slot];
+	}
+
+	long failures(int slot) {
+		return failures[slot];
+	}
+
+	long max(int slot) {
+		return maxima[slot];
+	}
+
+	long mean(int slot) {
+		long timed = timedCount(slot);
+		return timed == 0 ? 0 : totals[slot] / timed;
+	}
+
+	/**
+	 * Upper bound, in microseconds, of the bucket holding the given percentile, capped at the recorded maximum.
+	 */
+	long percentile(int slot, double percentile) {
+		long timed = timedCount(slot);
+		if (timed == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(timed * percentile / 100.0);
+		long seen = 0;
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			seen += buckets[slot * BUCKETS + bucket];
+			if (seen >= rank) {
+				return Math.min(BUCKET_BOUNDS_MICROS[bucket], maxima[slot]);
+			}
+		}
+		return maxima[slot];
+	}
+
+	/**
+	 * Forgets every key and zeroes the arrays without releasing them.
+	 */
+	void reset() {
+		int used = slots.size();
+		slots.clear();
+		Arrays.fill(keys, 0, used, null);
+		Arrays.fill(counts, 0, used, 0);
+		Arrays.fill(failures, 0, used, 0);
+		Arrays.fill(totals, 0, used, 0);
+		Arrays.fill(maxima, 0, used, 0);
+		Arrays.fill(buckets, 0, used * BUCKETS, 0);
+	}
+
+	private long timedCount(int slot) {
+		long timed = 0;
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			timed += buckets[slot * BUCKETS + bucket];
+		}
+		return timed;
+	}
+
+	/**
+	 * Slot of the key, or -1 when it hasn't been recorded this interval.
+	 */
+	int find(K key) {
+		Integer slot = slots.get(key);
+		return slot == null ? -1 : slot;
+	}
+
+	/**
+	 * Gives a key that isn't in the table a slot, or returns the overflow slot when the table is full. The key is kept,
+	 * so it must not change afterwards.
+	 */
+	int add(K key) {
+		if (slots.size() >= capacity - 1 && !overflowKey.equals(key)) {
+			Integer slot = slots.get(overflowKey);
+			return slot == null ? add(overflowKey) : slot;
+		}
+		int slot = slots.size();
+		slots.put(key, slot);
+		keys[slot] = key;
+		return slot;
+	}
+}
@@ -0,0 +1,484 @@
+package com.newrelic.infra.ibmmq;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.mq.MQException;
+import com.ibm.mq.MQGetMessageOptions;
+import com.ibm.mq.MQMessage;
+import com.ibm.mq.MQPutMessageOptions;
+import com.ibm.mq.MQQueue;
+import com.ibm.mq.MQQueueManager;
+import com.ibm.mq.constants.MQConstants;
+import com.newrelic.infra.publish.api.MetricReporter;
+import com.newrelic.infra.publish.api.metrics.AttributeMetric;
+import com.newrelic.infra.publish.api.metrics.GaugeMetric;
+import com.newrelic.infra.publish.api.metrics.Metric;
+
+/**
+ * Puts a small non-persistent probe message to each queue named in latencyProbeQueues every latencyProbeInterval
+ * milliseconds, on its own connection and thread, and gets it back from the queue it is mapped to: the same local
+ * queue, or a local queue the probe loops back to through a remote or cluster queue. Each pass browses the messages on
+ * that queue once for this probe's correlation id and gets the probes found by their message ids, so the probes that are
+ * back are timed together whatever the number in flight, and other messages on the queue are neither visited nor
+ * touched. Probes are
+ * pipelined, up to latencyProbeMaxInFlight per target, so a slow path neither blocks the other targets nor the
+ * metrics cycle. Each cycle one MQLatencyProbeSample per target reports the put, get and round trip latency
+ * histograms of the probes since the last one. Probes not back within latencyProbeTimeout are counted as failed, and
+ * expire on the queue manager at the same time so they don't pile up.
+ */
+public class LatencyProbe implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(LatencyProbe.class);
+
+	private static final long RECONNECT_DELAY_MS = 30000;
+	private static final int MAX_TARGETS = 50;
+	// While probes to several targets are in flight, the one waited for is only waited for this long at a time, so
+	// the probes arriving on the other targets are timed to within this.
+	private static final long SHARED_WAIT_MS = 20;
+	private static final byte[] PROBE_BODY = "newrelic latency probe".getBytes();
+
+	private static class Probe {
+		private final long sequence;
+		private final byte[] id;
+		private final long putNanos;
+		private final long deadlineNanos;
+
+		Probe(long sequence, byte[] id, long putNanos, long deadlineNanos) {
+			this.sequence = sequence;
+			this.id = id;
+			this.putNanos = putNanos;
+			this.deadlineNanos = deadlineNanos;
+		}
+	}
+
+	private static class Target {
+		private final String putQueueName;
+		private final String getQueueName;
+		private final ArrayDeque<Probe> inFlight = new ArrayDeque<>();
+		private MQQueue putQueue;
+		private MQQueue getQueue;
+
+		Target(String putQueueName, String getQueueName) {
+			this.putQueueName = putQueueName;
+			this.getQueueName = getQueueName;
+		}
+	}
+
+	private final AgentConfig agentConfig;
+
+	// Guards the histograms, and is notified to stop the probe.
+	private final Object lock = new Object();
+	private final LatencyHistogramTable<String> putLatencies = new LatencyHistogramTable<>(MAX_TARGETS,
+			LatencyHistogramTable.OVERFLOW_KEY);
+	private final LatencyHistogramTable<String> getLatencies = new LatencyHistogramTable<>(MAX_TARGETS,
+			LatencyHistogramTable.OVERFLOW_KEY);
+	private final LatencyHistogramTable<String> roundTrips = new LatencyHistogramTable<>(MAX_TARGETS,
+			LatencyHistogramTable.OVERFLOW_KEY);
+
+	// Probes carry this instance's prefix as correlation id, and the prefix followed by a sequence number as message id.
+	private final long idPrefix = UUID.randomUUID().getMostSignificantBits();
+	private final byte[] correlationId = correlationId(idPrefix);
+	private long idSequence = 0;
+
+	private volatile boolean running = false;
+	private Thread thread = null;
+
+	public LatencyProbe(AgentConfig agentConfig) {
+		this.agentConfig = agentConfig;
+	}
+
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "mq-latency-probe-" + agentConfig.getServerQueueManagerName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop() {
+		if (thread == null) {
+			return;
+		}
+		running = false;
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+		try {
+			thread.join(agentConfig.getLatencyProbeInterval() + 1000L);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+	}
+
+	/**
+	 * Reports the latencies of the probes completed since the last call, then resets the histograms.
+	 */
+	public void reportLatencies(MetricReporter metricReporter) {
+		synchronized (lock) {
+			for (int slot = 0; slot < roundTrips.size(); slot++) {
+				String target = roundTrips.key(slot);
+				List<Metric> metricset = new LinkedList<>();
+				metricset.add(new AttributeMetric("provider", "ibm"));
+				metricset.add(new AttributeMetric("qManagerName", agentConfig.getServerQueueManagerName()));
+				metricset.add(new AttributeMetric("qManagerHost", agentConfig.getServerHost()));
+				metricset.add(new AttributeMetric("qName", target));
+				metricset.add(new AttributeMetric("replyQName", agentConfig.getLatencyProbeQueues().get(target)));
+				metricset.add(new GaugeMetric("probeCount", roundTrips.count(slot)));
+				metricset.add(new GaugeMetric("failedCount", roundTrips.failures(slot)));
+				metricset.add(new GaugeMetric("roundTripMeanMicros", roundTrips.mean(slot)));
+				metricset.add(new GaugeMetric("roundTripP50Micros", roundTrips.percentile(slot, 50)));
+				metricset.add(new GaugeMetric("roundTripP95Micros", roundTrips.percentile(slot, 95)));
+				metricset.add(new GaugeMetric("roundTripP99Micros", roundTrips.percentile(slot, 99)));
+				metricset.add(new GaugeMetric("roundTripMaxMicros", roundTrips.max(slot)));
+				addLatencies(metricset, "put", putLatencies, target);
+				addLatencies(metricset, "get", getLatencies, target);
+				metricReporter.report("MQLatencyProbeSample", metricset);
+			}
+			putLatencies.reset();
+			getLatencies.reset();
+			roundTrips.reset();
+		}
+	}
+
+	private static void addLatencies(List<Metric> metricset, String operation, LatencyHistogramTable<String> table,
+			String target) {
+		for (int slot = 0; slot < table.size(); slot++) {
+			if (table.key(slot).equals(target)) {
+				metricset.add(new GaugeMetric(operation + "LatencyMeanMicros", table.mean(slot)));
+				metricset.add(new GaugeMetric(operation + "LatencyP95Micros", table.percentile(slot, 95)));
+				metricset.add(new GaugeMetric(operation + "LatencyMaxMicros", table.max(slot)));
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			MQQueueManager mgr = null;
+			List<Target> targets = new ArrayList<>();
+			try {
+				mgr = MQAgent.connect(agentConfig);
+				for (Map.Entry<String, String> entry : agentConfig.getLatencyProbeQueues().entrySet()) {
+					if (targets.size() >= MAX_TARGETS) {
+						logger.warn("Only the first {} latency probe queues are probed", MAX_TARGETS);
+						break;
+					}
+					Target target = new Target(entry.getKey(), entry.getValue());
+					try {
+						target.putQueue = mgr.accessQueue(target.putQueueName,
+								MQConstants.MQOO_OUTPUT + MQConstants.MQOO_FAIL_IF_QUIESCING, null, null, null);
+						target.getQueue = mgr.accessQueue(target.getQueueName, MQConstants.MQOO_INPUT_SHARED
+								+ MQConstants.MQOO_BROWSE + MQConstants.MQOO_FAIL_IF_QUIESCING, null, null, null);
+						targets.add(target);
+					} catch (MQException e) {
+						close(target.putQueue);
+						if (!mgr.isConnected()) {
+							throw e;
+						}
+						// The other targets are still probed.
+						logger.error("Couldn't open latency probe queues " + target.putQueueName + " and "
+								+ target.getQueueName + ", reason " + e.reasonCode);
+					}
+				}
+				probe(mgr, targets);
+			} catch (InterruptedException e) {
+				running = false;
+			} catch (MQException e) {
+				logger.error("Problem probing the latency of " + agentConfig.getServerQueueManagerName(), e);
+			} catch (Throwable t) {
+				logger.error("Problem probing the latency of " + agentConfig.getServerQueueManagerName(), t);
+			} finally {
+				for (Target target : targets) {
+					close(target.putQueue);
+					close(target.getQueue);
+				}
+				if (mgr != null) {
+					try {
+						mgr.disconnect();
+					} catch (MQException e) {
+					}
+				}
+			}
+
+			if (running) {
+				synchronized (lock) {
+					try {
+						lock.wait(RECONNECT_DELAY_MS);
+					} catch (InterruptedException e) {
+						running = false;
+					}
+				}
+			}
+		}
+	}
+
+	private void probe(MQQueueManager mgr, List<Target> targets) throws MQException, InterruptedException {
+		long intervalNanos = TimeUnit.MILLISECONDS.toNanos(agentConfig.getLatencyProbeInterval());
+		long nextPut = System.nanoTime();
+		while (running) {
+			long now = System.nanoTime();
+			if (now - nextPut >= 0) {
+				for (Target target : targets) {
+					if (target.inFlight.size() < agentConfig.getLatencyProbeMaxInFlight()) {
+						put(mgr, target);
+					}
+				}
+				nextPut = nextPut(nextPut, now, intervalNanos);
+			}
+
+			// Collect whatever has come back, and give up on the probes past their timeout.
+			Target waitTarget = null;
+			int pendingTargets = 0;
+			for (Target target : targets) {
+				collect(target);
+				if (!target.inFlight.isEmpty()) {
+					pendingTargets++;
+					if (waitTarget == null
+							|| target.inFlight.peek().putNanos - waitTarget.inFlight.peek().putNanos < 0) {
+						waitTarget = target;
+					}
+				}
+			}
+
+			now = System.nanoTime();
+			long waitNanos = waitNanos(now, nextPut,
+					waitTarget == null ? nextPut : waitTarget.inFlight.peek().deadlineNanos, pendingTargets);
+			long waitMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos));
+			if (waitTarget != null) {
+				awaitArrival(waitTarget, waitMillis);
+			} else {
+				synchronized (lock) {
+					lock.wait(waitMillis);
+				}
+			}
+		}
+	}
+
+	/**
+	 * When the next round of probes is due after the one due at nextPut has been put at now: an interval on, or an
+	 * interval from now when the probe has fallen more than an interval behind, rather than catching up in a burst.
+	 */
+	static long nextPut(long nextPut, long now, long intervalNanos) {
+		long next = nextPut + intervalNanos;
+		return next - now < 0 ? now + intervalNanos : next;
+	}
+
+	/**
+	 * How long to wait for the oldest probe in flight: until the next round is due or the probe times out, and while
+	 * probes to several targets are in flight no longer than SHARED_WAIT_MS, as the others are only looked at after.
+	 */
+	static long waitNanos(long now, long nextPut, long oldestDeadline, int pendingTargets) {
+		long wait = Math.min(nextPut, oldestDeadline) - now;
+		if (pendingTargets > 1) {
+			wait = Math.min(wait, TimeUnit.MILLISECONDS.toNanos(SHARED_WAIT_MS));
+		}
+		return wait;
+	}
+
+	private void put(MQQueueManager mgr, Target target) throws MQException {
+		long sequence = ++idSequence;
+		byte[] id = probeId(idPrefix, sequence);
+		MQMessage message = new MQMessage();
+		message.messageId = id;
+		message.correlationId = correlationId;
+		message.format = MQConstants.MQFMT_STRING;
+		message.persistence = MQConstants.MQPER_NOT_PERSISTENT;
+		message.replyToQueueName = target.getQueueName;
+		// In tenths of a second: a probe that times out is expired by the queue manager rather than left behind.
+		message.expiry = Math.max(1, (agentConfig.getLatencyProbeTimeout() + 99) / 100);
+
+		MQPutMessageOptions putOptions = new MQPutMessageOptions();
+		putOptions.options = MQConstants.MQPMO_NO_SYNCPOINT + MQConstants.MQPMO_FAIL_IF_QUIESCING;
+
+		long start = System.nanoTime();
+		try {
+			message.write(PROBE_BODY);
+			target.putQueue.put(message, putOptions);
+		} catch (MQException e) {
+			record(putLatencies, target, -1, true);
+			record(roundTrips, target, -1, true);
+			if (!mgr.isConnected()) {
+				throw e;
+			}
+			logger.debug("Couldn't put a latency probe to {}, reason {}", target.putQueueName, e.reasonCode);
+			return;
+		} catch (IOException e) {
+			logger.error("Couldn't write the latency probe message", e);
+			return;
+		}
+		long end = System.nanoTime();
+		record(putLatencies, target, TimeUnit.NANOSECONDS.toMicros(end - start), false);
+		target.inFlight.add(new Probe(sequence, id, start,
+				end + TimeUnit.MILLISECONDS.toNanos(agentConfig.getLatencyProbeTimeout())));
+	}
+
+	/**
+	 * Browses this probe's messages on the target's reply queue once, without waiting, and gets them: the probes in
+	 * flight are timed, and those that came back after their timeout are removed. A probe in flight that can't be got
+	 * after all, and those past their timeout, are failed.
+	 */
+	private void collect(Target target) throws MQException {
+		if (target.inFlight.isEmpty()) {
+			return;
+		}
+		MQGetMessageOptions browseOptions = new MQGetMessageOptions();
+		browseOptions.options = MQConstants.MQGMO_NO_WAIT + MQConstants.MQGMO_BROWSE_FIRST
+				+ MQConstants.MQGMO_FAIL_IF_QUIESCING + MQConstants.MQGMO_ACCEPT_TRUNCATED_MSG;
+		browseOptions.matchOptions = MQConstants.MQMO_MATCH_CORREL_ID;
+		MQGetMessageOptions getOptions = new MQGetMessageOptions();
+		getOptions.options = MQConstants.MQGMO_MSG_UNDER_CURSOR + MQConstants.MQGMO_NO_SYNCPOINT
+				+ MQConstants.MQGMO_FAIL_IF_QUIESCING + MQConstants.MQGMO_ACCEPT_TRUNCATED_MSG;
+		getOptions.matchOptions = MQConstants.MQMO_NONE;
+
+		MQMessage message = new MQMessage();
+		message.correlationId = correlationId;
+		while (get(target.getQueue, message, browseOptions)) {
+			browseOptions.options = MQConstants.MQGMO_NO_WAIT + MQConstants.MQGMO_BROWSE_NEXT
+					+ MQConstants.MQGMO_FAIL_IF_QUIESCING + MQConstants.MQGMO_ACCEPT_TRUNCATED_MSG;
+			long sequence = sequenceOf(message.messageId, idPrefix);
+			if (sequence < 0) {
+				message.correlationId = correlationId;
+				continue;
+			}
+			long start = System.nanoTime();
+			boolean got = get(target.getQueue, message, getOptions);
+			long end = System.nanoTime();
+			Probe probe = remove(target.inFlight, sequence);
+			if (probe != null) {
+				if (got) {
+					record(getLatencies, target, TimeUnit.NANOSECONDS.toMicros(end - start), false);
+					record(roundTrips, target, TimeUnit.NANOSECONDS.toMicros(start - probe.putNanos), false);
+				} else {
+					record(roundTrips, target, -1, true);
+				}
+			}
+			message.correlationId = correlationId;
+		}
+
+		long now = System.nanoTime();
+		Iterator<Probe> probes = target.inFlight.iterator();
+		while (probes.hasNext()) {
+			Probe probe = probes.next();
+			if (now - probe.deadlineNanos >= 0) {
+				probes.remove();
+				record(roundTrips, target, -1, true);
+				logger.debug("Latency probe to {} not back from {} within {} ms", target.putQueueName,
+						target.getQueueName, agentConfig.getLatencyProbeTimeout());
+			}
+		}
+	}
+
+	private static Probe remove(ArrayDeque<Probe> inFlight, long sequence) {
+		Iterator<Probe> probes = inFlight.iterator();
+		while (probes.hasNext()) {
+			Probe probe = probes.next();
+			if (probe.sequence == sequence) {
+				probes.remove();
+				return probe;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Waits, with a browse, for the target's oldest probe to come back, so that the get that follows is timed on its
+	 * own.
+	 */
+	private void awaitArrival(Target target, long waitMillis) throws MQException {
+		MQGetMessageOptions browseOptions = new MQGetMessageOptions();
+		browseOptions.options = MQConstants.MQGMO_WAIT + MQConstants.MQGMO_BROWSE_FIRST
+				+ MQConstants.MQGMO_FAIL_IF_QUIESCING + MQConstants.MQGMO_ACCEPT_TRUNCATED_MSG;
+		browseOptions.matchOptions = MQConstants.MQMO_MATCH_MSG_ID;
+		browseOptions.waitInterval = (int) Math.min(waitMillis, Integer.MAX_VALUE);
+
+		MQMessage message = new MQMessage();
+		message.messageId = target.inFlight.peek().id;
+		get(target.getQueue, message, browseOptions);
+	}
+
+	// Returns false when no message matches.
+	private static boolean get(MQQueue queue, MQMessage message, MQGetMessageOptions getOptions) throws MQException {
+		try {
+			queue.get(message, getOptions, 0);
+			return true;
+		} catch (MQException e) {
+			if (e.reasonCode == MQConstants.MQRC_TRUNCATED_MSG_ACCEPTED) {
+				return true;
+			}
+			if (e.reasonCode == MQConstants.MQRC_NO_MSG_AVAILABLE) {
+				return false;
+			}
+			throw e;
+		}
+	}
+
+	private void record(LatencyHistogramTable<String> table, Target target, long micros, boolean failed) {
+		synchronized (lock) {
+			table.record(target.putQueueName, micros, failed);
+		}
+	}
+
+	/**
+	 * Correlation id of every probe of an instance: its prefix, padded with zeros.
+	 */
+	static byte[] correlationId(long prefix) {
+		ByteBuffer id = ByteBuffer.allocate(MQConstants.MQ_CORREL_ID_LENGTH);
+		id.putLong(prefix);
+		return id.array();
+	}
+
+	/**
+	 * Message id of a probe: the instance's prefix followed by the probe's sequence number, padded with zeros.
+	 */
+	static byte[] probeId(long prefix, long sequence) {
+		ByteBuffer id = ByteBuffer.allocate(MQConstants.MQ_MSG_ID_LENGTH);
+		id.putLong(prefix);
+		id.putLong(sequence);
+		return id.array();
+	}
+
+	/**
+	 * Sequence number of the probe with the given message id, or -1 when it isn't a probe of the given prefix.
+	 */
+	static long sequenceOf(byte[] id, long prefix) {
+		if (id == null || id.length != MQConstants.MQ_MSG_ID_LENGTH) {
+			return -1;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(id);
+		if (buffer.getLong() != prefix) {
+			return -1;
+		}
+		long sequence = buffer.getLong();
+		while (buffer.hasRemaining()) {
+			if (buffer.get() != 0) {
+				return -1;
+			}
+		}
+		return sequence;
+	}
+
+	private static void close(MQQueue queue) {
+		if (queue != null) {
+			try {
+				queue.close();
+			} catch (MQException e) {
+			}
+		}
+	}
+}
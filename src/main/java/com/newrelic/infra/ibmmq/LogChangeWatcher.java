@@ -0,0 +1,228 @@
+package com.newrelic.infra.ibmmq;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches log directories on its own thread and has their listeners read the logs as soon as files in them change,
+ * instead of once per cycle, so what is found is ready to be reported at the start of the next cycle. Uses the file
+ * system's WatchService; where that isn't available, or the directory can't be registered, the file sizes and
+ * modification times are polled every logPollInterval seconds instead. They are also polled that often while watching,
+ * as some file systems, such as network mounts, accept the registration but never deliver events. Logs are only read
+ * when they have changed.
+ */
+public class LogChangeWatcher implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(LogChangeWatcher.class);
+
+	/**
+	 * Reads a watched log after it has changed.
+	 */
+	public interface Listener {
+		/**
+		 * Called on the watcher thread. Returns whether there may be more to read, in which case it is called again
+		 * after logPollInterval even if the log doesn't change.
+		 */
+		boolean logChanged();
+	}
+
+	private static class Registration {
+		private final Path directory;
+		private final String filePrefix;
+		private final Listener listener;
+		// Size and modification time of the matching files at the last poll.
+		private Map<String, Long> stamps = new HashMap<>();
+		private boolean pending = true;
+
+		Registration(Path directory, String filePrefix, Listener listener) {
+			this.directory = directory;
+			this.filePrefix = filePrefix;
+			this.listener = listener;
+		}
+	}
+
+	private final AgentConfig agentConfig;
+	private final List<Registration> registrations = new ArrayList<>();
+
+	// Notified to stop the watcher while it is polling.
+	private final Object lock = new Object();
+	private volatile WatchService watchService = null;
+	private volatile boolean running = false;
+	private Thread thread = null;
+
+	public LogChangeWatcher(AgentConfig agentConfig) {
+		this.agentConfig = agentConfig;
+	}
+
+	/**
+	 * Has the listener called when files in the directory whose names start with the prefix change. Registrations are
+	 * made before the watcher is started.
+	 */
+	public void watch(String directory, String filePrefix, Listener listener) {
+		registrations.add(new Registration(Paths.get(directory), filePrefix, listener));
+	}
+
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "mq-log-watcher-" + agentConfig.getServerQueueManagerName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop() {
+		if (thread == null) {
+			return;
+		}
+		running = false;
+		WatchService service = watchService;
+		if (service != null) {
+			try {
+				service.close();
+			} catch (IOException e) {
+			}
+		}
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+		try {
+			thread.join(agentConfig.getLogPollInterval() * 1000L + 1000L);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+	}
+
+	@Override
+	public void run() {
+		long pollMillis = agentConfig.getLogPollInterval() * 1000L;
+		WatchService service = openWatchService();
+		long nextPoll = 0;
+		try {
+			while (running) {
+				if (service != null) {
+					WatchKey key = service.poll(pollMillis, TimeUnit.MILLISECONDS);
+					if (key != null && !handleEvents(key)) {
+						logger.warn("Stopped watching {}, polling the logs instead", key.watchable());
+						service.close();
+						service = null;
+						watchService = null;
+					}
+				} else {
+					synchronized (lock) {
+						lock.wait(pollMillis);
+					}
+				}
+				if (!running) {
+					break;
+				}
+				// Events can wake the watcher more often, the files are polled at most every logPollInterval.
+				long now = System.currentTimeMillis();
+				boolean pollDue = now >= nextPoll;
+				if (pollDue) {
+					nextPoll = now + pollMillis;
+				}
+				for (Registration registration : registrations) {
+					if (pollDue && poll(registration)) {
+						registration.pending = true;
+					}
+					if (registration.pending) {
+						try {
+							registration.pending = registration.listener.logChanged();
+						} catch (Throwable t) {
+							logger.error("Problem reading the changed logs in " + registration.directory, t);
+						}
+					}
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			running = false;
+		} catch (IOException e) {
+			logger.error("Problem watching the logs of " + agentConfig.getServerQueueManagerName(), e);
+		} finally {
+			if (service != null) {
+				try {
+					service.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private WatchService openWatchService() {
+		WatchService service = null;
+		try {
+			service = FileSystems.getDefault().newWatchService();
+			for (Registration registration : registrations) {
+				registration.directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+			}
+			watchService = service;
+			return service;
+		} catch (IOException | UnsupportedOperationException e) {
+			logger.warn("Can't watch the logs of {} for changes, polling them every {} seconds instead: {}",
+					agentConfig.getServerQueueManagerName(), agentConfig.getLogPollInterval(), e.getMessage());
+			if (service != null) {
+				try {
+					service.close();
+				} catch (IOException ce) {
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Marks the registrations for the files changed as pending, and returns whether the directory is still watched.
+	 */
+	private boolean handleEvents(WatchKey key) {
+		for (WatchEvent<?> event : key.pollEvents()) {
+			for (Registration registration : registrations) {
+				if (!registration.directory.equals(key.watchable())) {
+					continue;
+				}
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW
+						|| event.context().toString().startsWith(registration.filePrefix)) {
+					registration.pending = true;
+				}
+			}
+		}
+		return key.reset();
+	}
+
+	/**
+	 * Returns whether any of the registration's files has been created, removed or changed since the last poll.
+	 */
+	private static boolean poll(Registration registration) {
+		Map<String, Long> stamps = new HashMap<>();
+		File[] files = registration.directory.toFile().listFiles();
+		if (files != null) {
+			for (File f : files) {
+				if (f.getName().startsWith(registration.filePrefix)) {
+					stamps.put(f.getName(), f.length() * 31 + f.lastModified());
+				}
+			}
+		}
+		boolean changed = !stamps.equals(registration.stamps);
+		registration.stamps = stamps;
+		return changed;
+	}
+}
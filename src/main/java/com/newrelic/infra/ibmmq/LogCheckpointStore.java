@@ -0,0 +1,124 @@
+package com.newrelic.infra.ibmmq;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The position reached in each log file followed for one queue manager, kept together in one state file. Readers
+ * update positions in memory and the collector saves them all once per cycle. The file is written to a temporary
+ * file, synced and renamed over the previous one, so a crash leaves either the previous or the new positions. Safe
+ * to use from the log watcher thread.
+ */
+public class LogCheckpointStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(LogCheckpointStore.class);
+
+	private static final int VERSION = 1;
+
+	private final String statePath;
+	private final Map<String, LogReader.State> positions = new HashMap<>();
+	private boolean loaded = false;
+	private boolean dirty = false;
+
+	LogCheckpointStore(String statePath) {
+		this.statePath = statePath;
+	}
+
+	/**
+	 * The position saved for the log file, or null when it hasn't been read yet.
+	 */
+	public synchronized LogReader.State get(String logPath) {
+		load();
+		return positions.get(logPath);
+	}
+
+	public synchronized void update(String logPath, LogReader.State state) {
+		load();
+		positions.put(logPath, state);
+		dirty = true;
+	}
+
+	/**
+	 * Drops the positions of the files in the directory whose names start with namePrefix and end with nameSuffix but
+	 * aren't in the given set of paths, once they are deleted. Positions of other files in the same directory, read by
+	 * other collectors, are kept.
+	 */
+	public synchronized void retain(String directory, String namePrefix, String nameSuffix, Set<String> logPaths) {
+		load();
+		String prefix = new File(directory).getPath() + File.separator;
+		Iterator<String> it = positions.keySet().iterator();
+		while (it.hasNext()) {
+			String logPath = it.next();
+			if (!logPath.startsWith(prefix) || logPaths.contains(logPath)) {
+				continue;
+			}
+			String name = logPath.substring(prefix.length());
+			if (name.indexOf(File.separatorChar) < 0 && name.startsWith(namePrefix) && name.endsWith(nameSuffix)) {
+				it.remove();
+				dirty = true;
+			}
+		}
+	}
+
+	/**
+	 * Writes the positions if any changed since the last save.
+	 */
+	public synchronized void save() throws IOException {
+		if (!dirty) {
+			return;
+		}
+		File f = new File(statePath);
+		File tmp = new File(statePath + ".tmp");
+		try (FileOutputStream file = new FileOutputStream(tmp);
+				DataOutputStream out = new DataOutputStream(file)) {
+			out.writeInt(VERSION);
+			out.writeInt(positions.size());
+			for (Map.Entry<String, LogReader.State> entry : positions.entrySet()) {
+				out.writeUTF(entry.getKey());
+				entry.getValue().write(out);
+			}
+			out.flush();
+			file.getFD().sync();
+		}
+		Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		dirty = false;
+	}
+
+	private void load() {
+		if (loaded) {
+			return;
+		}
+		loaded = true;
+		File f = new File(statePath);
+		if (!f.exists()) {
+			return;
+		}
+		try (DataInputStream in = new DataInputStream(new FileInputStream(f))) {
+			if (in.readInt() != VERSION) {
+				logger.warn("Ignoring log checkpoints in {}, written by another version", statePath);
+				return;
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String logPath = in.readUTF();
+				positions.put(logPath, LogReader.State.read(in));
+			}
+		} catch (IOException e) {
+			logger.error("Couldn't read log checkpoints from " + statePath + ", logs are read from the start", e);
+			positions.clear();
+		}
+	}
+}
@@ -8,16 +8,16 @@
  */
 package com.newrelic.infra.ibmmq;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.GregorianCalendar;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,97 +26,242 @@ import com.ibm.mq.MQException;
 import com.ibm.mq.MQQueueManager;
 import com.newrelic.infra.publish.api.MetricReporter;
 import com.newrelic.infra.publish.api.metrics.AttributeMetric;
+import com.newrelic.infra.publish.api.metrics.GaugeMetric;
 import com.newrelic.infra.publish.api.metrics.Metric;
 
 public class LogMetricCollector {
 	private static final Logger logger = LoggerFactory.getLogger(LogMetricCollector.class);
 
-	private final SimpleDateFormat fileNameDateFormat = new SimpleDateFormat("YYYYMMdd");
-	
+	private static final String MAINTENANCE_LOG_PREFIX = "mqmaint_err.";
+	private static final long MAINTENANCE_LOG_MAX_AGE = 86400000;
+
 	private AgentConfig agentConfig = null;
-	
-	private long nextCompressionErrorScanTime;
+
+	// The error log patterns and, at the same index, the reason code reported for each.
+	private LogPatternMatcher errorLogMatcher = null;
+	private List<String> errorLogReasonCodes = new ArrayList<>();
+
+	private LogCheckpointStore checkpoints = null;
+	private String errorLogFilePath = null;
+	private LogReader errorLogReader = null;
+	private ErrorLogParser errorLogParser = null;
+
+	// Matches read but not reported yet; guarded by this collector, as the log watcher reads from its own thread.
+	private final List<LogReader.Match> pendingMatches = new ArrayList<>();
+	private volatile boolean watched = false;
+
+	// The maintenance log patterns and their reason codes, what was found since the last report, and the readers whose
+	// positions can be committed once it is reported; guarded by this collector.
+	private LogPatternMatcher maintenanceMatcher = null;
+	private List<String> maintenanceReasonCodes = new ArrayList<>();
+	private final Map<Integer, Integer> maintenanceCounts = new LinkedHashMap<>();
+	private final Map<Integer, String> maintenanceLastMatches = new HashMap<>();
+	private final Map<Integer, String> maintenanceLastFiles = new HashMap<>();
+	private final Map<String, LogReader> maintenanceReaders = new LinkedHashMap<>();
 
 	public LogMetricCollector(AgentConfig agentConfig) {
 		this.agentConfig  = agentConfig;
+		List<String> patterns = new ArrayList<>();
+		for (Map.Entry<String, String> entry : agentConfig.getErrorLogPatterns().entrySet()) {
+			patterns.add(entry.getKey());
+			errorLogReasonCodes.add(entry.getValue());
+		}
+		this.errorLogMatcher = new LogPatternMatcher(patterns);
+		List<String> maintenancePatterns = new ArrayList<>();
+		for (Map.Entry<String, String> entry : agentConfig.getMaintenanceLogPatterns().entrySet()) {
+			maintenancePatterns.add(entry.getKey());
+			maintenanceReasonCodes.add(entry.getValue());
+		}
+		this.maintenanceMatcher = new LogPatternMatcher(maintenancePatterns);
+
+		this.checkpoints = new LogCheckpointStore(agentConfig.getAgentTempPath() + "/"
+				+ agentConfig.getServerQueueManagerName() + "-log-checkpoints.state");
+		boolean json = "json".equalsIgnoreCase(agentConfig.getErrorLogFormat());
+		String extension = json ? ".json" : ".LOG";
+		this.errorLogFilePath = agentConfig.getErrorLogPath() + "/AMQERR01" + extension;
+		this.errorLogReader = new LogReader(errorLogFilePath, checkpoints,
+				agentConfig.getErrorLogPath() + "/AMQERR02" + extension,
+				agentConfig.getErrorLogPath() + "/AMQERR03" + extension);
+		this.errorLogParser = json ? new JsonErrorLogParser() : new AmqErrorLogParser();
 	}
 
-	public void reportErrorLogEvents(MQQueueManager mqQueueManager, MetricReporter metricReporter) {
-		String filePath = agentConfig.getErrorLogPath() + "/AMQERR01.LOG";
-		LogReader log = new LogReader(filePath, agentConfig.getAgentTempPath() + "/log-reader.state", "AMQ9526");
+	public LogCheckpointStore getCheckpoints() {
+		return checkpoints;
+	}
 
+	public void setWatched(boolean watched) {
+		this.watched = watched;
+	}
+
+	/**
+	 * Reads the matches added to the error log since the last read, up to errorLogMaxEvents held until the next report,
+	 * and returns whether there may be more to read. Called each cycle, or by the {@link LogChangeWatcher} when the log
+	 * changes.
+	 */
+	public synchronized boolean collectErrorLogEvents() {
+		int limit = agentConfig.getErrorLogMaxEvents() - pendingMatches.size();
+		if (limit <= 0) {
+			return true;
+		}
+		try {
+			List<LogReader.Match> matches = errorLogReader.findEntries(errorLogParser, errorLogMatcher, limit);
+			pendingMatches.addAll(matches);
+			if (matches.size() >= limit) {
+				logger.debug("Holding the maximum of {} error log events, the rest of {} is left for the next cycle",
+						pendingMatches.size(), errorLogFilePath);
+				return true;
+			}
+		} catch (IOException e) {
+			logger.error("Trouble searching " + errorLogFilePath + " for errors.");
+		}
+		return false;
+	}
+
+	public synchronized void reportErrorLogEvents(MQQueueManager mqQueueManager, MetricReporter metricReporter) {
+		if (!watched) {
+			collectErrorLogEvents();
+		}
+		if (pendingMatches.isEmpty()) {
+			// Nothing read is waiting to be reported, so the position past the lines without matches is checkpointed.
+			errorLogReader.commit();
+			return;
+		}
 		try {
-			String line = log.findSearchValueLine();
-			if (line != null) {
+			String queueManager = mqQueueManager.getName();
+			for (LogReader.Match match : pendingMatches) {
 				List<Metric> metricset = new LinkedList<>();
 				metricset.add(new AttributeMetric("provider", "ibm"));
 				metricset.add(new AttributeMetric("qManagerName", agentConfig.getServerQueueManagerName()));
 				metricset.add(new AttributeMetric("qManagerHost", agentConfig.getServerHost()));
 				
 				metricset.add(new AttributeMetric("object", "log"));
-				metricset.add(new AttributeMetric("queueManager", mqQueueManager.getName()));
-				metricset.add(new AttributeMetric("reasonCode", "CHANNEL_OUT_OF_SYNC"));
-				metricset.add(new AttributeMetric("details", line));
+				metricset.add(new AttributeMetric("queueManager", queueManager));
+				metricset.add(new AttributeMetric("reasonCode", errorLogReasonCodes.get(match.getPattern())));
+				metricset.add(new AttributeMetric("pattern", errorLogMatcher.pattern(match.getPattern())));
+				ErrorLogEntry entry = match.getEntry();
+				addAttribute(metricset, "messageId", entry.getMessageId());
+				addAttribute(metricset, "severity", entry.getSeverity());
+				addAttribute(metricset, "entryTime", entry.getTime());
+				addAttribute(metricset, "process", entry.getProcess());
+				addAttribute(metricset, "user", entry.getUser());
+				addAttribute(metricset, "program", entry.getProgram());
+				addAttribute(metricset, "explanation", entry.getExplanation());
+				addAttribute(metricset, "action", entry.getAction());
+				metricset.add(new AttributeMetric("details", entry.getMessage() != null ? entry.getMessage() : entry.getText()));
 				metricReporter.report("MQEventSample", metricset);
 			}
-		} catch (IOException | MQException e) {
-			logger.error("Trouble searching " + filePath + " for errors.");
+		} catch (MQException e) {
+			logger.error("Trouble reporting the errors found in " + errorLogFilePath + ".");
+			return;
 		}
+		// Everything read has now been reported, so the position can be checkpointed.
+		pendingMatches.clear();
+		errorLogReader.commit();
 	}
 
-	public void setDailyMaintenanceErrorScanTime(String time) {
-		if (!agentConfig.reportMaintenanceErrors()) {
-			//logger.debug("Skipped setDailyMaintenanceErrorScanTime={}", agentConfig.reportMaintenanceErrors());
-			return;
+	/**
+	 * Saves the positions reached in the logs this cycle.
+	 */
+	public void saveCheckpoints() {
+		try {
+			checkpoints.save();
+		} catch (IOException e) {
+			logger.error("Couldn't save log checkpoints", e);
 		}
+	}
 
-		int index = time.indexOf(':');
-		int hour = Integer.parseInt(time.substring(0, index));
-		int minute = Integer.parseInt(time.substring(index + 1));
-
-		Calendar cal = GregorianCalendar.getInstance();
-		cal.set(Calendar.HOUR_OF_DAY, hour);
-		cal.set(Calendar.MINUTE, minute);
-		nextCompressionErrorScanTime = cal.getTimeInMillis();
-
-		if (nextCompressionErrorScanTime < System.currentTimeMillis()) {
-			cal.add(Calendar.DAY_OF_YEAR, 1);
-			nextCompressionErrorScanTime = cal.getTimeInMillis();
+	private static void addAttribute(List<Metric> metricset, String name, String value) {
+		if (value != null) {
+			metricset.add(new AttributeMetric(name, value));
 		}
 	}
-	
-	public void checkForCompressionError(MQQueueManager mqQueueManager, MetricReporter metricReporter) {
+
+	/**
+	 * Reads the lines added to the mqmaint_err.*.log files in mqToolsLogPath since the last read, counting those with
+	 * each maintenance log pattern until the next report, and returns whether there may be more to read. Only the
+	 * appended bytes are read; files not changed in the last day when first seen are skipped.
+	 */
+	public synchronized boolean collectMaintenanceErrors() {
+		File[] files = new File(agentConfig.getMqToolsLogPath()).listFiles();
+		if (files == null) {
+			logger.error("Can't list the maintenance logs in " + agentConfig.getMqToolsLogPath());
+			return false;
+		}
+
+		Set<String> paths = new HashSet<>();
 		long now = System.currentTimeMillis();
-		if (now >= nextCompressionErrorScanTime) {
-			//System.out.println("***** checking for compression error");
-
-			String fileDate = fileNameDateFormat.format(new Date(now));
-			File logDir = new File(agentConfig.getMqToolsLogPath());
-			File file = new File(logDir, "mqmaint_err." + fileDate + ".log");
-
-			if (file.exists()) {
-				try (BufferedReader in = new BufferedReader(new FileReader(file))) {
-					String line;
-					while ((line = in.readLine()) != null) {
-						if (line.contains("Compressing")) {
-							List<Metric> metricset = new LinkedList<>();
-							metricset.add(new AttributeMetric("queueManager", mqQueueManager.getName()));
-							metricset.add(new AttributeMetric("reasonCode", "COMPRESSING_ERROR"));
-							metricReporter.report("MQEventSample", metricset);
-
-							break;
-						}
+		for (File f : files) {
+			if (!f.getName().startsWith(MAINTENANCE_LOG_PREFIX)) {
+				continue;
+			}
+			String path = f.getPath();
+			paths.add(path);
+			LogReader reader = maintenanceReaders.get(path);
+			try {
+				if (reader == null) {
+					LogReader.State state = checkpoints.get(path);
+					if (state != null && state.offset == f.length()) {
+						continue;
+					}
+					if (state == null && now - f.lastModified() > MAINTENANCE_LOG_MAX_AGE) {
+						// An old log, seen for the first time; start at its end rather than reporting its past errors.
+						state = LogReader.State.of(f);
+						state.offset = f.length();
+						checkpoints.update(path, state);
+						continue;
 					}
-				} catch (IOException | MQException e) {
-					logger.error("Trouble trying to scan for compression error in mqtools logs.", e);
+					reader = new LogReader(path, checkpoints);
+				}
+				for (LogReader.Match match : reader.findMatches(maintenanceMatcher, Integer.MAX_VALUE)) {
+					Integer count = maintenanceCounts.get(match.getPattern());
+					maintenanceCounts.put(match.getPattern(), count == null ? 1 : count + 1);
+					maintenanceLastMatches.put(match.getPattern(), match.getEntry().getText());
+					maintenanceLastFiles.put(match.getPattern(), f.getName());
 				}
+				maintenanceReaders.put(path, reader);
+			} catch (IOException e) {
+				logger.error("Trouble trying to scan for errors in mqtools log " + path, e);
 			}
+		}
+		checkpoints.retain(agentConfig.getMqToolsLogPath(), MAINTENANCE_LOG_PREFIX, "", paths);
+		return false;
+	}
 
-			Calendar cal = GregorianCalendar.getInstance();
-			cal.setTimeInMillis(nextCompressionErrorScanTime);
-			cal.add(Calendar.DAY_OF_YEAR, 1);
-			nextCompressionErrorScanTime = cal.getTimeInMillis();
+	/**
+	 * Reports one MQEventSample for each maintenance log pattern found since the last report, with the number of lines
+	 * found and the last of them.
+	 */
+	public synchronized void reportMaintenanceErrors(MQQueueManager mqQueueManager, MetricReporter metricReporter) {
+		if (!watched) {
+			collectMaintenanceErrors();
+		}
+		if (!maintenanceCounts.isEmpty()) {
+			try {
+				String queueManager = mqQueueManager.getName();
+				for (Map.Entry<Integer, Integer> count : maintenanceCounts.entrySet()) {
+					int pattern = count.getKey();
+					List<Metric> metricset = new LinkedList<>();
+					metricset.add(new AttributeMetric("queueManager", queueManager));
+					metricset.add(new AttributeMetric("reasonCode", maintenanceReasonCodes.get(pattern)));
+					metricset.add(new AttributeMetric("object", "maintenanceLog"));
+					metricset.add(new AttributeMetric("pattern", maintenanceMatcher.pattern(pattern)));
+					metricset.add(new AttributeMetric("file", maintenanceLastFiles.get(pattern)));
+					metricset.add(new AttributeMetric("details", maintenanceLastMatches.get(pattern)));
+					metricset.add(new GaugeMetric("count", count.getValue()));
+					metricReporter.report("MQEventSample", metricset);
+				}
+			} catch (MQException e) {
+				logger.error("Trouble reporting the errors found in the mqtools logs.", e);
+				return;
+			}
+		}
+		maintenanceCounts.clear();
+		maintenanceLastMatches.clear();
+		maintenanceLastFiles.clear();
+		for (LogReader reader : maintenanceReaders.values()) {
+			reader.commit();
 		}
+		maintenanceReaders.clear();
 	}
 
 }
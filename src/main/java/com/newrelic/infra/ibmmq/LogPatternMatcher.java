@@ -0,0 +1,138 @@
+package com.newrelic.infra.ibmmq;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds any of a set of literal patterns, such as AMQ message ids and keywords, in one pass over the text
+ * (Aho-Corasick). Transitions are kept in a dense table over 7-bit ASCII; other characters never match, so patterns
+ * must be ASCII. Matching is case sensitive.
+ */
+class LogPatternMatcher {
+
+	private static final int ALPHABET = 128;
+
+	private final String[] patterns;
+	// next[state * ALPHABET + symbol] is the state reached, with failure links already folded in.
+	private final int[] next;
+	// For each state, the patterns ending there, including those reached through failure links.
+	private final int[][] outputs;
+
+	LogPatternMatcher(List<String> patterns) {
+		this.patterns = patterns.toArray(new String[patterns.size()]);
+
+		int maxStates = 1;
+		for (String pattern : this.patterns) {
+			maxStates += pattern.length();
+		}
+		int[] trie = new int[maxStates * ALPHABET];
+		Arrays.fill(trie, -1);
+		List<List<Integer>> ends = new ArrayList<>();
+		ends.add(new ArrayList<Integer>());
+		int states = 1;
+
+		for (int p = 0; p < this.patterns.length; p++) {
+			String pattern = this.patterns[p];
+			if (pattern.isEmpty()) {
+				throw new IllegalArgumentException("Empty log pattern");
+			}
+			int state = 0;
+			for (int i = 0; i < pattern.length(); i++) {
+				char c = pattern.charAt(i);
+				if (c >= ALPHABET) {
+					throw new IllegalArgumentException("Log pattern '" + pattern + "' is not ASCII");
+				}
+				if (trie[state * ALPHABET + c] < 0) {
+					trie[state * ALPHABET + c] = states++;
+					ends.add(new ArrayList<Integer>());
+				}
+				state = trie[state * ALPHABET + c];
+			}
+			ends.get(state).add(p);
+		}
+
+		// Breadth first, completing the transition table and merging the outputs of failure states.
+		next = Arrays.copyOf(trie, states * ALPHABET);
+		int[] fail = new int[states];
+		int[] queue = new int[states];
+		int head = 0;
+		int tail = 0;
+		for (int c = 0; c < ALPHABET; c++) {
+			int child = next[c];
+			if (child < 0) {
+				next[c] = 0;
+			} else {
+				fail[child] = 0;
+				queue[tail++] = child;
+			}
+		}
+		while (head < tail) {
+			int state = queue[head++];
+			ends.get(state).addAll(ends.get(fail[state]));
+			for (int c = 0; c < ALPHABET; c++) {
+				int child = next[state * ALPHABET + c];
+				if (child < 0) {
+					next[state * ALPHABET + c] = next[fail[state] * ALPHABET + c];
+				} else {
+					fail[child] = next[fail[state] * ALPHABET + c];
+					queue[tail++] = child;
+				}
+			}
+		}
+
+		outputs = new int[states][];
+		for (int s = 0; s < states; s++) {
+			List<Integer> end = ends.get(s);
+			outputs[s] = new int[end.size()];
+			for (int i = 0; i < end.size(); i++) {
+				outputs[s][i] = end.get(i);
+			}
+		}
+	}
+
+	int patternCount() {
+		return patterns.length;
+	}
+
+	String pattern(int index) {
+		return patterns[index];
+	}
+
+	/**
+	 * The state reached from the given state on reading a byte of text, starting from state 0. Bytes outside ASCII,
+	 * such as those of multibyte UTF-8 characters, never match.
+	 */
+	int step(int state, byte b) {
+		return b >= 0 ? next[state * ALPHABET + b] : 0;
+	}
+
+	/**
+	 * Indexes of the patterns ending at the given state.
+	 */
+	int[] outputs(int state) {
+		return outputs[state];
+	}
+
+	/**
+	 * Indexes of the distinct patterns found in the text, in the order they are first found.
+	 */
+	List<Integer> matches(CharSequence text) {
+		List<Integer> found = Collections.emptyList();
+		int state = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			state = c < ALPHABET ? next[state * ALPHABET + c] : 0;
+			for (int p : outputs[state]) {
+				if (found.isEmpty()) {
+					found = new ArrayList<>(2);
+				}
+				if (!found.contains(p)) {
+					found.add(p);
+				}
+			}
+		}
+		return found;
+	}
+}
@@ -1,76 +1,418 @@
 package com.newrelic.infra.ibmmq;
 
 import java.io.*;
-import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
 
 /**
- * A class for monitoring the tail of some log for some value.  This class keeps it's state in a state file so it can
- * continue searching the log file starting at the point it left off in a prior run.
+ * A class for monitoring the tail of some log for some value.  This class keeps its position in a
+ * {@link LogCheckpointStore} so it can continue searching the log file starting at the point it left off in a prior run.
  */
 public class LogReader {
 
+	/**
+	 * An entry of the log containing one of the patterns searched for.
+	 */
+	public static class Match {
+		private final int pattern;
+		private final ErrorLogEntry entry;
+
+		Match(int pattern, ErrorLogEntry entry) {
+			this.pattern = pattern;
+			this.entry = entry;
+		}
+
+		public int getPattern() {
+			return pattern;
+		}
+
+		public ErrorLogEntry getEntry() {
+			return entry;
+		}
+	}
+
+	/**
+	 * Takes each line as an entry of its own.
+	 */
+	private static class LineParser implements ErrorLogParser {
+		@Override
+		public boolean isSingleLine() {
+			return true;
+		}
+
+		@Override
+		public boolean isSeparator(byte[] line, int start, int length) {
+			return false;
+		}
+
+		@Override
+		public ErrorLogEntry addLine(String line) {
+			ErrorLogEntry entry = new ErrorLogEntry(line);
+			entry.message = line;
+			return entry;
+		}
+
+		@Override
+		public boolean isHolding() {
+			return false;
+		}
+
+		@Override
+		public ErrorLogEntry flush() {
+			return null;
+		}
+
+		@Override
+		public void reset() {
+		}
+	}
+
+	private static final int READ_BUFFER_SIZE = 65536;
+	// Bytes of an entry kept beyond this aren't returned, though patterns are still searched for in them.
+	private static final int MAX_ENTRY_SIZE = 1048576;
+
 	private String logPath;
-	private String searchValue;
-	private String statePath;
+	private String[] rotatedPaths;
+	private LogCheckpointStore checkpoints;
+	// The position reached, which is only put in the store by commit.
+	private State position = null;
+
+	// Files are read through one direct buffer per thread, shared by the readers of every log followed.
+	private static final ThreadLocal<ByteBuffer> READ_BUFFERS = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		}
+	};
 
-	LogReader(String logPath, String statePath, String searchValue) {
+	// Reused between reads; the entry being read is copied into it.
+	private byte[] entryBuffer = new byte[4096];
+
+	/**
+	 * A reader keeping its position in the checkpoint store, under the log's path. The position reached is only put in
+	 * the store by {@link #commit()}, once the matches read have been reported, and only written when the store is
+	 * saved.
+	 *
+	 * @param rotatedPaths the names the log is rotated to, newest first, such as AMQERR02.LOG and AMQERR03.LOG
+	 */
+	LogReader(String logPath, LogCheckpointStore checkpoints, String... rotatedPaths) {
 		this.logPath = logPath;
-		this.searchValue = searchValue;
-		this.statePath = statePath;
+		this.checkpoints = checkpoints;
+		this.rotatedPaths = rotatedPaths;
 	}
 
-	public String findSearchValueLine() throws IOException {
-		String foundLine = null;
-		long start = loadState();
+	/**
+	 * Returns every line added since the last call that contains one of the matcher's patterns, one match per pattern
+	 * found in a line, up to maxMatches. Reading stops at the line giving the last match and the next call resumes after
+	 * it, so matches beyond the limit are returned by later calls rather than lost. A line still being written, without
+	 * its line feed yet, is left for the next call.
+	 * <p>
+	 * The file being read is recorded by its file key, where the file system has one, and a checksum of its first bytes.
+	 * When the log has been rotated since the last call, the file is looked for among the rotated paths, the rest of it
+	 * is read, and then the newer files in turn, so lines written just before a rotation are neither skipped nor read
+	 * twice. When it can't be found, every file has been rotated in since and all of them are read, oldest first.
+	 */
+	public List<Match> findMatches(LogPatternMatcher matcher, int maxMatches) throws IOException {
+		return findEntries(new LineParser(), matcher, maxMatches);
+	}
 
-		File f = new File(logPath);
-		long end = f.length();
+	/**
+	 * Like {@link #findMatches(LogPatternMatcher, int)}, but for log entries assembled by the parser, which may span
+	 * several lines. Reading resumes after the last complete entry read, so an entry only partly written when the log
+	 * is read is read again, whole, by the next call.
+	 */
+	public List<Match> findEntries(ErrorLogParser parser, LogPatternMatcher matcher, int maxMatches)
+			throws IOException {
+		List<Match> matches = new ArrayList<>();
+		if (position == null) {
+			position = checkpoints.get(logPath);
+		}
+		State state = position != null ? position : new State();
+
+		// The log followed by its rotated copies, newest first.
+		File[] files = new File[rotatedPaths.length + 1];
+		files[0] = new File(logPath);
+		for (int i = 0; i < rotatedPaths.length; i++) {
+			files[i + 1] = new File(rotatedPaths[i]);
+		}
 
-		if(start > end) {
+		int current = 0;
+		long start = state.offset;
+		if (state.fingerprintLength >= 0) {
+			current = -1;
+			for (int i = 0; i < files.length && current < 0; i++) {
+				if (state.identifies(files[i])) {
+					current = i;
+				}
+			}
+			if (current < 0) {
+				current = files.length - 1;
+				start = 0;
+			}
+		}
+
+		for (int i = current; i >= 0; i--) {
+			File f = files[i];
+			if (!f.exists()) {
+				start = 0;
+				continue;
+			}
+			State reached = State.of(f);
+			reached.offset = scan(f, start, i > 0, parser, matcher, maxMatches, matches);
+			state = reached;
+			if (matches.size() >= maxMatches) {
+				break;
+			}
 			start = 0;
 		}
 
-		if(start < end) {
-			try (RandomAccessFile raf = new RandomAccessFile(logPath, "r")) {
-				raf.seek(start);
+		position = state;
+		return matches;
+	}
 
-				try (BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(raf.getChannel())))) {
+	/**
+	 * Adds the matches in the file from start to the list, until it holds maxMatches, and returns the offset just past
+	 * the last entry read. A final line without a line feed, and an entry still held at the end of the file, are only
+	 * read when the file is complete.
+	 * <p>
+	 * The file is searched as bytes, running the matcher over them as they are read, and the parser is only given the
+	 * decoded lines of entries containing a pattern. As patterns are ASCII, this finds them in any ASCII compatible
+	 * encoding. Other entries are only looked at to find where they end.
+	 */
+	private long scan(File f, long start, boolean complete, ErrorLogParser parser, LogPatternMatcher matcher,
+			int maxMatches, List<Match> matches) throws IOException {
+		long end = f.length();
+		if (start >= end) {
+			return Math.min(start, end);
+		}
+		ByteBuffer readBuffer = READ_BUFFERS.get();
 
-					String line;
-					while ((line = in.readLine()) != null) {
-						if (line.contains(searchValue)) {
-							foundLine = line;
-							break;
+		boolean singleLine = parser.isSingleLine();
+		Charset charset = Charset.defaultCharset();
+		// Patterns found in the entry and in the current line, which only counts toward the entry if it isn't a separator.
+		List<Integer> entryFound = new ArrayList<>();
+		List<Integer> lineFound = new ArrayList<>();
+		int state = 0;
+		int entryLength = 0;
+		int lineStart = 0;
+		long offset = start;
+		// Offset after the last complete entry; where reading resumes when the file ends within an entry.
+		long entryEnd = start;
+
+		try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			long position = start;
+			read:
+			while (true) {
+				readBuffer.clear();
+				int n = channel.read(readBuffer, position);
+				if (n <= 0) {
+					break;
+				}
+				position += n;
+				readBuffer.flip();
+				while (readBuffer.hasRemaining()) {
+					byte b = readBuffer.get();
+					offset++;
+					if (b != '\n') {
+						state = matcher.step(state, b);
+						for (int pattern : matcher.outputs(state)) {
+							if (!lineFound.contains(pattern)) {
+								lineFound.add(pattern);
+							}
+						}
+						if (entryLength < MAX_ENTRY_SIZE) {
+							if (entryLength == entryBuffer.length) {
+								entryBuffer = Arrays.copyOf(entryBuffer, entryBuffer.length * 2);
+							}
+							entryBuffer[entryLength++] = b;
+						}
+						continue;
+					}
+					state = 0;
+
+					int lineLength = entryLength - lineStart;
+					if (lineLength > 0 && entryBuffer[entryLength - 1] == '\r') {
+						lineLength--;
+					}
+					boolean completeEntry = false;
+					if (parser.isSeparator(entryBuffer, lineStart, lineLength)) {
+						entryLength = lineStart;
+						completeEntry = true;
+					} else if (lineStart == 0 && isBlank(entryBuffer, 0, lineLength)) {
+						entryLength = 0;
+						completeEntry = singleLine;
+					} else {
+						addFound(lineFound, entryFound);
+						completeEntry = singleLine;
+						if (!completeEntry && entryLength < MAX_ENTRY_SIZE) {
+							if (entryLength == entryBuffer.length) {
+								entryBuffer = Arrays.copyOf(entryBuffer, entryBuffer.length * 2);
+							}
+							entryBuffer[entryLength++] = '\n';
+						}
+					}
+					lineFound.clear();
+					lineStart = entryLength;
+
+					if (completeEntry || entryLength == 0) {
+						if (completeEntry) {
+							addEntry(parser, charset, entryLength, entryFound, matches);
+							entryLength = 0;
+							lineStart = 0;
+							entryFound.clear();
+						}
+						entryEnd = offset;
+						if (matches.size() >= maxMatches) {
+							break read;
 						}
 					}
 				}
+			}
+		}
 
-				persistState(end);
+		if (complete && matches.size() < maxMatches) {
+			int lineLength = entryLength - lineStart;
+			if (lineLength > 0 && !parser.isSeparator(entryBuffer, lineStart, lineLength)) {
+				addFound(lineFound, entryFound);
+			} else {
+				entryLength = lineStart;
 			}
+			addEntry(parser, charset, entryLength, entryFound, matches);
+			entryEnd = offset;
 		}
+		return entryEnd;
+	}
 
-		return foundLine;
+	private static void addFound(List<Integer> lineFound, List<Integer> entryFound) {
+		for (int pattern : lineFound) {
+			if (!entryFound.contains(pattern)) {
+				entryFound.add(pattern);
+			}
+		}
 	}
 
-	private long loadState() throws IOException {
-		File f = new File(statePath);
-		if(!f.exists()) {
-			return 0;
-		} else {
-			try (DataInputStream in = new DataInputStream(new FileInputStream(f))) {
-				return in.readLong();
+	/**
+	 * Decodes the entry held in the entry buffer, if it contains any patterns, and adds a match for each.
+	 */
+	private void addEntry(ErrorLogParser parser, Charset charset, int entryLength, List<Integer> found,
+			List<Match> matches) {
+		if (found.isEmpty() || entryLength == 0) {
+			return;
+		}
+		parser.reset();
+		ErrorLogEntry entry = null;
+		int lineStart = 0;
+		for (int i = 0; i <= entryLength && entry == null; i++) {
+			if (i < entryLength && entryBuffer[i] != '\n') {
+				continue;
 			}
+			int length = i - lineStart;
+			if (length > 0 && entryBuffer[i - 1] == '\r') {
+				length--;
+			}
+			entry = parser.addLine(new String(entryBuffer, lineStart, length, charset));
+			lineStart = i + 1;
+		}
+		if (entry == null) {
+			entry = parser.flush();
+		}
+		if (entry == null) {
+			return;
+		}
+		for (int pattern : found) {
+			matches.add(new Match(pattern, entry));
 		}
 	}
 
-	private void persistState(long start) throws IOException {
-		File f = new File(statePath);
-		if(!f.exists()) {
-			f.createNewFile();
+	private static boolean isBlank(byte[] bytes, int start, int length) {
+		for (int i = start; i < start + length; i++) {
+			if (bytes[i] != ' ' && bytes[i] != '\t') {
+				return false;
+			}
 		}
-		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(f))) {
-			out.writeLong(start);
-			out.flush();
+		return true;
+	}
+
+	/**
+	 * The offset reached in a log file, and what identifies that file after it has been renamed by a rotation.
+	 */
+	static class State {
+		private static final int FINGERPRINT_SIZE = 1024;
+
+		long offset = 0;
+		String fileKey = "";
+		// Number of bytes at the head of the file covered by the fingerprint, -1 when the file isn't identified.
+		int fingerprintLength = -1;
+		long fingerprint = 0;
+
+		static State of(File f) throws IOException {
+			State state = new State();
+			Object key = Files.readAttributes(f.toPath(), BasicFileAttributes.class).fileKey();
+			state.fileKey = key == null ? "" : key.toString();
+			state.fingerprintLength = (int) Math.min(f.length(), FINGERPRINT_SIZE);
+			state.fingerprint = fingerprint(f, state.fingerprintLength);
+			return state;
+		}
+
+		/**
+		 * Whether the file is the one this state was saved for, and still holds everything read from it.
+		 */
+		boolean identifies(File f) throws IOException {
+			if (!f.exists() || f.length() < offset || f.length() < fingerprintLength) {
+				return false;
+			}
+			if (!fileKey.isEmpty()) {
+				Object key = Files.readAttributes(f.toPath(), BasicFileAttributes.class).fileKey();
+				if (key != null && !fileKey.equals(key.toString())) {
+					return false;
+				}
+			}
+			return fingerprint(f, fingerprintLength) == fingerprint;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeLong(offset);
+			out.writeUTF(fileKey);
+			out.writeInt(fingerprintLength);
+			out.writeLong(fingerprint);
+		}
+
+		static State read(DataInputStream in) throws IOException {
+			State state = new State();
+			state.offset = in.readLong();
+			state.fileKey = in.readUTF();
+			state.fingerprintLength = in.readInt();
+			state.fingerprint = in.readLong();
+			return state;
+		}
+
+		private static long fingerprint(File f, int length) throws IOException {
+			byte[] head = new byte[length];
+			try (DataInputStream in = new DataInputStream(new FileInputStream(f))) {
+				in.readFully(head);
+			} catch (EOFException e) {
+				return -1;
+			}
+			CRC32 crc = new CRC32();
+			crc.update(head);
+			return crc.getValue();
+		}
+	}
+
+	/**
+	 * Puts the position reached in the checkpoint store.
+	 */
+	public void commit() {
+		if (position != null) {
+			checkpoints.update(logPath, position);
 		}
 	}
 
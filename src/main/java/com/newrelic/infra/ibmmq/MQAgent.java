@@ -1,6 +1,7 @@
 package com.newrelic.infra.ibmmq;
 
 import java.util.HashMap;
+import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -8,7 +9,6 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.ibm.mq.MQEnvironment;
 import com.ibm.mq.MQException;
 import com.ibm.mq.MQQueueManager;
 import com.ibm.mq.constants.MQConstants;
@@ -37,10 +37,21 @@ public class MQAgent extends Agent {
 	private ClusterMetricCollector clusterMetricCollector = null;
 	private EventMetricCollector eventMetricCollector = null;
 	private LogMetricCollector logMetricCollector = null;
+	private StatisticsMetricCollector statisticsMetricCollector = null;
+	private ActivityTraceCollector activityTraceCollector = null;
+	private ConnectionMetricCollector connectionMetricCollector = null;
+	private EventQueueConsumer eventQueueConsumer = null;
+	private ResourceMonitorSubscriber resourceMonitorSubscriber = null;
+	private DepthEventInquirer depthEventInquirer = null;
+	private QueueDepthSampler queueDepthSampler = null;
+	private LogChangeWatcher logChangeWatcher = null;
+	private FdcMetricCollector fdcMetricCollector = null;
+	private DeadLetterQueueCollector deadLetterQueueCollector = null;
+	private LatencyProbe latencyProbe = null;
 
 	private static final Logger logger = LoggerFactory.getLogger(MQAgent.class);
 	
-	public MQAgent(AgentConfig agentConfig, String dailyMaintenanceErrorScanTime) {
+	public MQAgent(AgentConfig agentConfig) {
 		super();
 		this.agentConfig  = agentConfig;
 		this.queueMetricCollector  = new QueueMetricCollector(agentConfig);
@@ -51,11 +62,88 @@ public class MQAgent extends Agent {
 		this.clusterMetricCollector = new ClusterMetricCollector(agentConfig);
 		this.eventMetricCollector = new EventMetricCollector(agentConfig);
 		this.logMetricCollector = new LogMetricCollector(agentConfig);
-		logMetricCollector.setDailyMaintenanceErrorScanTime(dailyMaintenanceErrorScanTime);
+		this.statisticsMetricCollector = new StatisticsMetricCollector(agentConfig);
+		this.connectionMetricCollector = new ConnectionMetricCollector(agentConfig);
+		if (agentConfig.reportEventMessages() && agentConfig.inquireOnDepthEvents()) {
+			this.depthEventInquirer = new DepthEventInquirer(agentConfig);
+			eventMetricCollector.setDepthEventInquirer(depthEventInquirer);
+		}
+		if (agentConfig.reportEventMessages() && agentConfig.consumeEventMessages()) {
+			this.eventQueueConsumer = new EventQueueConsumer(agentConfig, eventMetricCollector);
+		}
+		if (!agentConfig.getSampleQueues().isEmpty() || agentConfig.getQueueSweepInterval() > 0) {
+			this.queueDepthSampler = new QueueDepthSampler(agentConfig);
+		}
+		if (agentConfig.reportResourceMonitoring()) {
+			this.resourceMonitorSubscriber = new ResourceMonitorSubscriber(agentConfig);
+		}
+		if (!agentConfig.getLatencyProbeQueues().isEmpty()) {
+			this.latencyProbe = new LatencyProbe(agentConfig);
+		}
+		if (agentConfig.reportActivityTrace()) {
+			this.activityTraceCollector = new ActivityTraceCollector(agentConfig);
+		}
+		if (agentConfig.reportDeadLetterQueue()) {
+			this.deadLetterQueueCollector = new DeadLetterQueueCollector(agentConfig);
+		}
+		if (agentConfig.monitorFdcFiles()) {
+			this.fdcMetricCollector = new FdcMetricCollector(agentConfig, logMetricCollector.getCheckpoints());
+		}
+		if (agentConfig.watchErrorLogs()
+				&& (agentConfig.monitorErrorLogs() || agentConfig.reportMaintenanceErrors() || fdcMetricCollector != null)) {
+			this.logChangeWatcher = new LogChangeWatcher(agentConfig);
+			if (agentConfig.monitorErrorLogs()) {
+				logChangeWatcher.watch(agentConfig.getErrorLogPath(), "AMQERR", new LogChangeWatcher.Listener() {
+					@Override
+					public boolean logChanged() {
+						return logMetricCollector.collectErrorLogEvents();
+					}
+				});
+			}
+			if (agentConfig.reportMaintenanceErrors()) {
+				logChangeWatcher.watch(agentConfig.getMqToolsLogPath(), "mqmaint_err.", new LogChangeWatcher.Listener() {
+					@Override
+					public boolean logChanged() {
+						return logMetricCollector.collectMaintenanceErrors();
+					}
+				});
+			}
+			logMetricCollector.setWatched(true);
+			if (fdcMetricCollector != null) {
+				logChangeWatcher.watch(agentConfig.getFdcPath(), "AMQ", new LogChangeWatcher.Listener() {
+					@Override
+					public boolean logChanged() {
+						return fdcMetricCollector.collectFdcFiles();
+					}
+				});
+				fdcMetricCollector.setWatched(true);
+			}
+		}
 	}
 
 	@Override
 	public void dispose() throws Exception {
+		if (eventQueueConsumer != null) {
+			eventQueueConsumer.stop();
+		}
+		if (resourceMonitorSubscriber != null) {
+			resourceMonitorSubscriber.stop();
+		}
+		if (queueDepthSampler != null) {
+			queueDepthSampler.stop();
+		}
+		if (latencyProbe != null) {
+			latencyProbe.stop();
+		}
+		if (activityTraceCollector != null) {
+			activityTraceCollector.stop();
+		}
+		if (logChangeWatcher != null) {
+			logChangeWatcher.stop();
+		}
+		if (deadLetterQueueCollector != null) {
+			deadLetterQueueCollector.close();
+		}
 	}
 
 	@Override
@@ -66,9 +154,41 @@ public class MQAgent extends Agent {
 	public void populateMetrics(MetricReporter metricReporter) throws Exception {
 		MQQueueManager mqQueueManager = null;
 		PCFMessageAgent agent = null;
+		if (eventQueueConsumer != null) {
+			// The consumer keeps its own connection, so its events are reported even when this cycle can't connect.
+			eventQueueConsumer.start();
+			eventQueueConsumer.reportPendingEvents(metricReporter);
+			if (depthEventInquirer != null) {
+				depthEventInquirer.reportSamples(metricReporter);
+			}
+		}
+		if (queueDepthSampler != null) {
+			queueDepthSampler.start();
+		}
+		if (resourceMonitorSubscriber != null) {
+			resourceMonitorSubscriber.start();
+			resourceMonitorSubscriber.reportResourceStats(metricReporter);
+		}
+		if (latencyProbe != null) {
+			// The probe keeps its own connection, so failed probes are reported even when this cycle can't connect.
+			latencyProbe.start();
+			latencyProbe.reportLatencies(metricReporter);
+		}
+		if (activityTraceCollector != null) {
+			activityTraceCollector.start();
+			activityTraceCollector.reportActivityTrace(metricReporter);
+		}
+		if (logChangeWatcher != null) {
+			logChangeWatcher.start();
+		}
+		if (fdcMetricCollector != null) {
+			// FDC files are read from disk, so they are reported even when the queue manager is down.
+			fdcMetricCollector.reportFdcs(metricReporter);
+			logMetricCollector.saveCheckpoints();
+		}
 		try {
 			try {
-				mqQueueManager = connect();
+				mqQueueManager = connect(agentConfig);
 			}  catch (MQException e) {
 				reportQueueManagerHostNotResponding(agentConfig.getServerQueueManagerName(), "QUEUE_MANAGER_NOT_AVAILABLE", e.reasonCode, metricReporter);
 				logger.error("Problem creating MQQueueManager", e);
@@ -100,34 +220,67 @@ public class MQAgent extends Agent {
 			listenerMetricCollector.reportListenerStatus(agent, metricReporter);
 			
 			Map<String, List<Metric>> metricMap = new HashMap<>();
-			queueMetricCollector.reportQueueStats(agent, metricReporter, metricMap);
-			queueMetricCollector.addResetQueueStats(agent, metricReporter, metricMap);
+			List<String> queueNames = queueMetricCollector.selectQueues();
+			queueMetricCollector.reportQueueStats(agent, metricReporter, metricMap, queueNames);
+			if (agentConfig.consumeStatisticsMessages()) {
+				statisticsMetricCollector.addQueueStatistics(mqQueueManager, metricReporter, metricMap,
+						queueNames == null);
+			} else {
+				queueMetricCollector.addResetQueueStats(agent, metricReporter, metricMap, queueNames);
+			}
             if (agentConfig.reportAdditionalQueueStatus()) {
-                queueMetricCollector.addQueueStatusStats(agent, metricReporter, metricMap);
+                queueMetricCollector.addQueueStatusStats(agent, metricReporter, metricMap, queueNames);
             }
+			if (agentConfig.reportQueueHandles()) {
+				queueMetricCollector.reportQueueHandles(agent, metricReporter);
+			}
+
+			if (queueDepthSampler != null) {
+				queueDepthSampler.addRollups(metricMap);
+				queueDepthSampler.setHotQueues(queueMetricCollector.hotQueueNames());
+			}
 
 			for (Map.Entry<String, List<Metric>> entry : metricMap.entrySet()) {
 				metricReporter.report(QueueSampleConstants.MQ_QUEUE_SAMPLE, entry.getValue());
 			}
+			if (agentConfig.consumeStatisticsMessages()) {
+				statisticsMetricCollector.commit(mqQueueManager);
+			}
 			
-			channelMetricCollector.reportChannelStats(agent, metricReporter);
-			
-			if (agentConfig.reportTopicStatus()) {
-				topicMetricCollector.reportTopicStatus(agent, metricReporter);
+			int channelCount = channelMetricCollector.reportChannelStats(agent, metricReporter);
+			int highestHandleCount = -1;
+			if (agentConfig.reportConnections()) {
+				highestHandleCount = connectionMetricCollector.reportConnections(mqQueueManager, agent,
+						metricReporter);
+			}
+			if (agentConfig.reportCapacity()) {
+				queueManagerMetricCollector.reportQueueManagerCapacity(agent, metricReporter, channelCount,
+						highestHandleCount);
 			}
-			if (agentConfig.reportAdditionalTopicStatus() ) {
-				topicMetricCollector.reportTopicStatusSub(agent, metricReporter);
+			if (deadLetterQueueCollector != null) {
+				deadLetterQueueCollector.reportDeadLetters(agent, metricReporter);
+			}
+			
+			if (agentConfig.reportTopicStatus() || agentConfig.reportAdditionalTopicStatus()) {
+				topicMetricCollector.reportTopics(agent, metricReporter);
 			}
 
-			if (agentConfig.reportEventMessages()) {
+			if (agentConfig.reportEventMessages() && eventQueueConsumer == null) {
 				eventMetricCollector.reportEventStats(mqQueueManager, metricReporter);
+				if (depthEventInquirer != null) {
+					depthEventInquirer.inquire(agent);
+					depthEventInquirer.reportSamples(metricReporter);
+				}
 			}
 			if (agentConfig.reportMaintenanceErrors()) {
-				logMetricCollector.checkForCompressionError(mqQueueManager, metricReporter);
+				logMetricCollector.reportMaintenanceErrors(mqQueueManager, metricReporter);
 			}
 			if (agentConfig.monitorErrorLogs()) {
 				logMetricCollector.reportErrorLogEvents(mqQueueManager, metricReporter);
 			}
+			if (agentConfig.reportMaintenanceErrors() || agentConfig.monitorErrorLogs()) {
+				logMetricCollector.saveCheckpoints();
+			}
 		} finally {
 			try {
 				if (agent != null) {
@@ -141,18 +294,22 @@ public class MQAgent extends Agent {
 		}
 	}
 
-	@SuppressWarnings("unchecked")
-	private MQQueueManager connect() throws MQException  {
-		MQEnvironment.hostname = agentConfig.getServerHost();
-		MQEnvironment.port = agentConfig.getServerPort();
-		MQEnvironment.userID = agentConfig.getServerAuthUser();
-		MQEnvironment.password = agentConfig.getServerAuthPassword();
-		MQEnvironment.channel = agentConfig.getServerChannelName();
-		MQQueueManager qMgr = new MQQueueManager(agentConfig.getServerQueueManagerName());
-
-		MQEnvironment.properties.put(MQConstants.TRANSPORT_PROPERTY, MQConstants.TRANSPORT_MQSERIES_CLIENT);
+	// Connection properties are passed per connection rather than through the static MQEnvironment, as the event
+	// consumer connects from its own thread.
+	static MQQueueManager connect(AgentConfig agentConfig) throws MQException  {
+		Hashtable<String, Object> properties = new Hashtable<>();
+		properties.put(MQConstants.HOST_NAME_PROPERTY, agentConfig.getServerHost());
+		properties.put(MQConstants.PORT_PROPERTY, agentConfig.getServerPort());
+		properties.put(MQConstants.CHANNEL_PROPERTY, agentConfig.getServerChannelName());
+		if (agentConfig.getServerAuthUser() != null) {
+			properties.put(MQConstants.USER_ID_PROPERTY, agentConfig.getServerAuthUser());
+		}
+		if (agentConfig.getServerAuthPassword() != null) {
+			properties.put(MQConstants.PASSWORD_PROPERTY, agentConfig.getServerAuthPassword());
+		}
+		properties.put(MQConstants.TRANSPORT_PROPERTY, MQConstants.TRANSPORT_MQSERIES_CLIENT);
 
-		return qMgr;
+		return new MQQueueManager(agentConfig.getServerQueueManagerName(), properties);
 	}
 
 	// Often times a code lookup will result in a lengthy description like
@@ -4,6 +4,7 @@ import com.newrelic.infra.publish.api.Agent;
 import com.newrelic.infra.publish.api.AgentFactory;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -25,6 +26,16 @@ public class MQAgentFactory extends AgentFactory {
 		loadListFromConfig(globalConfig.get("topicIncludes"), globalTopicIncludes);
 	}
 
+	private boolean loadMapFromConfig(Object configMap, Map<String, String> destMap) {
+		if (configMap instanceof Map) {
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) configMap).entrySet()) {
+				destMap.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+			}
+			return true;
+		}
+		return false;
+	}
+
 	private void loadListFromConfig(Object configList, List<String> destList) {
 		if (configList != null && configList instanceof ArrayList) {
 			destList.addAll((ArrayList<String>) configList);
@@ -50,15 +61,68 @@ public class MQAgentFactory extends AgentFactory {
 		
 		//boolean reportEventMessages = (Boolean) agentProperties.getOrDefault("reportEventMessages", false);
 		boolean reportEventMessages = (Boolean) getOrDefault(agentProperties, "reportEventMessages", false);
+		boolean consumeEventMessages = (Boolean) getOrDefault(agentProperties, "consumeEventMessages", false);
+		boolean browseEventMessages = (Boolean) getOrDefault(agentProperties, "browseEventMessages", false);
+		int eventWaitInterval = (Integer) getOrDefault(agentProperties, "eventWaitInterval", 1000);
+		int eventBatchSize = (Integer) getOrDefault(agentProperties, "eventBatchSize", 1000);
+		int eventCoalesceWindow = (Integer) getOrDefault(agentProperties, "eventCoalesceWindow", 0);
+		int eventCoalesceMaxKeys = (Integer) getOrDefault(agentProperties, "eventCoalesceMaxKeys", 1000);
 		boolean reportAdditionalQueueStatus =  (Boolean) getOrDefault(agentProperties, "reportAdditionalQueueStatus", false);
+		boolean consumeStatisticsMessages =  (Boolean) getOrDefault(agentProperties, "consumeStatisticsMessages", false);
+		boolean reportActivityTrace =  (Boolean) getOrDefault(agentProperties, "reportActivityTrace", false);
+		boolean reportResourceMonitoring =  (Boolean) getOrDefault(agentProperties, "reportResourceMonitoring", false);
+		boolean reportCapacity =  (Boolean) getOrDefault(agentProperties, "reportCapacity", false);
+		int maxChannels = (Integer) getOrDefault(agentProperties, "maxChannels", 0);
+		boolean reportConnections =  (Boolean) getOrDefault(agentProperties, "reportConnections", false);
+		int connectionTopCount = (Integer) getOrDefault(agentProperties, "connectionTopCount", 10);
+		boolean reportQueueHandles =  (Boolean) getOrDefault(agentProperties, "reportQueueHandles", false);
+		int queueHandleDepthPercent = (Integer) getOrDefault(agentProperties, "queueHandleDepthPercent", 80);
+		int queueHandleOldestMsgAge = (Integer) getOrDefault(agentProperties, "queueHandleOldestMsgAge", 300);
+		int queueHandleUncommittedMsgs = (Integer) getOrDefault(agentProperties, "queueHandleUncommittedMsgs", 100);
+		int queueSweepInterval = (Integer) getOrDefault(agentProperties, "queueSweepInterval", 0);
+		int hotQueueMaxCount = (Integer) getOrDefault(agentProperties, "hotQueueMaxCount", 100);
+		int hotQueueQuietTime = (Integer) getOrDefault(agentProperties, "hotQueueQuietTime", 600);
+		boolean inquireOnDepthEvents =  (Boolean) getOrDefault(agentProperties, "inquireOnDepthEvents", false);
+		int depthEventDebounce = (Integer) getOrDefault(agentProperties, "depthEventDebounce", 10);
+		List<String> sampleQueues = new ArrayList<>();
+		loadListFromConfig(agentProperties.get("sampleQueues"), sampleQueues);
+		int queueSampleInterval = (Integer) getOrDefault(agentProperties, "queueSampleInterval", 5000);
+		boolean reportDepthTrend =  (Boolean) getOrDefault(agentProperties, "reportDepthTrend", false);
+		Map<String, String> errorLogPatterns = new LinkedHashMap<>();
+		if (!loadMapFromConfig(agentProperties.get("errorLogPatterns"), errorLogPatterns)) {
+			errorLogPatterns.put("AMQ9526", "CHANNEL_OUT_OF_SYNC");
+		}
+		Map<String, String> maintenanceLogPatterns = new LinkedHashMap<>();
+		if (!loadMapFromConfig(agentProperties.get("maintenanceLogPatterns"), maintenanceLogPatterns)) {
+			maintenanceLogPatterns.put("Compressing", "COMPRESSING_ERROR");
+		}
+		int errorLogMaxEvents = (Integer) getOrDefault(agentProperties, "errorLogMaxEvents", 100);
+		String errorLogFormat = (String) getOrDefault(agentProperties, "errorLogFormat", "text");
+		boolean watchErrorLogs = (Boolean) getOrDefault(agentProperties, "watchErrorLogs", false);
+		int logPollInterval = (Integer) getOrDefault(agentProperties, "logPollInterval", 5);
+		boolean monitorFdcFiles = (Boolean) getOrDefault(agentProperties, "monitorFdcFiles", false);
+		String fdcPath = (String) getOrDefault(agentProperties, "fdcPath", null);
+		int fdcMaxFiles = (Integer) getOrDefault(agentProperties, "fdcMaxFiles", 100);
+		boolean reportDeadLetterQueue = (Boolean) getOrDefault(agentProperties, "reportDeadLetterQueue", false);
+		String deadLetterQueue = (String) getOrDefault(agentProperties, "deadLetterQueue", null);
+		int deadLetterMaxMessages = (Integer) getOrDefault(agentProperties, "deadLetterMaxMessages", 500);
+		Map<String, String> latencyProbeQueues = new LinkedHashMap<>();
+		loadMapFromConfig(agentProperties.get("latencyProbeQueues"), latencyProbeQueues);
+		for (Map.Entry<String, String> entry : latencyProbeQueues.entrySet()) {
+			// A queue mapped to nothing is a local queue the probes are got back from.
+			if (entry.getValue().isEmpty() || "null".equals(entry.getValue())) {
+				entry.setValue(entry.getKey());
+			}
+		}
+		int latencyProbeInterval = (Integer) getOrDefault(agentProperties, "latencyProbeInterval", 10000);
+		int latencyProbeTimeout = (Integer) getOrDefault(agentProperties, "latencyProbeTimeout", 5000);
+		int latencyProbeMaxInFlight = (Integer) getOrDefault(agentProperties, "latencyProbeMaxInFlight", 5);
 		boolean reportTopicStatus =  (Boolean) getOrDefault(agentProperties, "reportTopicStatus", false);
 		boolean reportAdditionalTopicStatus =  (Boolean) getOrDefault(agentProperties, "reportAdditionalTopicStatus", false);
 
 		//boolean reportMaintenanceErrors = (Boolean) agentProperties.getOrDefault("reportMaintenanceErrors", false);
 		boolean reportMaintenanceErrors = (Boolean) getOrDefault(agentProperties, "reportMaintenanceErrors", false);
 		
-		//String dailyMaintenanceErrorScanTime = (String) agentProperties.getOrDefault("dailyMaintenanceErrorScanTime", null);
-		String dailyMaintenanceErrorScanTime = (String) getOrDefault(agentProperties, "dailyMaintenanceErrorScanTime", null);
 		
 		//String mqToolsLogPath = (String) agentProperties.getOrDefault("mqToolsLogPath", null);
 		String mqToolsLogPath = (String) getOrDefault(agentProperties, "mqToolsLogPath", null);
@@ -76,14 +140,30 @@ public class MQAgentFactory extends AgentFactory {
 			throw new Exception("'name', 'host', 'port', 'queueManager' and 'channel' are required agent properties.");
 		}
 
-		if(reportMaintenanceErrors && (dailyMaintenanceErrorScanTime == null || mqToolsLogPath == null)) {
-			throw new Exception("'dailyMaintenanceErrorScanTime' and 'mqToolsLogPath' are required when 'reportMaintenanceErrors' is true");
+		if(reportMaintenanceErrors && (mqToolsLogPath == null || agentTempPath == null)) {
+			throw new Exception("'mqToolsLogPath' and 'agentTempPath' are required when 'reportMaintenanceErrors' is true");
+		}
+
+		if(consumeEventMessages && browseEventMessages) {
+			throw new Exception("'consumeEventMessages' and 'browseEventMessages' can't both be true");
+		}
+
+		if(browseEventMessages && agentTempPath == null) {
+			throw new Exception("'agentTempPath' is required when 'browseEventMessages' is true");
 		}
 
 		if(monitorErrorLogs && errorLogPath == null) {
 			throw new Exception("'errorLogPath' is required when 'monitorErrorLogs' is true");
 		}
 
+		if(monitorFdcFiles && (fdcPath == null || agentTempPath == null)) {
+			throw new Exception("'fdcPath' and 'agentTempPath' are required when 'monitorFdcFiles' is true");
+		}
+
+		if(reportDeadLetterQueue && agentTempPath == null) {
+			throw new Exception("'agentTempPath' is required when 'reportDeadLetterQueue' is true");
+		}
+
 		AgentConfig agentConfig = new AgentConfig();
 		agentConfig.setServerHost(host);
 		agentConfig.setServerPort(port.intValue());
@@ -92,12 +172,53 @@ public class MQAgentFactory extends AgentFactory {
 		agentConfig.setServerChannelName(channel);
 		agentConfig.setServerQueueManagerName(queueManager);
 		agentConfig.setReportEventMessages(reportEventMessages);
+		agentConfig.setConsumeEventMessages(consumeEventMessages);
+		agentConfig.setBrowseEventMessages(browseEventMessages);
+		agentConfig.setEventWaitInterval(eventWaitInterval);
+		agentConfig.setEventBatchSize(eventBatchSize);
+		agentConfig.setEventCoalesceWindow(eventCoalesceWindow);
+		agentConfig.setEventCoalesceMaxKeys(eventCoalesceMaxKeys);
 		agentConfig.setReportMaintenanceErrors(reportMaintenanceErrors);
 		agentConfig.setMqToolsLogPath(mqToolsLogPath);
 		agentConfig.setMonitorErrorLogs(monitorErrorLogs);
 		agentConfig.setErrorLogPath(errorLogPath);
 		agentConfig.setAgentTempPath(agentTempPath);
 		agentConfig.setReportAdditionalQueueStatus(reportAdditionalQueueStatus);
+		agentConfig.setConsumeStatisticsMessages(consumeStatisticsMessages);
+		agentConfig.setReportActivityTrace(reportActivityTrace);
+		agentConfig.setReportResourceMonitoring(reportResourceMonitoring);
+		agentConfig.setReportCapacity(reportCapacity);
+		agentConfig.setMaxChannels(maxChannels);
+		agentConfig.setReportConnections(reportConnections);
+		agentConfig.setConnectionTopCount(connectionTopCount);
+		agentConfig.setReportQueueHandles(reportQueueHandles);
+		agentConfig.setQueueHandleDepthPercent(queueHandleDepthPercent);
+		agentConfig.setQueueHandleOldestMsgAge(queueHandleOldestMsgAge);
+		agentConfig.setQueueHandleUncommittedMsgs(queueHandleUncommittedMsgs);
+		agentConfig.setQueueSweepInterval(queueSweepInterval);
+		agentConfig.setHotQueueMaxCount(hotQueueMaxCount);
+		agentConfig.setHotQueueQuietTime(hotQueueQuietTime);
+		agentConfig.setInquireOnDepthEvents(inquireOnDepthEvents);
+		agentConfig.setDepthEventDebounce(depthEventDebounce);
+		agentConfig.setSampleQueues(sampleQueues);
+		agentConfig.setQueueSampleInterval(queueSampleInterval);
+		agentConfig.setReportDepthTrend(reportDepthTrend);
+		agentConfig.setErrorLogPatterns(errorLogPatterns);
+		agentConfig.setMaintenanceLogPatterns(maintenanceLogPatterns);
+		agentConfig.setErrorLogMaxEvents(errorLogMaxEvents);
+		agentConfig.setErrorLogFormat(errorLogFormat);
+		agentConfig.setWatchErrorLogs(watchErrorLogs);
+		agentConfig.setLogPollInterval(logPollInterval);
+		agentConfig.setMonitorFdcFiles(monitorFdcFiles);
+		agentConfig.setFdcPath(fdcPath);
+		agentConfig.setFdcMaxFiles(fdcMaxFiles);
+		agentConfig.setReportDeadLetterQueue(reportDeadLetterQueue);
+		agentConfig.setDeadLetterQueue(deadLetterQueue);
+		agentConfig.setDeadLetterMaxMessages(deadLetterMaxMessages);
+		agentConfig.setLatencyProbeQueues(latencyProbeQueues);
+		agentConfig.setLatencyProbeInterval(latencyProbeInterval);
+		agentConfig.setLatencyProbeTimeout(latencyProbeTimeout);
+		agentConfig.setLatencyProbeMaxInFlight(latencyProbeMaxInFlight);
 		agentConfig.setReportTopicStatus(reportTopicStatus);
 		agentConfig.setReportAdditionalTopicStatus(reportAdditionalTopicStatus);
 
@@ -106,7 +227,7 @@ public class MQAgentFactory extends AgentFactory {
 		agentConfig.addToTopicIgnores(globalTopicIgnores);
 		agentConfig.addToTopicIncludes(globalTopicIncludes);
 
-		MQAgent agent = new MQAgent(agentConfig, dailyMaintenanceErrorScanTime);
+		MQAgent agent = new MQAgent(agentConfig);
 		return agent ;
 	}
 	
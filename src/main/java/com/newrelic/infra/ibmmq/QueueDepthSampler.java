@@ -0,0 +1,230 @@
+package com.newrelic.infra.ibmmq;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.mq.MQException;
+import com.ibm.mq.MQQueueManager;
+import com.ibm.mq.constants.CMQCFC;
+import com.ibm.mq.constants.MQConstants;
+import com.ibm.mq.headers.MQDataException;
+import com.ibm.mq.headers.pcf.PCFException;
+import com.ibm.mq.headers.pcf.PCFMessage;
+import com.ibm.mq.headers.pcf.PCFMessageAgent;
+import com.newrelic.infra.ibmmq.constants.EventConstants;
+import com.newrelic.infra.ibmmq.constants.QueueSampleConstants;
+import com.newrelic.infra.publish.api.metrics.AttributeMetric;
+import com.newrelic.infra.publish.api.metrics.GaugeMetric;
+import com.newrelic.infra.publish.api.metrics.Metric;
+
+/**
+ * Samples the depth and oldest message age of the queues named in sampleQueues every queueSampleInterval
+ * milliseconds, on its own connection and thread, into {@link DepthRingBuffers}. Each cycle the samples taken since
+ * the last one are rolled up into min, max, mean and 95th percentile depth, the highest oldest message age and the
+ * sample count, which are added to the queue's MQQueueSample. Names may be MQ generic names such as APP.*. The hot
+ * queues found by the {@link QueueMetricCollector} between its full sweeps are sampled the same way, so they are
+ * followed at the sample interval rather than the agent's.
+ */
+public class QueueDepthSampler implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(QueueDepthSampler.class);
+
+	private static final long RECONNECT_DELAY_MS = 30000;
+	private static final int MAX_QUEUES = 500;
+	private static final int RING_SIZE = 120;
+
+	private final AgentConfig agentConfig;
+
+	// Guards the buffers, and is notified to stop the sampler.
+	private final Object lock = new Object();
+	private final DepthRingBuffers buffers = new DepthRingBuffers(MAX_QUEUES, RING_SIZE);
+
+	// Set by the cycle thread, read by the sampler thread.
+	private volatile List<String> hotQueues = Collections.emptyList();
+
+	private volatile boolean running = false;
+	private Thread thread = null;
+
+	public QueueDepthSampler(AgentConfig agentConfig) {
+		this.agentConfig = agentConfig;
+	}
+
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "mq-depth-sampler-" + agentConfig.getServerQueueManagerName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop() {
+		if (thread == null) {
+			return;
+		}
+		running = false;
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+		try {
+			thread.join(agentConfig.getQueueSampleInterval() + 1000L);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+	}
+
+	/**
+	 * Has the given hot queues sampled as well, from the next round of samples on.
+	 */
+	public void setHotQueues(List<String> hotQueues) {
+		this.hotQueues = hotQueues;
+	}
+
+	/**
+	 * Adds the roll-up of the samples taken since the last call to the MQQueueSample of each sampled queue, then
+	 * empties the rings. Sampled queues not otherwise reported this cycle, such as ignored queues or queues the sweep
+	 * didn't reach, get an MQQueueSample of their own so their samples aren't lost.
+	 */
+	public void addRollups(Map<String, List<Metric>> metricMap) {
+		synchronized (lock) {
+			for (int slot = 0; slot < buffers.size(); slot++) {
+				if (buffers.sampleCount(slot) == 0) {
+					continue;
+				}
+				List<Metric> metricset = metricMap.get(buffers.name(slot));
+				if (metricset == null) {
+					metricset = new LinkedList<>();
+					metricset.add(new AttributeMetric(EventConstants.PROVIDER, EventConstants.IBM_PROVIDER));
+					metricset.add(new AttributeMetric(EventConstants.OBJECT_ATTRIBUTE, EventConstants.OBJ_ATTR_TYPE_QUEUE));
+					metricset.add(new AttributeMetric(EventConstants.Q_MANAGER_NAME, agentConfig.getServerQueueManagerName()));
+					metricset.add(new AttributeMetric(EventConstants.Q_MANAGER_HOST, agentConfig.getServerHost()));
+					metricset.add(new AttributeMetric(EventConstants.Q_NAME, buffers.name(slot)));
+					metricMap.put(buffers.name(slot), metricset);
+				}
+				metricset.add(new GaugeMetric(QueueSampleConstants.SAMPLE_COUNT, buffers.sampleCount(slot)));
+				metricset.add(new GaugeMetric(QueueSampleConstants.SAMPLED_DEPTH_MIN, buffers.min(slot)));
+				metricset.add(new GaugeMetric(QueueSampleConstants.SAMPLED_DEPTH_MAX, buffers.max(slot)));
+				metricset.add(new GaugeMetric(QueueSampleConstants.SAMPLED_DEPTH_MEAN, buffers.mean(slot)));
+				metricset.add(new GaugeMetric(QueueSampleConstants.SAMPLED_DEPTH_P95, buffers.percentile(slot, 95)));
+				if (buffers.maxOldestAge(slot) >= 0) {
+					metricset.add(new GaugeMetric(QueueSampleConstants.SAMPLED_OLDEST_MSG_AGE_MAX, buffers.maxOldestAge(slot)));
+				}
+			}
+			buffers.reset();
+			buffers.expire(System.currentTimeMillis());
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			MQQueueManager mgr = null;
+			PCFMessageAgent agent = null;
+			try {
+				mgr = MQAgent.connect(agentConfig);
+				agent = new PCFMessageAgent(mgr);
+				while (running) {
+					long start = System.currentTimeMillis();
+					for (String queueName : agentConfig.getSampleQueues()) {
+						sample(agent, queueName);
+					}
+					for (String queueName : hotQueues) {
+						if (!isSampled(queueName)) {
+							sample(agent, queueName);
+						}
+					}
+					long wait = agentConfig.getQueueSampleInterval() - (System.currentTimeMillis() - start);
+					if (wait > 0) {
+						synchronized (lock) {
+							lock.wait(wait);
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+				running = false;
+			} catch (MQException e) {
+				logger.error("Problem sampling queue depths for " + agentConfig.getServerQueueManagerName(), e);
+			} catch (Throwable t) {
+				logger.error("Problem sampling queue depths for " + agentConfig.getServerQueueManagerName(), t);
+			} finally {
+				if (agent != null) {
+					try {
+						agent.disconnect();
+					} catch (MQDataException e) {
+					}
+				}
+				if (mgr != null) {
+					try {
+						mgr.disconnect();
+					} catch (MQException e) {
+					}
+				}
+			}
+
+			if (running) {
+				synchronized (lock) {
+					try {
+						lock.wait(RECONNECT_DELAY_MS);
+					} catch (InterruptedException e) {
+						running = false;
+					}
+				}
+			}
+		}
+	}
+
+	// Whether the queue is already sampled as one of the sampleQueues.
+	private boolean isSampled(String queueName) {
+		for (String sampleQueue : agentConfig.getSampleQueues()) {
+			if (sampleQueue.endsWith("*") ? queueName.startsWith(sampleQueue.substring(0, sampleQueue.length() - 1))
+					: queueName.equals(sampleQueue)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void sample(PCFMessageAgent agent, String queueName) throws MQDataException, IOException {
+		PCFMessage inquireQueue = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q);
+		inquireQueue.addParameter(MQConstants.MQCA_Q_NAME, queueName);
+		inquireQueue.addParameter(MQConstants.MQIA_Q_TYPE, MQConstants.MQQT_LOCAL);
+		inquireQueue.addParameter(MQConstants.MQIACF_Q_ATTRS, new int[] { MQConstants.MQIA_CURRENT_Q_DEPTH });
+
+		PCFMessage inquireStatus = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q_STATUS);
+		inquireStatus.addParameter(MQConstants.MQCA_Q_NAME, queueName);
+		inquireStatus.addParameter(MQConstants.MQIACF_Q_STATUS_TYPE, MQConstants.MQIACF_Q_STATUS);
+		inquireStatus.addParameter(MQConstants.MQIACF_Q_STATUS_ATTRS, new int[] { MQConstants.MQIACF_OLDEST_MSG_AGE });
+
+		PCFMessage[] depths;
+		PCFMessage[] statuses;
+		try {
+			depths = agent.send(inquireQueue);
+			statuses = agent.send(inquireStatus);
+		} catch (PCFException e) {
+			logger.debug("Couldn't sample {}, reason {}", queueName, e.reasonCode);
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		synchronized (lock) {
+			for (PCFMessage response : depths) {
+				String name = response.getStringParameterValue(MQConstants.MQCA_Q_NAME).trim();
+				if (!buffers.recordDepth(name, response.getIntParameterValue(MQConstants.MQIA_CURRENT_Q_DEPTH), now)) {
+					logger.debug("Already sampling {} queues, {} is not sampled", MAX_QUEUES, name);
+				}
+			}
+			for (PCFMessage response : statuses) {
+				buffers.recordOldestAge(response.getStringParameterValue(MQConstants.MQCA_Q_NAME).trim(),
+						response.getIntParameterValue(MQConstants.MQIACF_OLDEST_MSG_AGE));
+			}
+		}
+	}
+}
@@ -28,7 +28,21 @@ import com.newrelic.infra.publish.api.metrics.Metric;
 public class QueueManagerMetricCollector {
 
 	private static final Logger logger = LoggerFactory.getLogger(QueueManagerMetricCollector.class);
+
+	// Limits only change when the queue manager is altered or restarted, so they are inquired at most once an hour.
+	private static final long LIMITS_REFRESH_MS = 3600000;
+
+	// Reasons a queue manager gives for a command or attribute it doesn't know, as opposed to a failure this time.
+	private static final int[] UNSUPPORTED_REASONS = { MQConstants.MQRCCF_CFIN_PARM_ID_ERROR,
+			MQConstants.MQRCCF_CFIL_PARM_ID_ERROR, MQConstants.MQRCCF_PARM_VALUE_ERROR,
+			MQConstants.MQRCCF_COMMAND_INHIBITED, MQConstants.MQRCCF_FUNCTION_RESTRICTED };
+
 	private AgentConfig agentConfig = null;
+
+	private Integer maxHandles = null;
+	private Integer maxChannels = null;
+	private long limitsInquiredAt = 0;
+	private boolean logStatusSupported = true;
 	
 	public QueueManagerMetricCollector(AgentConfig agentConfig) {
 		this.agentConfig  = agentConfig;
@@ -75,4 +89,119 @@ public class QueueManagerMetricCollector {
 		}
 	}
 
+	/**
+	 * Reports the recovery log usage and how close the channel count and the handles of the busiest connection are to
+	 * their limits, as an MQQueueManagerCapacitySample. channelCount is the number of channel instances found this
+	 * cycle and highestHandleCount the most handles held by one connection, each -1 when unknown.
+	 */
+	public void reportQueueManagerCapacity(PCFMessageAgent agent, MetricReporter metricReporter, int channelCount,
+			int highestHandleCount) {
+		List<Metric> metricset = new LinkedList<>();
+		metricset.add(new AttributeMetric("provider", "ibm"));
+		metricset.add(new AttributeMetric("qManagerName", agentConfig.getServerQueueManagerName()));
+		metricset.add(new AttributeMetric("qManagerHost", agentConfig.getServerHost()));
+		metricset.add(new AttributeMetric("object", "QueueManager"));
+
+		refreshLimits(agent);
+		if (maxHandles != null) {
+			metricset.add(new GaugeMetric("maxHandlesPerConnection", maxHandles));
+		}
+		if (highestHandleCount >= 0) {
+			metricset.add(new GaugeMetric("highestConnectionHandleCount", highestHandleCount));
+			if (maxHandles != null && maxHandles > 0) {
+				metricset.add(new GaugeMetric("handleSaturationPercent", highestHandleCount * 100.0 / maxHandles));
+			}
+		}
+		Integer channelLimit = agentConfig.getMaxChannels() > 0 ? Integer.valueOf(agentConfig.getMaxChannels()) : maxChannels;
+		if (channelCount >= 0) {
+			metricset.add(new GaugeMetric("channelCount", channelCount));
+			if (channelLimit != null && channelLimit > 0) {
+				metricset.add(new GaugeMetric("maxChannels", channelLimit));
+				metricset.add(new GaugeMetric("channelSaturationPercent", channelCount * 100.0 / channelLimit));
+			}
+		}
+
+		if (logStatusSupported) {
+			addLogStatus(agent, metricset);
+		}
+		metricReporter.report("MQQueueManagerCapacitySample", metricset);
+	}
+
+	private void refreshLimits(PCFMessageAgent agent) {
+		long now = System.currentTimeMillis();
+		if (now - limitsInquiredAt < LIMITS_REFRESH_MS) {
+			return;
+		}
+		limitsInquiredAt = now;
+		try {
+			PCFMessage req = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q_MGR);
+			req.addParameter(MQConstants.MQIACF_Q_MGR_ATTRS, new int[] { MQConstants.MQIACF_ALL });
+			PCFMessage[] responses = agent.send(req);
+			if (responses.length > 0) {
+				// MAXCHL is only an attribute on z/OS, elsewhere MaxChannels lives in qm.ini.
+				maxHandles = intValue(responses[0], MQConstants.MQIA_MAX_HANDLES);
+				maxChannels = intValue(responses[0], MQConstants.MQIA_MAX_CHANNELS);
+			}
+		} catch (PCFException e) {
+			logger.error("Error getting queue manager limits", e);
+		} catch (Throwable e) {
+			logger.error("Error getting queue manager limits", e);
+		}
+	}
+
+	private void addLogStatus(PCFMessageAgent agent, List<Metric> metricset) {
+		try {
+			PCFMessage req = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q_MGR_STATUS);
+			req.addParameter(MQConstants.MQIACF_STATUS_TYPE, MQConstants.MQIACF_Q_MGR_STATUS_LOG);
+			req.addParameter(MQConstants.MQIACF_Q_MGR_STATUS_ATTRS, new int[] { MQConstants.MQIACF_ALL });
+			PCFMessage[] responses = agent.send(req);
+			if (responses.length == 0) {
+				return;
+			}
+			PCFMessage res = responses[0];
+			addGauge(metricset, "logInUsePercent", res, MQConstants.MQIACF_LOG_IN_USE);
+			addGauge(metricset, "logUtilizationPercent", res, MQConstants.MQIACF_LOG_UTILIZATION);
+			addGauge(metricset, "reusableLogSizeMB", res, MQConstants.MQIACF_REUSABLE_LOG_SIZE);
+			addGauge(metricset, "archiveLogSizeMB", res, MQConstants.MQIACF_ARCHIVE_LOG_SIZE);
+			addGauge(metricset, "restartLogSizeMB", res, MQConstants.MQIACF_RESTART_LOG_SIZE);
+			addGauge(metricset, "mediaLogSizeMB", res, MQConstants.MQIACF_MEDIA_LOG_SIZE);
+			Object currentExtent = res.getParameterValue(MQConstants.MQCACF_CURRENT_LOG_EXTENT_NAME);
+			if (currentExtent != null) {
+				metricset.add(new AttributeMetric("currentLogExtent", currentExtent.toString().trim()));
+			}
+		} catch (PCFException e) {
+			if (isUnsupported(e.reasonCode)) {
+				// Queue managers before 9.0.2 don't have the log status type, there is no point asking them every cycle.
+				logStatusSupported = false;
+				logger.info("Recovery log status is not available from queue manager " + agentConfig.getServerQueueManagerName()
+						+ " (reason " + e.reasonCode + "), log usage won't be reported");
+			} else {
+				logger.error("Error getting recovery log status", e);
+			}
+		} catch (Throwable e) {
+			logger.error("Error getting recovery log status", e);
+		}
+	}
+
+	private static boolean isUnsupported(int reasonCode) {
+		for (int unsupported : UNSUPPORTED_REASONS) {
+			if (reasonCode == unsupported) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void addGauge(List<Metric> metricset, String name, PCFMessage res, int parameter) {
+		Integer value = intValue(res, parameter);
+		if (value != null && value >= 0) {
+			metricset.add(new GaugeMetric(name, value));
+		}
+	}
+
+	private static Integer intValue(PCFMessage res, int parameter) {
+		Object value = res.getParameterValue(parameter);
+		return value instanceof Integer ? (Integer) value : null;
+	}
+
 }
@@ -8,6 +8,8 @@
  */
 package com.newrelic.infra.ibmmq;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -20,6 +22,7 @@ import org.slf4j.LoggerFactory;
 
 import com.ibm.mq.constants.CMQCFC;
 import com.ibm.mq.constants.MQConstants;
+import com.ibm.mq.headers.pcf.PCFException;
 import com.ibm.mq.headers.pcf.PCFMessage;
 import com.ibm.mq.headers.pcf.PCFMessageAgent;
 import com.newrelic.infra.publish.api.MetricReporter;
@@ -30,20 +33,97 @@ import com.newrelic.infra.ibmmq.constants.QueueSampleConstants;
 
 public class QueueMetricCollector {
 	private static final Logger logger = LoggerFactory.getLogger(QueueMetricCollector.class);
+
+	// Handle status is inquired one queue at a time, so only this many queues are drilled into per cycle.
+	private static final int MAX_HANDLE_QUEUES = 20;
+
+	private static final List<String> ALL_QUEUES = Collections.singletonList("*");
+
 	private AgentConfig agentConfig = null;
 
+	// Queues that crossed a handle drill-down threshold this cycle, with the threshold they crossed.
+	private final Map<String, String> handleCandidates = new LinkedHashMap<>();
+
+	// Set when the wildcard sweep runs less often than every cycle.
+	private HotQueueSet hotQueues = null;
+
+	private DepthTrendEstimator depthTrend = null;
+
 	public QueueMetricCollector(AgentConfig config) {
 		this.agentConfig  = config;
+		if (config.getQueueSweepInterval() > 0) {
+			this.hotQueues = new HotQueueSet(config.getHotQueueMaxCount(), config.getQueueSweepInterval() * 1000L,
+					config.getHotQueueQuietTime() * 1000L);
+		}
+		if (config.reportDepthTrend()) {
+			this.depthTrend = new DepthTrendEstimator(1024);
+		}
+	}
+
+	/**
+	 * The queues to inquire this cycle: null when the wildcard sweep of all queues is due, otherwise the names of the
+	 * hot queues, which may be empty.
+	 */
+	public List<String> selectQueues() {
+		if (hotQueues == null) {
+			return null;
+		}
+		long now = System.currentTimeMillis();
+		if (hotQueues.isSweepDue(now)) {
+			hotQueues.beginSweep(now);
+			return null;
+		}
+		List<String> queueNames = hotQueues.hotQueues(now);
+		logger.debug("Inquiring {} hot queues between sweeps", queueNames.size());
+		return queueNames;
+	}
+
+    public void reportQueueStats(PCFMessageAgent agent, MetricReporter metricReporter, Map<String, List<Metric>> metricMap,
+			List<String> queueNames) {
+		handleCandidates.clear();
+		boolean completed = true;
+		for (String name : queueNames == null ? ALL_QUEUES : queueNames) {
+			completed &= reportQueueStats(agent, metricMap, name);
+		}
+		if (hotQueues != null && queueNames == null) {
+			hotQueues.endSweep(completed);
+		}
 	}
 
-    public void reportQueueStats(PCFMessageAgent agent, MetricReporter metricReporter, Map<String, List<Metric>> metricMap) {
+	public void addResetQueueStats(PCFMessageAgent agent, MetricReporter metricReporter, Map<String, List<Metric>> metricMap,
+			List<String> queueNames) {
+		for (String name : queueNames == null ? ALL_QUEUES : queueNames) {
+			addResetQueueStats(agent, metricMap, name);
+		}
+	}
+
+    public void addQueueStatusStats(PCFMessageAgent agent, MetricReporter metricReporter, Map<String, List<Metric>> metricMap,
+            List<String> queueNames) {
+        for (String name : queueNames == null ? ALL_QUEUES : queueNames) {
+            addQueueStatusStats(agent, metricMap, name);
+        }
+    }
+
+	/**
+	 * The hot queues, whose depth the {@link QueueDepthSampler} samples between cycles. Empty when the wildcard sweep
+	 * runs every cycle.
+	 */
+	public List<String> hotQueueNames() {
+		if (hotQueues == null) {
+			return Collections.emptyList();
+		}
+		return hotQueues.hotQueues(System.currentTimeMillis());
+	}
+
+	// Returns false when the inquiry failed.
+    private boolean reportQueueStats(PCFMessageAgent agent, Map<String, List<Metric>> metricMap, String name) {
 		try {
 			logger.debug("Getting Queue metrics for queueManager: " + agent.getQManagerName().trim());
 
 			// Prepare PCF command to inquire queue status (status type) 
 			PCFMessage inquireQueue = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q); 
 
-			inquireQueue.addParameter(MQConstants.MQCA_Q_NAME, "*");
+			inquireQueue.addParameter(MQConstants.MQCA_Q_NAME, name);
 			inquireQueue.addParameter(MQConstants.MQIA_Q_TYPE, MQConstants.MQQT_LOCAL);
 			inquireQueue.addParameter(MQConstants.MQIACF_Q_ATTRS,
 					new int[] { 
@@ -55,6 +135,7 @@ public class QueueMetricCollector {
 						});
 
 			PCFMessage[] responses = agent.send(inquireQueue);
+			long now = System.currentTimeMillis();
 
 			logger.debug("{} queues returned by this query", responses.length);
 			
@@ -85,7 +166,23 @@ public class QueueMetricCollector {
 						metricset.add(new GaugeMetric(QueueSampleConstants.OPEN_OUTPUT_COUNT, openOutputCount));
 
                         metricset.add(new GaugeMetric(QueueSampleConstants.Q_DEPTH_PERCENT, qDepthPercent));
+						if (depthTrend != null) {
+							double growthRate = depthTrend.observe(queueName, currentDepth, now);
+							if (!Double.isNaN(growthRate)) {
+								metricset.add(new GaugeMetric(QueueSampleConstants.DEPTH_GROWTH_RATE, growthRate));
+								long secondsToFull = DepthTrendEstimator.secondsToFull(currentDepth, maxDepth, growthRate);
+								if (secondsToFull >= 0) {
+									metricset.add(new GaugeMetric(QueueSampleConstants.PREDICTED_SECONDS_TO_FULL, secondsToFull));
+								}
+							}
+						}
 						metricMap.put(queueName, metricset);
+						if (hotQueues != null) {
+							hotQueues.observeDepth(queueName, currentDepth, now);
+						}
+						if (agentConfig.getQueueHandleDepthPercent() > 0 && qDepthPercent >= agentConfig.getQueueHandleDepthPercent()) {
+							addHandleCandidate(queueName, QueueSampleConstants.Q_DEPTH_PERCENT);
+						}
 						logger.debug("[queue_name: {}, queue_depth: {}]", queueName, currentDepth);
 					}
 				} else {
@@ -94,21 +191,26 @@ public class QueueMetricCollector {
 			}
 
 			logger.debug("{} queues skipped and {} queues reporting for this queue_manager", skipCount, reportingCount);
+			return true;
 
 		} catch (Throwable t) {
-			logger.error("Exception occurred", t);
+			if (!dropDeletedHotQueue(name, t)) {
+				logger.error("Exception occurred", t);
+			}
+			return false;
 		}
 	}
 
-	public void addResetQueueStats(PCFMessageAgent agent, MetricReporter metricReporter, Map<String, List<Metric>> metricMap) {
+	private void addResetQueueStats(PCFMessageAgent agent, Map<String, List<Metric>> metricMap, String name) {
 		try {
 
 			logger.debug("Getting ResetQueueStats metrics for queueManager: " + agentConfig.getServerQueueManagerName());
 
 			PCFMessage inquireQueueStatus = new PCFMessage(CMQCFC.MQCMD_RESET_Q_STATS);
-			inquireQueueStatus.addParameter(MQConstants.MQCA_Q_NAME, "*");
+			inquireQueueStatus.addParameter(MQConstants.MQCA_Q_NAME, name);
 
 			PCFMessage[] responses = agent.send(inquireQueueStatus);
+			long now = System.currentTimeMillis();
 			for (int j = 0; j < responses.length; j++) {
 				PCFMessage response = responses[j];
 				String qName = response.getStringParameterValue(MQConstants.MQCA_Q_NAME);
@@ -124,22 +226,27 @@ public class QueueMetricCollector {
 						metricset.add(new GaugeMetric(QueueSampleConstants.MSG_DEQ_COUNT, msgDeqCount));
 						metricset.add(new GaugeMetric(QueueSampleConstants.MSG_ENQ_COUNT, msgEnqCount));
 						metricset.add(new GaugeMetric(QueueSampleConstants.TIME_SINCE_RESET, timeSinceReset));	
+						if (hotQueues != null && (msgEnqCount > 0 || msgDeqCount > 0)) {
+							hotQueues.noteActivity(queueName, now);
+						}
 					}
 				}
 			}
 		} catch (Throwable t) {
-			logger.error("Exception occurred", t);
+			if (!dropDeletedHotQueue(name, t)) {
+				logger.error("Exception occurred", t);
+			}
 		}
 	}
 
-    public void addQueueStatusStats(PCFMessageAgent agent, MetricReporter metricReporter, Map<String, List<Metric>> metricMap) {
+    private void addQueueStatusStats(PCFMessageAgent agent, Map<String, List<Metric>> metricMap, String name) {
         try {
             logger.debug("Getting additional Queue Status metrics for queueManager: " + agent.getQManagerName());
 
             // Prepare PCF command to inquire queue status (status type)
             PCFMessage inquireQueueStatus = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q_STATUS);
 
-            inquireQueueStatus.addParameter(MQConstants.MQCA_Q_NAME, "*");
+            inquireQueueStatus.addParameter(MQConstants.MQCA_Q_NAME, name);
             inquireQueueStatus.addParameter(MQConstants.MQIACF_Q_STATUS_TYPE, MQConstants.MQIACF_Q_STATUS);
             inquireQueueStatus.addParameter(MQConstants.MQIACF_Q_STATUS_ATTRS,
                     new int[] {
@@ -171,13 +278,113 @@ public class QueueMetricCollector {
 
                     metricset.add(new AttributeMetric(QueueSampleConstants.LAST_GET_DATE_TIME, String.format("%s %s",lastGetDate ,lastGetTime).trim()));
                     metricset.add(new AttributeMetric(QueueSampleConstants.LAST_PUT_DATE_TIME, String.format("%s %s",lastPutDate ,lastPutTime).trim()));
+
+                    if (agentConfig.getQueueHandleOldestMsgAge() > 0 && oldestMsgAge >= agentConfig.getQueueHandleOldestMsgAge()) {
+                        addHandleCandidate(queueName, QueueSampleConstants.OLDEST_MSG_AGE);
+                    }
+                    if (agentConfig.getQueueHandleUncommittedMsgs() > 0 && uncommittedMsgs >= agentConfig.getQueueHandleUncommittedMsgs()) {
+                        addHandleCandidate(queueName, QueueSampleConstants.UNCOMITTED_MSGS);
+                    }
                 }
             }
         } catch (Throwable t) {
-            logger.error("Exception occurred " + "while getting additional Queue Status metrics for queueManager: " + agent.getQManagerName(), t);
+            if (!dropDeletedHotQueue(name, t)) {
+                logger.error("Exception occurred " + "while getting additional Queue Status metrics for queueManager: " + agent.getQManagerName(), t);
+            }
         }
     }
 
+	/**
+	 * Reports who has each queue open, as one MQQueueHandleSample per handle, for the queues found over a threshold
+	 * by {@link #reportQueueStats} and {@link #addQueueStatusStats} this cycle. The handle inquiry is expensive, so it
+	 * is never run across all queues.
+	 */
+	public void reportQueueHandles(PCFMessageAgent agent, MetricReporter metricReporter) {
+		int inquired = 0;
+		for (Map.Entry<String, String> candidate : handleCandidates.entrySet()) {
+			if (inquired++ >= MAX_HANDLE_QUEUES) {
+				logger.debug("{} queues over a handle threshold, only the first {} are inquired", handleCandidates.size(), MAX_HANDLE_QUEUES);
+				break;
+			}
+			String queueName = candidate.getKey();
+			try {
+				PCFMessage inquireQueueHandles = new PCFMessage(CMQCFC.MQCMD_INQUIRE_Q_STATUS);
+				inquireQueueHandles.addParameter(MQConstants.MQCA_Q_NAME, queueName);
+				inquireQueueHandles.addParameter(MQConstants.MQIACF_Q_STATUS_TYPE, MQConstants.MQIACF_Q_HANDLE);
+				inquireQueueHandles.addParameter(MQConstants.MQIACF_Q_STATUS_ATTRS, new int[] { MQConstants.MQIACF_ALL });
+
+				PCFMessage[] responses = agent.send(inquireQueueHandles);
+				for (PCFMessage response : responses) {
+					List<Metric> metricset = new LinkedList<Metric>();
+					addCommonAttribute(metricset, queueName);
+					metricset.add(new AttributeMetric("trigger", candidate.getValue()));
+					metricset.add(new AttributeMetric("applTag", stringValue(response, MQConstants.MQCACF_APPL_TAG)));
+					metricset.add(new AttributeMetric(EventConstants.USER_ID, stringValue(response, MQConstants.MQCACF_USER_IDENTIFIER)));
+					metricset.add(new AttributeMetric(EventConstants.CHANNEL_NAME, stringValue(response, MQConstants.MQCACH_CHANNEL_NAME)));
+					metricset.add(new AttributeMetric(EventConstants.CONNECTION_NAME, stringValue(response, MQConstants.MQCACH_CONNECTION_NAME)));
+					Object processId = response.getParameterValue(MQConstants.MQIACF_PROCESS_ID);
+					if (processId instanceof Integer) {
+						metricset.add(new AttributeMetric("processId", processId));
+					}
+					metricset.add(new AttributeMetric("openOptions", openOptions(response)));
+					Object handleState = response.getParameterValue(MQConstants.MQIACF_HANDLE_STATE);
+					if (handleState instanceof Integer) {
+						metricset.add(new AttributeMetric("handleState",
+								(Integer) handleState == MQConstants.MQHSTATE_ACTIVE ? "ACTIVE" : "INACTIVE"));
+					}
+					metricReporter.report("MQQueueHandleSample", metricset);
+				}
+			} catch (Throwable t) {
+				logger.error("Exception occurred while getting handle status for queue " + queueName, t);
+			}
+		}
+	}
+
+	// A hot queue that has been deleted since it was promoted is demoted rather than logged as an error every cycle.
+	private boolean dropDeletedHotQueue(String queueName, Throwable t) {
+		if (hotQueues != null && t instanceof PCFException
+				&& ((PCFException) t).reasonCode == MQConstants.MQRC_UNKNOWN_OBJECT_NAME && hotQueues.isHot(queueName)) {
+			logger.debug("Hot queue {} no longer exists", queueName);
+			hotQueues.remove(queueName);
+			return true;
+		}
+		return false;
+	}
+
+	private void addHandleCandidate(String queueName, String trigger) {
+		String triggers = handleCandidates.get(queueName);
+		handleCandidates.put(queueName, triggers == null ? trigger : triggers + "," + trigger);
+	}
+
+	// Builds e.g. "INPUT_SHARED,BROWSE,INQUIRE" from the open flags of a queue handle.
+	private static String openOptions(PCFMessage response) {
+		StringBuilder b = new StringBuilder();
+		Object input = response.getParameterValue(MQConstants.MQIACF_OPEN_INPUT_TYPE);
+		if (input instanceof Integer && (Integer) input != MQConstants.MQQSO_NO) {
+			b.append((Integer) input == MQConstants.MQQSO_EXCLUSIVE ? "INPUT_EXCLUSIVE" : "INPUT_SHARED");
+		}
+		appendIfYes(b, response, MQConstants.MQIACF_OPEN_BROWSE, "BROWSE");
+		appendIfYes(b, response, MQConstants.MQIACF_OPEN_OUTPUT, "OUTPUT");
+		appendIfYes(b, response, MQConstants.MQIACF_OPEN_INQUIRE, "INQUIRE");
+		appendIfYes(b, response, MQConstants.MQIACF_OPEN_SET, "SET");
+		return b.toString();
+	}
+
+	private static void appendIfYes(StringBuilder b, PCFMessage response, int parameter, String option) {
+		Object value = response.getParameterValue(parameter);
+		if (value instanceof Integer && (Integer) value == MQConstants.MQQSO_YES) {
+			if (b.length() > 0) {
+				b.append(',');
+			}
+			b.append(option);
+		}
+	}
+
+	private static String stringValue(PCFMessage response, int parameter) {
+		Object value = response.getParameterValue(parameter);
+		return value == null ? "" : value.toString().trim();
+	}
+
 	private boolean isQueueIgnored(String qName) {
 	    if (StringUtils.isBlank(qName)){
 	        return true;
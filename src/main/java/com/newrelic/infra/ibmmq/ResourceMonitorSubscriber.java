@@ -0,0 +1,363 @@
+package com.newrelic.infra.ibmmq;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.mq.MQException;
+import com.ibm.mq.MQGetMessageOptions;
+import com.ibm.mq.MQMessage;
+import com.ibm.mq.MQQueueManager;
+import com.ibm.mq.MQTopic;
+import com.ibm.mq.constants.MQConstants;
+import com.ibm.mq.headers.MQDataException;
+import com.ibm.mq.headers.pcf.MQCFGR;
+import com.ibm.mq.headers.pcf.PCFMessage;
+import com.ibm.mq.headers.pcf.PCFParameter;
+import com.newrelic.infra.ibmmq.constants.EventConstants;
+import com.newrelic.infra.publish.api.MetricReporter;
+import com.newrelic.infra.publish.api.metrics.AttributeMetric;
+import com.newrelic.infra.publish.api.metrics.GaugeMetric;
+import com.newrelic.infra.publish.api.metrics.Metric;
+
+/**
+ * Subscribes to the resource monitoring topics queue managers from 9.0.4 publish under
+ * $SYS/MQ/INFO/QMGR/&lt;qm&gt;/Monitor. The retained metadata publications are read first to discover the monitor
+ * classes, their types and the elements of each type; every queue manager wide type is then subscribed to with a
+ * managed non-durable subscription. Each type is reported as one MQResourceSample per cycle: delta elements are
+ * summed over the publications received in the cycle, the other elements report the last value published.
+ * Types published per object (the per-queue STATQ types) are not subscribed to, as that takes a subscription per
+ * queue.
+ *
+ * Subscriptions only live as long as their connection, so the subscriber keeps its own long-lived connection and
+ * thread rather than using the one opened for each cycle.
+ */
+public class ResourceMonitorSubscriber implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ResourceMonitorSubscriber.class);
+
+	private static final long RECONNECT_DELAY_MS = 30000;
+	private static final int METADATA_WAIT_MS = 5000;
+	private static final long POLL_DELAY_MS = 1000;
+
+	private static final int SUBSCRIBE_OPTIONS = MQConstants.MQSO_CREATE + MQConstants.MQSO_MANAGED
+			+ MQConstants.MQSO_NON_DURABLE + MQConstants.MQSO_FAIL_IF_QUIESCING;
+
+	static class Element {
+		final String name;
+		final int dataType;
+
+		Element(String name, int dataType) {
+			this.name = name;
+			this.dataType = dataType;
+		}
+	}
+
+	private static class MonitorType {
+		private final String className;
+		private final String typeName;
+		private final Map<Integer, Element> elements = new HashMap<>();
+		// Values published since the last report, or null when nothing has been.
+		private Map<String, Number> values = null;
+
+		MonitorType(String className, String typeName) {
+			this.className = className;
+			this.typeName = typeName;
+		}
+	}
+
+	private final AgentConfig agentConfig;
+
+	// Guards the latest values of every type.
+	private final Object lock = new Object();
+	private final List<MonitorType> types = new ArrayList<>();
+
+	private volatile boolean running = false;
+	private Thread thread = null;
+
+	public ResourceMonitorSubscriber(AgentConfig agentConfig) {
+		this.agentConfig = agentConfig;
+	}
+
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "mq-resource-monitor-" + agentConfig.getServerQueueManagerName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop() {
+		if (thread == null) {
+			return;
+		}
+		running = false;
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+		try {
+			thread.join(METADATA_WAIT_MS + POLL_DELAY_MS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+	}
+
+	/**
+	 * Reports the values published for each type since the last call.
+	 */
+	public void reportResourceStats(MetricReporter metricReporter) {
+		synchronized (lock) {
+			for (MonitorType type : types) {
+				if (type.values == null) {
+					continue;
+				}
+				List<Metric> metricset = new LinkedList<>();
+				metricset.add(new AttributeMetric(EventConstants.PROVIDER, EventConstants.IBM_PROVIDER));
+				metricset.add(new AttributeMetric(EventConstants.Q_MANAGER_NAME, agentConfig.getServerQueueManagerName()));
+				metricset.add(new AttributeMetric(EventConstants.Q_MANAGER_HOST, agentConfig.getServerHost()));
+				metricset.add(new AttributeMetric(EventConstants.OBJECT_ATTRIBUTE, "resource"));
+				metricset.add(new AttributeMetric("monitorClass", type.className));
+				metricset.add(new AttributeMetric("monitorType", type.typeName));
+				for (Map.Entry<String, Number> entry : type.values.entrySet()) {
+					metricset.add(new GaugeMetric(entry.getKey(), entry.getValue()));
+				}
+				metricReporter.report("MQResourceSample", metricset);
+				type.values = null;
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			MQQueueManager mgr = null;
+			List<MQTopic> topics = new ArrayList<>();
+			try {
+				mgr = MQAgent.connect(agentConfig);
+				List<MonitorType> subscribed = new ArrayList<>();
+				discover(mgr, topics, subscribed);
+				synchronized (lock) {
+					types.clear();
+					types.addAll(subscribed);
+				}
+				logger.debug("Subscribed to {} resource monitoring types", subscribed.size());
+				consume(topics, subscribed);
+			} catch (MQException e) {
+				logger.error("Problem reading resource monitoring topics for " + agentConfig.getServerQueueManagerName(), e);
+			} catch (Throwable t) {
+				logger.error("Problem reading resource monitoring topics for " + agentConfig.getServerQueueManagerName(), t);
+			} finally {
+				for (MQTopic topic : topics) {
+					try {
+						topic.close();
+					} catch (MQException e) {
+					}
+				}
+				if (mgr != null) {
+					try {
+						mgr.disconnect();
+					} catch (MQException e) {
+					}
+				}
+			}
+
+			if (running) {
+				synchronized (lock) {
+					try {
+						lock.wait(RECONNECT_DELAY_MS);
+					} catch (InterruptedException e) {
+						running = false;
+					}
+				}
+			}
+		}
+	}
+
+	// Walks the metadata from the class list down to the elements of each type and subscribes to each type's data.
+	private void discover(MQQueueManager mgr, List<MQTopic> topics, List<MonitorType> subscribed)
+			throws MQException, MQDataException, IOException {
+		String root = "$SYS/MQ/INFO/QMGR/" + agentConfig.getServerQueueManagerName() + "/Monitor/METADATA/CLASSES";
+		PCFMessage classes = readRetained(mgr, root);
+		if (classes == null) {
+			logger.info("No resource monitoring metadata published on {}", root);
+			return;
+		}
+		for (MQCFGR classGroup : groups(classes, MQConstants.MQGACF_MONITOR_CLASS)) {
+			String className = string(classGroup, MQConstants.MQCAMO_MONITOR_CLASS);
+			String typesTopic = string(classGroup, MQConstants.MQCA_TOPIC_STRING);
+			if (typesTopic == null || !wideFlags(classGroup)) {
+				continue;
+			}
+			PCFMessage typesMessage = readRetained(mgr, typesTopic);
+			if (typesMessage == null) {
+				continue;
+			}
+			for (MQCFGR typeGroup : groups(typesMessage, MQConstants.MQGACF_MONITOR_TYPE)) {
+				String elementsTopic = string(typeGroup, MQConstants.MQCA_TOPIC_STRING);
+				if (elementsTopic == null || !wideFlags(typeGroup)) {
+					continue;
+				}
+				PCFMessage elementsMessage = readRetained(mgr, elementsTopic);
+				if (elementsMessage == null) {
+					continue;
+				}
+				String dataTopic = string(elementsMessage, MQConstants.MQCA_TOPIC_STRING);
+				if (dataTopic == null || dataTopic.contains("%s")) {
+					continue;
+				}
+				MonitorType type = new MonitorType(className, string(typeGroup, MQConstants.MQCAMO_MONITOR_TYPE));
+				for (MQCFGR elementGroup : groups(elementsMessage, MQConstants.MQGACF_MONITOR_ELEMENT)) {
+					Object id = elementGroup.getParameterValue(MQConstants.MQIAMO_MONITOR_ELEMENT);
+					Object dataType = elementGroup.getParameterValue(MQConstants.MQIAMO_MONITOR_DATATYPE);
+					String description = string(elementGroup, MQConstants.MQCAMO_MONITOR_DESC);
+					if (id instanceof Integer && description != null) {
+						type.elements.put((Integer) id, new Element(attributeName(description),
+								dataType instanceof Integer ? (Integer) dataType : MQConstants.MQIAMO_MONITOR_UNIT));
+					}
+				}
+				topics.add(mgr.accessTopic(dataTopic, null, MQConstants.MQTOPIC_OPEN_AS_SUBSCRIPTION, SUBSCRIBE_OPTIONS));
+				subscribed.add(type);
+			}
+		}
+	}
+
+	private void consume(List<MQTopic> topics, List<MonitorType> subscribed) throws MQException, IOException, InterruptedException {
+		MQGetMessageOptions getOptions = new MQGetMessageOptions();
+		getOptions.options = MQConstants.MQGMO_NO_WAIT + MQConstants.MQGMO_FAIL_IF_QUIESCING + MQConstants.MQGMO_CONVERT;
+		getOptions.matchOptions = MQConstants.MQMO_NONE;
+
+		MQMessage message = new MQMessage();
+		while (running) {
+			for (int i = 0; i < topics.size(); i++) {
+				while (get(topics.get(i), message, getOptions)) {
+					try {
+						PCFMessage pcf = new PCFMessage(message);
+						MonitorType type = subscribed.get(i);
+						synchronized (lock) {
+							if (type.values == null) {
+								type.values = new LinkedHashMap<>();
+							}
+							decode(pcf, type.elements, type.values);
+						}
+					} catch (MQDataException e) {
+						logger.error("Skipping resource monitoring publication that couldn't be decoded", e);
+					}
+				}
+			}
+			synchronized (lock) {
+				lock.wait(POLL_DELAY_MS);
+			}
+		}
+	}
+
+	/**
+	 * Adds the elements of one publication to the values of its type. Delta elements count what happened since the
+	 * previous publication, so they are summed; every other element is a level and replaces the previous value.
+	 */
+	static void decode(PCFMessage pcf, Map<Integer, Element> elements, Map<String, Number> values) {
+		Enumeration<?> params = pcf.getParameters();
+		while (params.hasMoreElements()) {
+			Object next = params.nextElement();
+			if (!(next instanceof PCFParameter)) {
+				continue;
+			}
+			PCFParameter param = (PCFParameter) next;
+			Element element = elements.get(param.getParameter());
+			if (element == null || !(param.getValue() instanceof Number)) {
+				continue;
+			}
+			long raw = ((Number) param.getValue()).longValue();
+			if (element.dataType == MQConstants.MQIAMO_MONITOR_DELTA) {
+				Number previous = values.get(element.name);
+				values.put(element.name, previous == null ? raw : previous.longValue() + raw);
+			} else if (element.dataType == MQConstants.MQIAMO_MONITOR_HUNDREDTHS
+					|| element.dataType == MQConstants.MQIAMO_MONITOR_PERCENT) {
+				values.put(element.name, raw / 100.0);
+			} else {
+				values.put(element.name, raw);
+			}
+		}
+	}
+
+	private PCFMessage readRetained(MQQueueManager mgr, String topicString) throws MQException, MQDataException, IOException {
+		MQTopic topic = mgr.accessTopic(topicString, null, MQConstants.MQTOPIC_OPEN_AS_SUBSCRIPTION, SUBSCRIBE_OPTIONS);
+		try {
+			MQGetMessageOptions getOptions = new MQGetMessageOptions();
+			getOptions.options = MQConstants.MQGMO_WAIT + MQConstants.MQGMO_FAIL_IF_QUIESCING + MQConstants.MQGMO_CONVERT;
+			getOptions.matchOptions = MQConstants.MQMO_NONE;
+			getOptions.waitInterval = METADATA_WAIT_MS;
+			MQMessage message = new MQMessage();
+			return get(topic, message, getOptions) ? new PCFMessage(message) : null;
+		} finally {
+			topic.close();
+		}
+	}
+
+	private static boolean get(MQTopic topic, MQMessage message, MQGetMessageOptions getOptions) throws MQException, IOException {
+		try {
+			message.clearMessage();
+			topic.get(message, getOptions);
+			return true;
+		} catch (MQException e) {
+			if (e.reasonCode == MQConstants.MQRC_NO_MSG_AVAILABLE) {
+				return false;
+			}
+			throw e;
+		}
+	}
+
+	private static List<MQCFGR> groups(PCFMessage pcf, int groupParameter) {
+		List<MQCFGR> groups = new ArrayList<>();
+		Enumeration<?> params = pcf.getParameters();
+		while (params.hasMoreElements()) {
+			PCFParameter param = (PCFParameter) params.nextElement();
+			if (param instanceof MQCFGR && param.getParameter() == groupParameter) {
+				groups.add((MQCFGR) param);
+			}
+		}
+		return groups;
+	}
+
+	// Classes and types flagged as needing an object name are published per object.
+	private static boolean wideFlags(MQCFGR group) {
+		Object flags = group.getParameterValue(MQConstants.MQIAMO_MONITOR_FLAGS);
+		return !(flags instanceof Integer) || ((Integer) flags & MQConstants.MQIAMO_MONITOR_FLAGS_OBJNAME) == 0;
+	}
+
+	private static String string(MQCFGR group, int parameter) {
+		Object value = group.getParameterValue(parameter);
+		return value == null ? null : value.toString().trim();
+	}
+
+	private static String string(PCFMessage pcf, int parameter) {
+		Object value = pcf.getParameterValue(parameter);
+		return value == null ? null : value.toString().trim();
+	}
+
+	// "User CPU time percentage" becomes userCpuTimePercentage.
+	static String attributeName(String description) {
+		StringBuilder b = new StringBuilder();
+		for (String word : description.split("[^A-Za-z0-9]+")) {
+			if (word.isEmpty()) {
+				continue;
+			}
+			if (b.length() == 0) {
+				b.append(word.toLowerCase());
+			} else {
+				b.append(Character.toUpperCase(word.charAt(0))).append(word.substring(1).toLowerCase());
+			}
+		}
+		return b.toString();
+	}
+}
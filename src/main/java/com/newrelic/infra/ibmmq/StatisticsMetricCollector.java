@@ -0,0 +1,329 @@
+package com.newrelic.infra.ibmmq;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.time.FastDateFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.mq.MQException;
+import com.ibm.mq.MQGetMessageOptions;
+import com.ibm.mq.MQMessage;
+import com.ibm.mq.MQQueue;
+import com.ibm.mq.MQQueueManager;
+import com.ibm.mq.constants.MQConstants;
+import com.ibm.mq.headers.MQDataException;
+import com.ibm.mq.headers.pcf.MQCFGR;
+import com.ibm.mq.headers.pcf.PCFMessage;
+import com.ibm.mq.headers.pcf.PCFParameter;
+import com.newrelic.infra.ibmmq.constants.EventConstants;
+import com.newrelic.infra.ibmmq.constants.QueueSampleConstants;
+import com.newrelic.infra.publish.api.MetricReporter;
+import com.newrelic.infra.publish.api.metrics.AttributeMetric;
+import com.newrelic.infra.publish.api.metrics.GaugeMetric;
+import com.newrelic.infra.publish.api.metrics.Metric;
+
+/**
+ * Reads the queue (STATQ) and channel (STATCHL) statistics messages the queue manager writes to
+ * SYSTEM.ADMIN.STATISTICS.QUEUE every STATINT seconds. Queue statistics are merged into the MQQueueSample of the
+ * queue in place of the counters MQCMD_RESET_Q_STATS would return, without resetting anything on the queue manager.
+ * Channel statistics are reported as MQChannelStatisticsSample. Only the messages written since the last cycle are
+ * read, so a cycle without a statistics interval ending in it reports no statistics. Between queueSweepInterval
+ * sweeps only the hot queues are inquired, so the statistics of the other queues are held and merged until the next
+ * sweep reports them; those of queues no sweep reports either, as they are ignored, are dropped then. Messages are got
+ * under syncpoint and only committed by {@link #commit} once the cycle's samples have been reported, so an agent that
+ * fails in between leaves them on the queue for the next run.
+ */
+public class StatisticsMetricCollector {
+
+	private static final Logger logger = LoggerFactory.getLogger(StatisticsMetricCollector.class);
+
+	private static final String STATISTICS_QUEUE = "SYSTEM.ADMIN.STATISTICS.QUEUE";
+	private static final int MAX_MESSAGES_PER_CYCLE = 5000;
+
+	private static final FastDateFormat INTERVAL_FORMAT = FastDateFormat.getInstance("yyyy-MM-dd HH.mm.ss");
+
+	static class QueueStatistics {
+		long puts = 0;
+		long gets = 0;
+		long putBytes = 0;
+		long getBytes = 0;
+		long minDepth = Long.MAX_VALUE;
+		long maxDepth = 0;
+		long intervalSeconds = 0;
+
+		private void add(QueueStatistics other) {
+			puts += other.puts;
+			gets += other.gets;
+			putBytes += other.putBytes;
+			getBytes += other.getBytes;
+			minDepth = Math.min(minDepth, other.minDepth);
+			maxDepth = Math.max(maxDepth, other.maxDepth);
+			intervalSeconds += other.intervalSeconds;
+		}
+	}
+
+	static class ChannelStatistics {
+		String channelType;
+		String connectionName;
+		long messages = 0;
+		long bytes = 0;
+		long fullBatches = 0;
+		long incompleteBatches = 0;
+		long intervalSeconds = 0;
+	}
+
+	private AgentConfig agentConfig = null;
+
+	// Whether statistics messages have been got under the current unit of work.
+	private boolean uncommitted = false;
+
+	// Statistics of the queues not inquired since they were read, held until a cycle reports them.
+	private final Map<String, QueueStatistics> heldQueueStatistics = new HashMap<>();
+
+	public StatisticsMetricCollector(AgentConfig agentConfig) {
+		this.agentConfig = agentConfig;
+	}
+
+	/**
+	 * Reads the statistics messages written since the last cycle and adds the queue statistics to the queues' samples
+	 * in metricMap. On a sweep, when metricMap holds every queue reported, the statistics of the queues not in it are
+	 * dropped; otherwise they are held for the next cycle.
+	 */
+	public void addQueueStatistics(MQQueueManager mgr, MetricReporter metricReporter, Map<String, List<Metric>> metricMap,
+			boolean sweep) {
+		Map<String, QueueStatistics> queueStatistics = new HashMap<>();
+		Map<String, ChannelStatistics> channelStatistics = new HashMap<>();
+		MQQueue queue = null;
+
+		try {
+			queue = mgr.accessQueue(STATISTICS_QUEUE, MQConstants.MQOO_INPUT_SHARED + MQConstants.MQOO_FAIL_IF_QUIESCING,
+					null, null, null);
+
+			MQGetMessageOptions getOptions = new MQGetMessageOptions();
+			getOptions.options = MQConstants.MQGMO_NO_WAIT + MQConstants.MQGMO_SYNCPOINT
+					+ MQConstants.MQGMO_FAIL_IF_QUIESCING + MQConstants.MQGMO_CONVERT;
+			getOptions.matchOptions = MQConstants.MQMO_NONE;
+
+			MQMessage message = new MQMessage();
+			int count = 0;
+			while (count < MAX_MESSAGES_PER_CYCLE) {
+				try {
+					message.clearMessage();
+					queue.get(message, getOptions);
+				} catch (MQException e) {
+					if (e.reasonCode == MQConstants.MQRC_NO_MSG_AVAILABLE) {
+						break;
+					}
+					throw e;
+				}
+				count++;
+				uncommitted = true;
+				try {
+					PCFMessage pcf = new PCFMessage(message);
+					long intervalSeconds = intervalSeconds(pcf);
+					if (pcf.getCommand() == MQConstants.MQCMD_STATISTICS_Q) {
+						mergeQueueStatistics(pcf, intervalSeconds, queueStatistics);
+					} else if (pcf.getCommand() == MQConstants.MQCMD_STATISTICS_CHANNEL) {
+						mergeChannelStatistics(pcf, intervalSeconds, channelStatistics);
+					}
+				} catch (MQDataException e) {
+					logger.error("Skipping statistics message that couldn't be decoded", e);
+				}
+			}
+			logger.debug("{} statistics messages read for queueManager: {}", count, agentConfig.getServerQueueManagerName());
+		} catch (IOException | MQException e) {
+			logger.error("Problem getting statistics messages from " + STATISTICS_QUEUE + ".", e);
+			// The messages go back to the queue and are read again next cycle.
+			backout(mgr);
+			queueStatistics.clear();
+			channelStatistics.clear();
+		} finally {
+			if (queue != null) {
+				try {
+					queue.close();
+				} catch (MQException e) {
+					logger.error("Couldn't close queue " + STATISTICS_QUEUE);
+				}
+			}
+		}
+
+		for (Map.Entry<String, QueueStatistics> entry : queueStatistics.entrySet()) {
+			QueueStatistics held = heldQueueStatistics.get(entry.getKey());
+			if (held == null) {
+				heldQueueStatistics.put(entry.getKey(), entry.getValue());
+			} else {
+				held.add(entry.getValue());
+			}
+		}
+		Iterator<Map.Entry<String, QueueStatistics>> held = heldQueueStatistics.entrySet().iterator();
+		while (held.hasNext()) {
+			Map.Entry<String, QueueStatistics> entry = held.next();
+			List<Metric> metricset = metricMap.get(entry.getKey());
+			if (metricset != null || sweep) {
+				held.remove();
+			}
+			if (metricset != null) {
+				QueueStatistics stats = entry.getValue();
+				metricset.add(new GaugeMetric(QueueSampleConstants.HIGH_Q_DEPTH, stats.maxDepth));
+				metricset.add(new GaugeMetric(QueueSampleConstants.MIN_Q_DEPTH, stats.minDepth == Long.MAX_VALUE ? 0 : stats.minDepth));
+				metricset.add(new GaugeMetric(QueueSampleConstants.MSG_ENQ_COUNT, stats.puts));
+				metricset.add(new GaugeMetric(QueueSampleConstants.MSG_DEQ_COUNT, stats.gets));
+				metricset.add(new GaugeMetric(QueueSampleConstants.PUT_BYTES, stats.putBytes));
+				metricset.add(new GaugeMetric(QueueSampleConstants.GET_BYTES, stats.getBytes));
+				metricset.add(new GaugeMetric(QueueSampleConstants.TIME_SINCE_RESET, stats.intervalSeconds));
+			}
+		}
+
+		for (Map.Entry<String, ChannelStatistics> entry : channelStatistics.entrySet()) {
+			ChannelStatistics stats = entry.getValue();
+			List<Metric> metricset = new LinkedList<>();
+			metricset.add(new AttributeMetric(EventConstants.PROVIDER, EventConstants.IBM_PROVIDER));
+			metricset.add(new AttributeMetric(EventConstants.Q_MANAGER_NAME, agentConfig.getServerQueueManagerName()));
+			metricset.add(new AttributeMetric(EventConstants.Q_MANAGER_HOST, agentConfig.getServerHost()));
+			metricset.add(new AttributeMetric(EventConstants.OBJECT_ATTRIBUTE, "channel"));
+			metricset.add(new AttributeMetric(EventConstants.CHANNEL_NAME, entry.getKey()));
+			metricset.add(new AttributeMetric("channelType", stats.channelType));
+			metricset.add(new AttributeMetric(EventConstants.CONNECTION_NAME, stats.connectionName));
+			metricset.add(new GaugeMetric("messageCount", stats.messages));
+			metricset.add(new GaugeMetric("bytesCount", stats.bytes));
+			metricset.add(new GaugeMetric("fullBatches", stats.fullBatches));
+			metricset.add(new GaugeMetric("incompleteBatches", stats.incompleteBatches));
+			metricset.add(new GaugeMetric("intervalSeconds", stats.intervalSeconds));
+			metricReporter.report("MQChannelStatisticsSample", metricset, entry.getKey());
+		}
+	}
+
+	/**
+	 * Commits the gets of the statistics read this cycle, once their samples have been reported.
+	 */
+	public void commit(MQQueueManager mgr) {
+		if (!uncommitted) {
+			return;
+		}
+		try {
+			mgr.commit();
+		} catch (MQException e) {
+			logger.error("Couldn't commit the statistics messages read from " + STATISTICS_QUEUE, e);
+		}
+		uncommitted = false;
+	}
+
+	private void backout(MQQueueManager mgr) {
+		if (!uncommitted) {
+			return;
+		}
+		try {
+			mgr.backout();
+		} catch (MQException e) {
+			logger.error("Couldn't back out the statistics messages read from " + STATISTICS_QUEUE, e);
+		}
+		uncommitted = false;
+	}
+
+	static void mergeQueueStatistics(PCFMessage pcf, long intervalSeconds, Map<String, QueueStatistics> queueStatistics) {
+		Enumeration<?> params = pcf.getParameters();
+		while (params.hasMoreElements()) {
+			PCFParameter param = (PCFParameter) params.nextElement();
+			if (param.getParameter() != MQConstants.MQGACF_Q_STATISTICS_DATA) {
+				continue;
+			}
+			MQCFGR group = (MQCFGR) param;
+			Object qName = group.getParameterValue(MQConstants.MQCA_Q_NAME);
+			if (qName == null) {
+				continue;
+			}
+			String queueName = qName.toString().trim();
+			QueueStatistics stats = queueStatistics.get(queueName);
+			if (stats == null) {
+				stats = new QueueStatistics();
+				queueStatistics.put(queueName, stats);
+			}
+			stats.puts += sum(group.getParameterValue(MQConstants.MQIAMO_PUTS))
+					+ sum(group.getParameterValue(MQConstants.MQIAMO_PUT1S));
+			stats.gets += sum(group.getParameterValue(MQConstants.MQIAMO_GETS));
+			stats.putBytes += sum(group.getParameterValue(MQConstants.MQIAMO64_PUT_BYTES));
+			stats.getBytes += sum(group.getParameterValue(MQConstants.MQIAMO64_GET_BYTES));
+			stats.minDepth = Math.min(stats.minDepth, sum(group.getParameterValue(MQConstants.MQIAMO_Q_MIN_DEPTH)));
+			stats.maxDepth = Math.max(stats.maxDepth, sum(group.getParameterValue(MQConstants.MQIAMO_Q_MAX_DEPTH)));
+			stats.intervalSeconds += intervalSeconds;
+		}
+	}
+
+	static void mergeChannelStatistics(PCFMessage pcf, long intervalSeconds, Map<String, ChannelStatistics> channelStatistics) {
+		Enumeration<?> params = pcf.getParameters();
+		while (params.hasMoreElements()) {
+			PCFParameter param = (PCFParameter) params.nextElement();
+			if (param.getParameter() != MQConstants.MQGACF_CHL_STATISTICS_DATA) {
+				continue;
+			}
+			MQCFGR group = (MQCFGR) param;
+			Object name = group.getParameterValue(MQConstants.MQCACH_CHANNEL_NAME);
+			if (name == null) {
+				continue;
+			}
+			String channelName = name.toString().trim();
+			ChannelStatistics stats = channelStatistics.get(channelName);
+			if (stats == null) {
+				stats = new ChannelStatistics();
+				channelStatistics.put(channelName, stats);
+			}
+			Object channelType = group.getParameterValue(MQConstants.MQIACH_CHANNEL_TYPE);
+			if (channelType instanceof Integer) {
+				stats.channelType = MQAgent.friendlyCodeLookup((Integer) channelType, "MQCHT_.*");
+			}
+			Object connectionName = group.getParameterValue(MQConstants.MQCACH_CONNECTION_NAME);
+			if (connectionName != null) {
+				stats.connectionName = connectionName.toString().trim();
+			}
+			stats.messages += sum(group.getParameterValue(MQConstants.MQIAMO_MSGS));
+			stats.bytes += sum(group.getParameterValue(MQConstants.MQIAMO64_BYTES));
+			stats.fullBatches += sum(group.getParameterValue(MQConstants.MQIAMO_FULL_BATCHES));
+			stats.incompleteBatches += sum(group.getParameterValue(MQConstants.MQIAMO_INCOMPLETE_BATCHES));
+			stats.intervalSeconds += intervalSeconds;
+		}
+	}
+
+	// Length of the statistics interval a message covers, 0 when its start or end can't be read.
+	private static long intervalSeconds(PCFMessage pcf) {
+		Object startDate = pcf.getParameterValue(MQConstants.MQCAMO_START_DATE);
+		Object startTime = pcf.getParameterValue(MQConstants.MQCAMO_START_TIME);
+		Object endDate = pcf.getParameterValue(MQConstants.MQCAMO_END_DATE);
+		Object endTime = pcf.getParameterValue(MQConstants.MQCAMO_END_TIME);
+		if (startDate == null || startTime == null || endDate == null || endTime == null) {
+			return 0;
+		}
+		try {
+			long start = INTERVAL_FORMAT.parse(startDate.toString().trim() + " " + startTime.toString().trim()).getTime();
+			long end = INTERVAL_FORMAT.parse(endDate.toString().trim() + " " + endTime.toString().trim()).getTime();
+			return Math.max(0, (end - start) / 1000);
+		} catch (ParseException e) {
+			return 0;
+		}
+	}
+
+	// Counters split by persistence come as lists, everything else as a single value.
+	static long sum(Object value) {
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		long total = 0;
+		if (value instanceof int[]) {
+			for (int v : (int[]) value) {
+				total += v;
+			}
+		} else if (value instanceof long[]) {
+			for (long v : (long[]) value) {
+				total += v;
+			}
+		}
+		return total;
+	}
+}
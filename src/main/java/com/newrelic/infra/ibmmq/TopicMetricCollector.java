@@ -8,9 +8,12 @@
  */
 package com.newrelic.infra.ibmmq;
 
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringUtils;
@@ -29,13 +32,37 @@ import com.newrelic.infra.publish.api.metrics.Metric;
 
 public class TopicMetricCollector {
 	private static final Logger logger = LoggerFactory.getLogger(TopicMetricCollector.class);
+	private static final int MAX_CACHED_TOPIC_DECISIONS = 50000;
 	private AgentConfig agentConfig = null;
 
+	// Filter decisions per raw topic string, reused across cycles so the regex lists only run for new topics.
+	private final Map<String, Boolean> topicIgnoredCache = new HashMap<>();
+
 	public TopicMetricCollector(AgentConfig config) {
 		this.agentConfig  = config;
 	}
 
-    public void reportTopicStatus(PCFMessageAgent agent, MetricReporter metricReporter) {
+    /**
+     * Walks the topic tree once per cycle. The status pass drives both views: topic status samples are reported
+     * from it when reportTopicStatus is enabled, and the subscription inquiry is only issued for the topics it
+     * found with at least one subscriber when reportAdditionalTopicStatus is enabled.
+     */
+    public void reportTopics(PCFMessageAgent agent, MetricReporter metricReporter) {
+		List<String> subscribedTopics = reportTopicStatus(agent, metricReporter);
+		if (agentConfig.reportAdditionalTopicStatus()) {
+			for (String topicName : subscribedTopics) {
+				reportTopicStatusSub(agent, metricReporter, topicName);
+			}
+			logger.debug("{} topics with subscribers inquired for subscription status", subscribedTopics.size());
+		}
+	}
+
+    /**
+     * Reports the status of every topic that passes the include/ignore filters and returns the topic strings
+     * that currently have subscribers.
+     */
+    private List<String> reportTopicStatus(PCFMessageAgent agent, MetricReporter metricReporter) {
+		List<String> subscribedTopics = new ArrayList<String>();
 		try {
 			logger.debug("Getting Topic metrics for queueManager: " + agent.getQManagerName().trim());
 
@@ -58,29 +85,32 @@ public class TopicMetricCollector {
 			int reportingCount = 0;
 			for (int j = 0; j < responses.length; j++) {
 				PCFMessage response = responses[j];
-				Enumeration<PCFParameter> responseParams = response.getParameters();
 				String topicName = response.getStringParameterValue(MQConstants.MQCA_TOPIC_STRING);
 				
 				if (!isTopicIgnored(topicName)) {
 					reportingCount++;
-					if (topicName != null) {
-						topicName = topicName.trim();
-						List<Metric> metricset = new LinkedList<Metric>();
-						addCommonAttribute(metricset, topicName);
-						while (responseParams.hasMoreElements()) {
-							PCFParameter param = responseParams.nextElement();
-							//System.out.println("\t"+param.getParameterName() + " = " + param.getValue() + " // " + param.getValue().getClass().toString());
-							if (param.getParameter() == MQConstants.MQIA_DURABLE_SUB) {
-								int durable = response.getIntParameterValue(MQConstants.MQIA_DURABLE_SUB);
-								metricset.add(new GaugeMetric(EventConstants.DURABLE, durable));
-							} else if (param.getParameter() == MQConstants.MQIA_PUB_COUNT) {
-								int pubCount = response.getIntParameterValue(MQConstants.MQIA_PUB_COUNT);
-								metricset.add(new GaugeMetric(EventConstants.PUB_COUNT, pubCount));
-							} else if (param.getParameter() == MQConstants.MQIA_SUB_COUNT) {
-								int subCount = response.getIntParameterValue(MQConstants.MQIA_SUB_COUNT);
-								metricset.add(new GaugeMetric(EventConstants.SUB_COUNT, subCount));
-							}
+					topicName = topicName.trim();
+					int subCount = 0;
+					List<Metric> metricset = new LinkedList<Metric>();
+					addCommonAttribute(metricset, topicName);
+					Enumeration<PCFParameter> responseParams = response.getParameters();
+					while (responseParams.hasMoreElements()) {
+						PCFParameter param = responseParams.nextElement();
+						if (param.getParameter() == MQConstants.MQIA_DURABLE_SUB) {
+							int durable = response.getIntParameterValue(MQConstants.MQIA_DURABLE_SUB);
+							metricset.add(new GaugeMetric(EventConstants.DURABLE, durable));
+						} else if (param.getParameter() == MQConstants.MQIA_PUB_COUNT) {
+							int pubCount = response.getIntParameterValue(MQConstants.MQIA_PUB_COUNT);
+							metricset.add(new GaugeMetric(EventConstants.PUB_COUNT, pubCount));
+						} else if (param.getParameter() == MQConstants.MQIA_SUB_COUNT) {
+							subCount = response.getIntParameterValue(MQConstants.MQIA_SUB_COUNT);
+							metricset.add(new GaugeMetric(EventConstants.SUB_COUNT, subCount));
 						}
+					}
+					if (subCount > 0) {
+						subscribedTopics.add(topicName);
+					}
+					if (agentConfig.reportTopicStatus()) {
 						metricset.add(new AttributeMetric(EventConstants.STATUS_TYPE, "topicStatus"));
 						metricReporter.report("MQTopicSample", metricset, topicName);
 					}
@@ -94,17 +124,15 @@ public class TopicMetricCollector {
 		} catch (Throwable t) {
 			logger.error("Exception occurred", t);
 		}
+		return subscribedTopics;
 	}
     
-    public void reportTopicStatusSub(PCFMessageAgent agent, MetricReporter metricReporter) {
+    private void reportTopicStatusSub(PCFMessageAgent agent, MetricReporter metricReporter, String topicName) {
 		try {
-			logger.debug("Getting Topic Sub metrics for queueManager: " + agent.getQManagerName().trim());
-
-			// Prepare PCF command to inquire topic status
+			// Prepare PCF command to inquire the subscriptions of a single topic
 			PCFMessage inquireTopic = new PCFMessage(MQConstants.MQCMD_INQUIRE_TOPIC_STATUS); 
 
-			inquireTopic.addParameter(MQConstants.MQCA_TOPIC_STRING, "#");
-			// There are three possible values for this input param. Not sure which one(s) to use
+			inquireTopic.addParameter(MQConstants.MQCA_TOPIC_STRING, topicName);
 			inquireTopic.addParameter(MQConstants.MQIACF_TOPIC_STATUS_TYPE, MQConstants.MQIACF_TOPIC_SUB);
 			inquireTopic.addParameter(MQConstants.MQIACF_TOPIC_STATUS_ATTRS,
 					new int[] { 
@@ -113,61 +141,48 @@ public class TopicMetricCollector {
 
 			PCFMessage[] responses = agent.send(inquireTopic);
 
-			logger.debug("{} topic subs returned by this query", responses.length);
+			logger.debug("{} topic subs returned for topic {}", responses.length, topicName);
 			
-			int skipCount = 0;
-			int reportingCount = 0;
 			for (int j = 0; j < responses.length; j++) {
 				PCFMessage response = responses[j];
-				String topicName = response.getStringParameterValue(MQConstants.MQCA_TOPIC_STRING);
-				if (!isTopicIgnored(topicName)) {
-					reportingCount++;
-					if (topicName != null) {
-						topicName = topicName.trim();
-						List<Metric> metricset = new LinkedList<Metric>();
-						addCommonAttribute(metricset, topicName);
-						
-						int durablesub = response.getIntParameterValue(MQConstants.MQIACF_DURABLE_SUBSCRIPTION);
-						byte[] subId = response.getBytesParameterValue(MQConstants.MQBACF_SUB_ID);
-						String subUserId = response.getStringParameterValue(MQConstants.MQCACF_SUB_USER_ID);
-						int subType = response.getIntParameterValue(MQConstants.MQIACF_SUB_TYPE);
-						String resumeDate = response.getStringParameterValue(MQConstants.MQCA_RESUME_DATE);
-						String resumeTime = response.getStringParameterValue(MQConstants.MQCA_RESUME_TIME);
-						String lastMessageDate = response.getStringParameterValue(MQConstants.MQCACF_LAST_MSG_DATE);
-						String lastMessageTime = response.getStringParameterValue(MQConstants.MQCACF_LAST_MSG_TIME);
-						int messageCount = response.getIntParameterValue(MQConstants.MQIACF_MESSAGE_COUNT);
-						byte[] connectionId = response.getBytesParameterValue(MQConstants.MQBACF_CONNECTION_ID);
-						
-						
-						metricset.add(new GaugeMetric(EventConstants.DURABLE_SUBSCRIPTION, durablesub));
-						metricset.add(new AttributeMetric(EventConstants.SUB_ID, subId));
-						metricset.add(new AttributeMetric(EventConstants.SUB_USER_ID, subUserId));
-						if (subType == MQConstants.MQSUBTYPE_ADMIN) {
-							metricset.add(new AttributeMetric(EventConstants.SUB_TYPE, "ADMIN"));
-						} else if (subType == MQConstants.MQSUBTYPE_API) {
-							metricset.add(new AttributeMetric(EventConstants.SUB_TYPE, "API"));
-						} else if (subType == MQConstants.MQSUBTYPE_PROXY) {
-							metricset.add(new AttributeMetric(EventConstants.SUB_TYPE, "PROXY"));
-						} 
-						metricset.add(new AttributeMetric(EventConstants.ResumeDate, resumeDate));
-						metricset.add(new AttributeMetric(EventConstants.ResumeTime, resumeTime));
-						metricset.add(new AttributeMetric(EventConstants.LastMessageDate, lastMessageDate));
-						metricset.add(new AttributeMetric(EventConstants.LastMessageTime, lastMessageTime));
-						metricset.add(new AttributeMetric(EventConstants.ConnectionId, connectionId));
-						metricset.add(new GaugeMetric(EventConstants.MessageCount, messageCount));
-						
-						metricset.add(new AttributeMetric(EventConstants.STATUS_TYPE, "topicSub"));
-						metricReporter.report("MQTopicSample", metricset, topicName);
-					}
-				} else {
-					skipCount++;
-				}
+				List<Metric> metricset = new LinkedList<Metric>();
+				addCommonAttribute(metricset, topicName);
+				
+				int durablesub = response.getIntParameterValue(MQConstants.MQIACF_DURABLE_SUBSCRIPTION);
+				byte[] subId = response.getBytesParameterValue(MQConstants.MQBACF_SUB_ID);
+				String subUserId = response.getStringParameterValue(MQConstants.MQCACF_SUB_USER_ID);
+				int subType = response.getIntParameterValue(MQConstants.MQIACF_SUB_TYPE);
+				String resumeDate = response.getStringParameterValue(MQConstants.MQCA_RESUME_DATE);
+				String resumeTime = response.getStringParameterValue(MQConstants.MQCA_RESUME_TIME);
+				String lastMessageDate = response.getStringParameterValue(MQConstants.MQCACF_LAST_MSG_DATE);
+				String lastMessageTime = response.getStringParameterValue(MQConstants.MQCACF_LAST_MSG_TIME);
+				int messageCount = response.getIntParameterValue(MQConstants.MQIACF_MESSAGE_COUNT);
+				byte[] connectionId = response.getBytesParameterValue(MQConstants.MQBACF_CONNECTION_ID);
+				
+				
+				metricset.add(new GaugeMetric(EventConstants.DURABLE_SUBSCRIPTION, durablesub));
+				metricset.add(new AttributeMetric(EventConstants.SUB_ID, subId));
+				metricset.add(new AttributeMetric(EventConstants.SUB_USER_ID, subUserId));
+				if (subType == MQConstants.MQSUBTYPE_ADMIN) {
+					metricset.add(new AttributeMetric(EventConstants.SUB_TYPE, "ADMIN"));
+				} else if (subType == MQConstants.MQSUBTYPE_API) {
+					metricset.add(new AttributeMetric(EventConstants.SUB_TYPE, "API"));
+				} else if (subType == MQConstants.MQSUBTYPE_PROXY) {
+					metricset.add(new AttributeMetric(EventConstants.SUB_TYPE, "PROXY"));
+				} 
+				metricset.add(new AttributeMetric(EventConstants.ResumeDate, resumeDate));
+				metricset.add(new AttributeMetric(EventConstants.ResumeTime, resumeTime));
+				metricset.add(new AttributeMetric(EventConstants.LastMessageDate, lastMessageDate));
+				metricset.add(new AttributeMetric(EventConstants.LastMessageTime, lastMessageTime));
+				metricset.add(new AttributeMetric(EventConstants.ConnectionId, connectionId));
+				metricset.add(new GaugeMetric(EventConstants.MessageCount, messageCount));
+				
+				metricset.add(new AttributeMetric(EventConstants.STATUS_TYPE, "topicSub"));
+				metricReporter.report("MQTopicSample", metricset, topicName);
 			}
 
-			logger.debug("{} topic subs skipped and {} topics reporting for this queue_manager", skipCount, reportingCount);
-
 		} catch (Throwable t) {
-			logger.error("Exception occurred", t);
+			logger.error("Exception occurred while getting subscriptions for topic " + topicName, t);
 		}
 	}
     
@@ -176,6 +191,19 @@ public class TopicMetricCollector {
 	        return true;
         }
 
+		Boolean ignored = topicIgnoredCache.get(topicName);
+		if (ignored == null) {
+			if (topicIgnoredCache.size() >= MAX_CACHED_TOPIC_DECISIONS) {
+				topicIgnoredCache.clear();
+			}
+			ignored = matchesTopicFilters(topicName);
+			topicIgnoredCache.put(topicName, ignored);
+		}
+		return ignored;
+	}
+
+    private boolean matchesTopicFilters(String topicName) {
+
 		for (Pattern includePattern : agentConfig.topicIncludes) {
 			if (includePattern.matcher(topicName).matches()) {
 				return false;
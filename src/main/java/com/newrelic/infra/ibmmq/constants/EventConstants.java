@@ -37,4 +37,18 @@ public interface EventConstants {
 	String ConnectionId = "connectionId";
 	String STATUS_TYPE = "statusType";
 
+	// MQEventSample attributes decoded from known event types
+	String OBJECT_NAME = "objectName";
+	String OBJECT_TYPE = "objectType";
+	String CHANNEL_NAME = "channelName";
+	String CONNECTION_NAME = "connectionName";
+	String XMIT_Q_NAME = "xmitQName";
+	String USER_ID = "userId";
+	String APPL_NAME = "applName";
+	String COMMAND = "command";
+	String EVENT_HIGH_Q_DEPTH = "highQDepth";
+	String EVENT_MSG_ENQ_COUNT = "msgEnqCount";
+	String EVENT_MSG_DEQ_COUNT = "msgDeqCount";
+	String EVENT_TIME_SINCE_RESET = "timeSinceReset";
+
 }
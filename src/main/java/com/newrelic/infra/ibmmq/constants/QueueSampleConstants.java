@@ -19,6 +19,20 @@ public interface QueueSampleConstants {
     String MSG_ENQ_COUNT="msgEnqCount";
     String TIME_SINCE_RESET="timeSinceReset";
 
+    String MIN_Q_DEPTH="minQDepth";
+    String PUT_BYTES="putBytes";
+    String GET_BYTES="getBytes";
+
+    String SAMPLE_COUNT="sampleCount";
+    String SAMPLED_DEPTH_MIN="sampledDepthMin";
+    String SAMPLED_DEPTH_MAX="sampledDepthMax";
+    String SAMPLED_DEPTH_MEAN="sampledDepthMean";
+    String SAMPLED_DEPTH_P95="sampledDepthP95";
+    String SAMPLED_OLDEST_MSG_AGE_MAX="sampledOldestMsgAgeMax";
+
+    String DEPTH_GROWTH_RATE="depthGrowthRate";
+    String PREDICTED_SECONDS_TO_FULL="predictedSecondsToFull";
+
     String MQ_QUEUE_SAMPLE="MQQueueSample";
 
 }
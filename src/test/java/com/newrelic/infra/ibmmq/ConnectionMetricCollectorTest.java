@@ -0,0 +1,89 @@
+package com.newrelic.infra.ibmmq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.junit.Test;
+
+import com.ibm.mq.constants.MQConstants;
+import com.ibm.mq.headers.pcf.PCFMessage;
+
+public class ConnectionMetricCollectorTest {
+
+	@Test
+	public void groupsByApplicationUserAndChannel() {
+		Map<String, ConnectionMetricCollector.Group> groups = new HashMap<>();
+		PriorityQueue<ConnectionMetricCollector.Connection> top = top(0);
+
+		ConnectionMetricCollector.add(connection("orders", "app", "APP.SVRCONN", 3, MQConstants.MQUOWST_NONE), groups, top, 0);
+		ConnectionMetricCollector.add(connection("orders", "app", "APP.SVRCONN", 2, MQConstants.MQUOWST_ACTIVE), groups, top, 0);
+		ConnectionMetricCollector.add(connection("audit", "app", "APP.SVRCONN", 1, MQConstants.MQUOWST_NONE), groups, top, 0);
+
+		assertEquals(2, groups.size());
+		ConnectionMetricCollector.Group orders = groups.get("orders\tapp\tAPP.SVRCONN");
+		assertEquals(2, orders.connections);
+		assertEquals(5, orders.handles);
+		assertEquals(1, orders.openUnitsOfWork);
+		assertTrue("Nothing kept without a top count", top.isEmpty());
+	}
+
+	@Test
+	public void groupsBeyondTheMaximumShareTheOverflowGroup() {
+		Map<String, ConnectionMetricCollector.Group> groups = new HashMap<>();
+		PriorityQueue<ConnectionMetricCollector.Connection> top = top(0);
+
+		for (int i = 0; i < ConnectionMetricCollector.MAX_GROUPS + 10; i++) {
+			ConnectionMetricCollector.add(connection("app" + i, "app", "APP.SVRCONN", 1, MQConstants.MQUOWST_NONE),
+					groups, top, 0);
+		}
+
+		assertEquals(ConnectionMetricCollector.MAX_GROUPS + 1, groups.size());
+		ConnectionMetricCollector.Group overflow = groups.get(ConnectionMetricCollector.OVERFLOW_GROUP);
+		assertEquals(10, overflow.connections);
+		assertEquals(ConnectionMetricCollector.OVERFLOW_GROUP, overflow.applTag);
+	}
+
+	@Test
+	public void keepsTheConnectionsWithTheMostHandles() {
+		Map<String, ConnectionMetricCollector.Group> groups = new HashMap<>();
+		PriorityQueue<ConnectionMetricCollector.Connection> top = top(3);
+
+		int[] handles = { 5, 0, 9, 1, 7, 3 };
+		for (int i = 0; i < handles.length; i++) {
+			ConnectionMetricCollector.add(connection("app" + i, "app", "APP.SVRCONN", handles[i], MQConstants.MQUOWST_NONE),
+					groups, top, 3);
+		}
+
+		List<ConnectionMetricCollector.Connection> kept = new ArrayList<>(top);
+		Collections.sort(kept, Collections.reverseOrder(ConnectionMetricCollector.BY_HANDLES));
+		assertEquals(3, kept.size());
+		assertEquals(9, kept.get(0).handles);
+		assertEquals(7, kept.get(1).handles);
+		assertEquals(5, kept.get(2).handles);
+	}
+
+	private static PriorityQueue<ConnectionMetricCollector.Connection> top(int topCount) {
+		return new PriorityQueue<>(Math.max(topCount, 1), ConnectionMetricCollector.BY_HANDLES);
+	}
+
+	private static ConnectionMetricCollector.Connection connection(String applTag, String userId, String channelName,
+			int handles, int uowState) {
+		PCFMessage res = new PCFMessage(MQConstants.MQCMD_INQUIRE_CONNECTION);
+		res.addParameter(MQConstants.MQCACF_APPL_TAG, applTag);
+		res.addParameter(MQConstants.MQCACF_USER_IDENTIFIER, userId);
+		res.addParameter(MQConstants.MQCACH_CHANNEL_NAME, channelName);
+		res.addParameter(MQConstants.MQIACF_UOW_STATE, uowState);
+		res.addParameter(MQConstants.MQCACF_UOW_START_DATE, "2026-10-19");
+		res.addParameter(MQConstants.MQCACF_UOW_START_TIME, "10.00.00");
+		ConnectionMetricCollector.Connection connection = new ConnectionMetricCollector.Connection(res);
+		connection.handles = handles;
+		return connection;
+	}
+}
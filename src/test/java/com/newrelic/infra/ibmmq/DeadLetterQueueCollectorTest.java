@@ -0,0 +1,88 @@
+package com.newrelic.infra.ibmmq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.ibm.mq.MQMessage;
+import com.ibm.mq.constants.MQConstants;
+import com.ibm.mq.headers.MQDLH;
+
+public class DeadLetterQueueCollectorTest {
+
+	@Test
+	public void namesReasonAndFeedbackCodes() {
+		assertEquals("MQRC_Q_FULL", DeadLetterQueueCollector.reasonName(MQConstants.MQRC_Q_FULL));
+		assertEquals("MQFB_DATA_LENGTH_ZERO", DeadLetterQueueCollector.reasonName(MQConstants.MQFB_DATA_LENGTH_ZERO));
+		assertEquals("999999", DeadLetterQueueCollector.reasonName(999999));
+	}
+
+	@Test
+	public void readsTheDeadLetterHeader() throws Exception {
+		MQDLH dlh = new MQDLH();
+		dlh.setReason(MQConstants.MQRC_UNKNOWN_OBJECT_NAME);
+		dlh.setDestQName("APP.MISSING");
+		dlh.setDestQMgrName("QM2");
+		dlh.setPutApplName("runmqsc");
+		dlh.setPutDate("20260102");
+		dlh.setPutTime("03040512");
+		MQMessage message = new MQMessage();
+		message.format = MQConstants.MQFMT_DEAD_LETTER_HEADER;
+		dlh.write(message);
+
+		DeadLetterQueueCollector.DeadLetter deadLetter = DeadLetterQueueCollector.read(message);
+		assertEquals("MQRC_UNKNOWN_OBJECT_NAME", deadLetter.reason);
+		assertEquals("APP.MISSING", deadLetter.destQueue);
+		assertEquals("QM2", deadLetter.destQueueManager);
+		assertEquals("runmqsc", deadLetter.putApplName);
+		assertEquals(DeadLetterQueueCollector.dateTime("20260102", "03040500") + 120, deadLetter.time);
+	}
+
+	@Test
+	public void messageWithoutHeaderIsCountedAsSuch() {
+		MQMessage message = new MQMessage();
+		message.format = MQConstants.MQFMT_STRING;
+		DeadLetterQueueCollector.DeadLetter deadLetter = DeadLetterQueueCollector.read(message);
+		assertEquals(DeadLetterQueueCollector.NO_HEADER, deadLetter.reason);
+		assertNull(deadLetter.putApplName);
+	}
+
+	@Test
+	public void parsesHeaderDateTime() {
+		assertEquals(1767323045120L, DeadLetterQueueCollector.dateTime("20260102", "03040512"));
+		assertEquals(-1, DeadLetterQueueCollector.dateTime("2026", "0304"));
+		assertEquals(-1, DeadLetterQueueCollector.dateTime("20261399", "03040512"));
+	}
+
+	@Test
+	public void countsByReasonAndDestination() {
+		Map<String, DeadLetterQueueCollector.Group> groups = new LinkedHashMap<>();
+		DeadLetterQueueCollector.count(groups, deadLetter("MQRC_Q_FULL", "APP.IN", "app1"));
+		DeadLetterQueueCollector.count(groups, deadLetter("MQRC_Q_FULL", "APP.IN", "app2"));
+		DeadLetterQueueCollector.count(groups, deadLetter("MQRC_Q_FULL", "APP.OUT", null));
+
+		assertEquals(2, groups.size());
+		DeadLetterQueueCollector.Group first = groups.values().iterator().next();
+		assertEquals("APP.IN", first.destQueue);
+		assertEquals(2, first.count);
+		assertEquals("app2", first.putApplName);
+	}
+
+	@Test
+	public void groupsBeyondTheLimitShareTheOverflowGroup() {
+		Map<String, DeadLetterQueueCollector.Group> groups = new LinkedHashMap<>();
+		for (int i = 0; i < DeadLetterQueueCollector.MAX_GROUPS + 5; i++) {
+			DeadLetterQueueCollector.count(groups, deadLetter("MQRC_Q_FULL", "Q" + i, null));
+		}
+		assertEquals(DeadLetterQueueCollector.MAX_GROUPS + 1, groups.size());
+		assertEquals(5, groups.get(DeadLetterQueueCollector.OVERFLOW_GROUP).count);
+	}
+
+	private static DeadLetterQueueCollector.DeadLetter deadLetter(String reason, String destQueue, String putApplName) {
+		return new DeadLetterQueueCollector.DeadLetter(reason, destQueue, "QM1", putApplName, 0);
+	}
+}
@@ -0,0 +1,67 @@
+package com.newrelic.infra.ibmmq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DepthRingBuffersTest {
+
+	@Test
+	public void rollsUpSamples() {
+		DepthRingBuffers buffers = new DepthRingBuffers(4, 20);
+		for (int depth = 1; depth <= 20; depth++) {
+			buffers.recordDepth("Q1", depth, 0);
+		}
+		buffers.recordOldestAge("Q1", 30);
+		buffers.recordOldestAge("Q1", 12);
+
+		assertEquals(1, buffers.size());
+		assertEquals("Q1", buffers.name(0));
+		assertEquals(20, buffers.sampleCount(0));
+		assertEquals(1, buffers.min(0));
+		assertEquals(20, buffers.max(0));
+		assertEquals(10.5, buffers.mean(0), 0.001);
+		assertEquals(19, buffers.percentile(0, 95));
+		assertEquals(30, buffers.maxOldestAge(0));
+	}
+
+	@Test
+	public void overwritesOldestSamplesWhenFull() {
+		DepthRingBuffers buffers = new DepthRingBuffers(4, 3);
+		buffers.recordDepth("Q1", 100, 0);
+		buffers.recordDepth("Q1", 1, 0);
+		buffers.recordDepth("Q1", 2, 0);
+		buffers.recordDepth("Q1", 3, 0);
+		assertEquals(3, buffers.sampleCount(0));
+		assertEquals(3, buffers.max(0));
+	}
+
+	@Test
+	public void resetKeepsSlots() {
+		DepthRingBuffers buffers = new DepthRingBuffers(1, 3);
+		assertTrue(buffers.recordDepth("Q1", 5, 0));
+		assertFalse(buffers.recordDepth("Q2", 5, 0));
+		buffers.reset();
+		assertEquals(1, buffers.size());
+		assertEquals(0, buffers.sampleCount(0));
+		assertEquals(-1, buffers.maxOldestAge(0));
+		buffers.recordDepth("Q1", 7, 0);
+		assertEquals(7, buffers.min(0));
+	}
+
+	@Test
+	public void expiresSlotsNotRecorded() {
+		DepthRingBuffers buffers = new DepthRingBuffers(2, 3);
+		buffers.recordDepth("Q1", 1, 0);
+		buffers.recordDepth("Q2", 2, DepthRingBuffers.EXPIRY_MILLIS);
+		buffers.expire(DepthRingBuffers.EXPIRY_MILLIS);
+		assertEquals(1, buffers.size());
+		assertEquals("Q2", buffers.name(0));
+		assertEquals(2, buffers.max(0));
+		assertTrue(buffers.recordDepth("Q3", 3, DepthRingBuffers.EXPIRY_MILLIS));
+		assertEquals("Q3", buffers.name(1));
+		assertEquals(1, buffers.sampleCount(1));
+	}
+}
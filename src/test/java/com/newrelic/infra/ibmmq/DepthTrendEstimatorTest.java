@@ -0,0 +1,54 @@
+package com.newrelic.infra.ibmmq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DepthTrendEstimatorTest {
+
+	@Test
+	public void smoothsGrowthRate() {
+		DepthTrendEstimator estimator = new DepthTrendEstimator(4);
+		assertTrue(Double.isNaN(estimator.observe("Q1", 0, 0)));
+		assertEquals(10.0, estimator.observe("Q1", 100, 10000), 0.001);
+		// alpha = 1 - exp(-10000 / 60000), the new rate is 0
+		assertEquals(10.0 * Math.exp(-10000.0 / DepthTrendEstimator.TIME_CONSTANT_MILLIS),
+				estimator.observe("Q1", 100, 20000), 0.001);
+	}
+
+	@Test
+	public void weightsRatesByTheTimeTheyCover() {
+		DepthTrendEstimator often = new DepthTrendEstimator(4);
+		DepthTrendEstimator seldom = new DepthTrendEstimator(4);
+		often.observe("Q1", 0, 0);
+		seldom.observe("Q1", 0, 0);
+		often.observe("Q1", 600, 60000);
+		seldom.observe("Q1", 600, 60000);
+
+		// A minute at a steady depth, seen once or in twelve observations, moves the rate the same way.
+		double rate = 0;
+		for (int i = 1; i <= 12; i++) {
+			rate = often.observe("Q1", 600, 60000 + i * 5000);
+		}
+		assertEquals(seldom.observe("Q1", 600, 120000), rate, 0.001);
+		assertEquals(10.0 * Math.exp(-1), rate, 0.001);
+	}
+
+	@Test
+	public void predictsSecondsToFull() {
+		assertEquals(90, DepthTrendEstimator.secondsToFull(100, 1000, 10.0));
+		assertEquals(-1, DepthTrendEstimator.secondsToFull(100, 1000, -2.0));
+		assertEquals(-1, DepthTrendEstimator.secondsToFull(100, 1000, Double.NaN));
+	}
+
+	@Test
+	public void reusesSlotsOfExpiredQueues() {
+		DepthTrendEstimator estimator = new DepthTrendEstimator(16);
+		for (int i = 0; i < 16; i++) {
+			estimator.observe("AMQ.TEMP." + i, 0, 0);
+		}
+		estimator.observe("Q1", 0, DepthTrendEstimator.EXPIRY_MILLIS);
+		assertEquals(1, estimator.size());
+	}
+}
@@ -0,0 +1,68 @@
+package com.newrelic.infra.ibmmq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ErrorLogParserTest {
+
+	private static final String[] ENTRY = {
+			"-----------------------------------------------------------------------------",
+			"10/19/2026 10:00:00 AM - Process(1234.5) User(mqm) Program(amqrmppa)",
+			"                    Host(mqhost) Installation(Installation1)",
+			"                    VRMF(9.1.4.0) QMgr(QM1)",
+			"                    Time(2026-10-19T10:00:00.123Z)",
+			"",
+			"AMQ9526E: Message sequence number error for channel 'TO.QM2'.",
+			"",
+			"EXPLANATION:",
+			"The local and remote queue managers do not agree on the next message sequence",
+			"number.",
+			"ACTION:",
+			"Reset the channel.",
+			"----- amqrmrsa.c : 938 --------------------------------------------------------" };
+
+	@Test
+	public void assemblesTextEntries() {
+		AmqErrorLogParser parser = new AmqErrorLogParser();
+		ErrorLogEntry entry = null;
+		for (int i = 0; i < ENTRY.length; i++) {
+			assertNull(entry);
+			entry = parser.addLine(ENTRY[i]);
+			if (i > 0 && i < ENTRY.length - 1) {
+				assertTrue("Hold the entry until its last line", parser.isHolding());
+			}
+		}
+		assertFalse(parser.isHolding());
+		assertEquals("AMQ9526E", entry.getMessageId());
+		assertEquals("ERROR", entry.getSeverity());
+		assertEquals("2026-10-19T10:00:00.123Z", entry.getTime());
+		assertEquals("1234.5", entry.getProcess());
+		assertEquals("amqrmppa", entry.getProgram());
+		assertEquals("Message sequence number error for channel 'TO.QM2'.", entry.getMessage());
+		assertEquals("The local and remote queue managers do not agree on the next message sequence number.",
+				entry.getExplanation());
+		assertEquals("Reset the channel.", entry.getAction());
+	}
+
+	@Test
+	public void parsesJsonEntries() {
+		ErrorLogEntry entry = new JsonErrorLogParser().addLine("{\"ibm_messageId\":\"AMQ9209E\",\"ibm_sequence\":12,"
+				+ "\"ibm_arithInsert\":[1,2],\"ibm_datetime\":\"2026-10-19T10:00:00.123Z\","
+				+ "\"message\":\"AMQ9209E: Connection to host 'x' for channel 'C\\\"1' closed.\",\"loglevel\":\"ERROR\"}");
+		assertEquals("AMQ9209E", entry.getMessageId());
+		assertEquals("ERROR", entry.getSeverity());
+		assertEquals("2026-10-19T10:00:00.123Z", entry.getTime());
+		assertEquals("AMQ9209E: Connection to host 'x' for channel 'C\"1' closed.", entry.getMessage());
+	}
+
+	@Test
+	public void keepsTextOfInvalidJson() {
+		ErrorLogEntry entry = new JsonErrorLogParser().addLine("not json");
+		assertNull(entry.getMessageId());
+		assertEquals("not json", entry.getMessage());
+	}
+}
@@ -0,0 +1,139 @@
+package com.newrelic.infra.ibmmq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ibm.mq.constants.MQConstants;
+import com.newrelic.infra.publish.api.MetricReporter;
+import com.newrelic.infra.publish.api.metrics.GaugeMetric;
+import com.newrelic.infra.publish.api.metrics.Metric;
+
+public class EventAggregatorTest {
+
+	private static final String QUEUE = "SYSTEM.ADMIN.PERFM.EVENT";
+
+	private static class Reports implements MetricReporter {
+		private final List<List<Metric>> samples = new ArrayList<>();
+
+		@Override
+		public void report(String eventType, List<Metric> metricset) {
+			assertEquals("MQEventSample", eventType);
+			samples.add(metricset);
+		}
+
+		@Override
+		public void report(String eventType, List<Metric> metricset, String entity) {
+			report(eventType, metricset);
+		}
+	}
+
+	@Test
+	public void coalescesRepeatsUntilTheWindowCloses() {
+		EventAggregator aggregator = new EventAggregator(1000, 10);
+		Reports reports = new Reports();
+
+		aggregator.report(event(MQConstants.MQRC_Q_DEPTH_HIGH, "APP.Q", 0), reports, 0);
+		assertEquals(1, reports.samples.size());
+		assertFalse(aggregator.isHolding());
+
+		aggregator.report(event(MQConstants.MQRC_Q_DEPTH_HIGH, "APP.Q", 100), reports, 100);
+		EventAggregator.Event last = event(MQConstants.MQRC_Q_DEPTH_HIGH, "APP.Q", 200);
+		aggregator.report(last, reports, 200);
+		assertEquals(1, reports.samples.size());
+		assertTrue(aggregator.isHolding());
+
+		aggregator.flush(reports, 999);
+		assertEquals(1, reports.samples.size());
+
+		aggregator.flush(reports, 1000);
+		assertEquals(2, reports.samples.size());
+		assertSame(last.getMetricset(), reports.samples.get(1));
+		// coalescedCount, firstSeen and lastSeen
+		assertEquals(4, reports.samples.get(1).size());
+		assertFalse(aggregator.isHolding());
+		assertEquals(0, aggregator.size());
+	}
+
+	@Test
+	public void eventAfterTheWindowOpensANewOne() {
+		EventAggregator aggregator = new EventAggregator(1000, 10);
+		Reports reports = new Reports();
+
+		aggregator.report(event(MQConstants.MQRC_Q_DEPTH_HIGH, "APP.Q", 0), reports, 0);
+		aggregator.report(event(MQConstants.MQRC_Q_DEPTH_HIGH, "APP.Q", 500), reports, 500);
+		aggregator.report(event(MQConstants.MQRC_Q_DEPTH_HIGH, "APP.Q", 1500), reports, 1500);
+
+		// The first event, the coalesced second one, then the third straight away.
+		assertEquals(3, reports.samples.size());
+		assertEquals(4, reports.samples.get(1).size());
+		assertEquals(1, reports.samples.get(2).size());
+		assertFalse(aggregator.isHolding());
+	}
+
+	@Test
+	public void overflowKeysStayWithinMaxKeys() {
+		EventAggregator aggregator = new EventAggregator(1000, 2);
+		Reports reports = new Reports();
+
+		aggregator.report(event(MQConstants.MQRC_Q_DEPTH_HIGH, "A", 0), reports, 0);
+		aggregator.report(event(MQConstants.MQRC_Q_DEPTH_HIGH, "B", 0), reports, 0);
+		aggregator.report(event(MQConstants.MQRC_Q_DEPTH_HIGH, "C", 0), reports, 0);
+		assertEquals(3, reports.samples.size());
+		assertEquals(2, aggregator.size());
+
+		// D shares the overflow window opened by C.
+		aggregator.report(event(MQConstants.MQRC_Q_DEPTH_HIGH, "D", 0), reports, 0);
+		assertEquals(3, reports.samples.size());
+		assertTrue(aggregator.isHolding());
+
+		// Another reason needs its own overflow key, so the oldest window gives way.
+		for (String name : new String[] { "E", "F", "G" }) {
+			aggregator.report(event(MQConstants.MQRC_Q_FULL, name, 0), reports, 0);
+			assertEquals(2, aggregator.size());
+		}
+	}
+
+	@Test
+	public void reportsEveryEventWithoutAWindow() {
+		EventAggregator aggregator = new EventAggregator(0, 10);
+		Reports reports = new Reports();
+
+		aggregator.report(event(MQConstants.MQRC_Q_DEPTH_HIGH, "APP.Q", 0), reports, 0);
+		aggregator.report(event(MQConstants.MQRC_Q_DEPTH_HIGH, "APP.Q", 0), reports, 0);
+		assertEquals(2, reports.samples.size());
+		assertFalse(aggregator.isHolding());
+	}
+
+	@Test
+	public void overflowCountsPerQueueAndReason() {
+		EventAggregator.Overflow overflow = new EventAggregator.Overflow();
+		Reports reports = new Reports();
+
+		overflow.add(event(MQConstants.MQRC_Q_DEPTH_HIGH, "A", 100));
+		overflow.add(event(MQConstants.MQRC_Q_DEPTH_HIGH, "B", 200));
+		EventAggregator.Event last = event(MQConstants.MQRC_Q_FULL, "A", 300);
+		overflow.add(last);
+		assertEquals(3, overflow.count());
+
+		overflow.report(reports);
+		assertEquals(2, reports.samples.size());
+		assertSame(last.getMetricset(), reports.samples.get(1));
+		// coalescedCount, firstSeen and lastSeen
+		assertEquals(4, reports.samples.get(0).size());
+		assertEquals(0, overflow.count());
+	}
+
+	private static EventAggregator.Event event(int reason, String objectName, long putTime) {
+		List<Metric> metricset = new LinkedList<>();
+		metricset.add(new GaugeMetric("reasonCode", reason));
+		return new EventAggregator.Event(QUEUE, reason, objectName, putTime, metricset);
+	}
+}
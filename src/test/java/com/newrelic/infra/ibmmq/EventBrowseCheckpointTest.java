@@ -0,0 +1,51 @@
+package com.newrelic.infra.ibmmq;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class EventBrowseCheckpointTest {
+
+	private String statePath = "EventBrowseCheckpointTestState.txt";
+
+	@After
+	public void tearDown() throws IOException {
+		File f = new File(statePath);
+		if(f.exists()) {
+			if(!f.delete()) {
+				throw new IOException("Couldn't delete file " + statePath);
+			}
+		}
+	}
+
+	@Test
+	public void testSaveAndLoad() throws Exception {
+		EventBrowseCheckpoint checkpoint = new EventBrowseCheckpoint(statePath);
+		assertNull("No position before anything was browsed", checkpoint.get("SYSTEM.ADMIN.QMGR.EVENT"));
+
+		byte[] messageId = new byte[] { 1, 2, 3, 4 };
+		checkpoint.update("SYSTEM.ADMIN.QMGR.EVENT", messageId, 1234L);
+		checkpoint.save();
+
+		EventBrowseCheckpoint restored = new EventBrowseCheckpoint(statePath);
+		EventBrowseCheckpoint.Position position = restored.get("SYSTEM.ADMIN.QMGR.EVENT");
+		assertNotNull("Position survives a restart", position);
+		assertArrayEquals(messageId, position.getMessageId());
+		assertEquals(1234L, position.getPutTime());
+		assertNull(restored.get("SYSTEM.ADMIN.CHANNEL.EVENT"));
+	}
+
+	@Test
+	public void testOrdersByPutTimeThenMessageId() {
+		EventBrowseCheckpoint.Position position = new EventBrowseCheckpoint.Position(new byte[] { 1, 5 }, 1000L);
+		assertTrue("Later put time", position.isBefore(1010L, new byte[] { 1, 0 }));
+		assertFalse("Earlier put time", position.isBefore(990L, new byte[] { 1, 9 }));
+		assertTrue("Same tick, higher message id", position.isBefore(1000L, new byte[] { 1, (byte) 0x80 }));
+		assertFalse("Same tick, lower message id", position.isBefore(1000L, new byte[] { 1, 4 }));
+		assertFalse("The position itself", position.isBefore(1000L, new byte[] { 1, 5 }));
+	}
+}
@@ -0,0 +1,89 @@
+package com.newrelic.infra.ibmmq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ibm.mq.MQMessage;
+import com.ibm.mq.constants.MQConstants;
+import com.ibm.mq.headers.pcf.MQCFH;
+import com.ibm.mq.headers.pcf.PCFMessage;
+import com.newrelic.infra.publish.api.metrics.Metric;
+
+public class EventDecoderTest {
+
+	@Test
+	public void decodesQueueDepthHigh() throws Exception {
+		PCFMessage pcf = event(MQConstants.MQCMD_PERFM_EVENT, MQConstants.MQRC_Q_DEPTH_HIGH);
+		pcf.addParameter(MQConstants.MQCA_Q_MGR_NAME, "QM1");
+		pcf.addParameter(MQConstants.MQCA_BASE_OBJECT_NAME, "APP.ORDERS");
+		pcf.addParameter(MQConstants.MQIA_TIME_SINCE_RESET, 60);
+		pcf.addParameter(MQConstants.MQIA_HIGH_Q_DEPTH, 800);
+		pcf.addParameter(MQConstants.MQIA_MSG_ENQ_COUNT, 900);
+		pcf.addParameter(MQConstants.MQIA_MSG_DEQ_COUNT, 100);
+		pcf = roundTrip(pcf);
+
+		List<Metric> metricset = new LinkedList<>();
+		assertTrue(EventDecoder.decode(pcf, metricset));
+		// objectName, the depth and the three counters
+		assertEquals(5, metricset.size());
+		assertEquals("APP.ORDERS", EventDecoder.objectName(pcf));
+	}
+
+	@Test
+	public void decodesChannelStopped() throws Exception {
+		PCFMessage pcf = event(MQConstants.MQCMD_CHANNEL_EVENT, MQConstants.MQRC_CHANNEL_STOPPED);
+		pcf.addParameter(MQConstants.MQCA_Q_MGR_NAME, "QM1");
+		pcf.addParameter(MQConstants.MQIACF_REASON_QUALIFIER, MQConstants.MQRQ_CHANNEL_STOPPED_ERROR);
+		pcf.addParameter(MQConstants.MQCACH_CHANNEL_NAME, "TO.QM2");
+		pcf.addParameter(MQConstants.MQIACF_ERROR_IDENTIFIER, 10);
+		pcf.addParameter(MQConstants.MQCACH_XMIT_Q_NAME, "QM2");
+		pcf.addParameter(MQConstants.MQCACH_CONNECTION_NAME, "10.0.0.2(1414)");
+		pcf = roundTrip(pcf);
+
+		List<Metric> metricset = new LinkedList<>();
+		assertTrue(EventDecoder.decode(pcf, metricset));
+		// channelName, connectionName and xmitQName
+		assertEquals(3, metricset.size());
+		assertEquals("TO.QM2", EventDecoder.objectName(pcf));
+	}
+
+	@Test
+	public void leavesEventsWithoutDecoderAlone() throws Exception {
+		PCFMessage pcf = event(MQConstants.MQCMD_Q_MGR_EVENT, MQConstants.MQRC_UNKNOWN_ALIAS_BASE_Q);
+		pcf.addParameter(MQConstants.MQCA_Q_MGR_NAME, "QM1");
+		pcf = roundTrip(pcf);
+
+		List<Metric> metricset = new LinkedList<>();
+		assertFalse(EventDecoder.decode(pcf, metricset));
+		assertTrue(metricset.isEmpty());
+		assertNull(EventDecoder.objectName(pcf));
+	}
+
+	private static PCFMessage event(int command, int reason) {
+		PCFMessage pcf = new PCFMessage(MQConstants.MQCFT_EVENT, command, 1, true);
+		MQCFH header = new MQCFH();
+		header.setType(MQConstants.MQCFT_EVENT);
+		header.setCommand(command);
+		header.setControl(MQConstants.MQCFC_LAST);
+		header.setReason(reason);
+		header.setCompCode(MQConstants.MQCC_WARNING);
+		pcf.setHeader(header);
+		return pcf;
+	}
+
+	// Reads the event back the way it arrives on an event queue.
+	private static PCFMessage roundTrip(PCFMessage pcf) throws Exception {
+		MQMessage message = new MQMessage();
+		message.format = MQConstants.MQFMT_EVENT;
+		pcf.write(message);
+		message.seek(0);
+		return new PCFMessage(message);
+	}
+}
@@ -0,0 +1,66 @@
+package com.newrelic.infra.ibmmq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class FdcHeaderParserTest {
+
+	private String fdcPath = "AMQ12345.0.FDC";
+	private String statePath = "FdcHeaderParserTest.state";
+
+	@After
+	public void tearDown() {
+		new File(fdcPath).delete();
+		new File(statePath).delete();
+	}
+
+	@Test
+	public void readsOnlyHeaders() throws Exception {
+		LogReader reader = new LogReader(fdcPath, new LogCheckpointStore(statePath));
+		LogPatternMatcher matcher = new LogPatternMatcher(Collections.singletonList(FdcHeaderParser.HEADER_TITLE));
+		appendReport("XC130031", "xehExceptionHandler");
+		appendReport("ZX005025", "zxcProcessChildren");
+
+		List<LogReader.Match> matches = reader.findEntries(new FdcHeaderParser(), matcher, 10);
+		assertEquals(2, matches.size());
+		Map<String, String> fields = FdcHeaderParser.fields(matches.get(0).getEntry().getText());
+		assertEquals("XC130031", fields.get("Probe Id"));
+		assertEquals("xehExceptionHandler", fields.get("Component"));
+		assertEquals("STOP_ALL_SIGNALS", fields.get("Major Errorcode"));
+		assertEquals("QM1", fields.get("QueueManager"));
+		assertEquals("ZX005025", matches.get(1).getEntry().getMessageId());
+
+		assertTrue("Don't read the stacks again", reader.findEntries(new FdcHeaderParser(), matcher, 10).isEmpty());
+	}
+
+	private void appendReport(String probeId, String component) throws IOException {
+		try (Writer out = new FileWriter(fdcPath, true)) {
+			out.write("+-----------------------------------------------------------------------------+\n");
+			out.write("|                                                                             |\n");
+			out.write("| IBM MQ First Failure Symptom Report                                         |\n");
+			out.write("| ===================================                                         |\n");
+			out.write("| Date/Time         :- Mon October 19 2026 10:00:00 UTC                       |\n");
+			out.write("| Probe Id          :- " + probeId + "                                               |\n");
+			out.write("| Component         :- " + component + "                                    |\n");
+			out.write("| Process           :- 12345                                                  |\n");
+			out.write("| QueueManager      :- QM1                                                    |\n");
+			out.write("| Major Errorcode   :- STOP_ALL_SIGNALS                                       |\n");
+			out.write("+-----------------------------------------------------------------------------+\n");
+			out.write("\n");
+			out.write("MQM Function Stack\n");
+			out.write("xehExceptionHandler\n");
+			out.write("\n");
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package com.newrelic.infra.ibmmq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class HotQueueSetTest {
+
+	@Test
+	public void promotesQueuesWhoseDepthMoves() {
+		HotQueueSet set = new HotQueueSet(10, 60000, 600000);
+		set.beginSweep(1000);
+		set.observeDepth("Q1", 0, 1000);
+		set.observeDepth("Q2", 5, 1000);
+		set.endSweep(true);
+		assertTrue(set.hotQueues(2000).isEmpty());
+
+		set.beginSweep(61000);
+		set.observeDepth("Q1", 0, 61000);
+		set.observeDepth("Q2", 7, 61000);
+		set.endSweep(true);
+		assertEquals(Collections.singletonList("Q2"), set.hotQueues(62000));
+	}
+
+	@Test
+	public void demotesQuietQueues() {
+		HotQueueSet set = new HotQueueSet(10, 60000, 5000);
+		set.noteActivity("Q1", 1000);
+		set.noteActivity("Q2", 4000);
+		assertEquals(Collections.singletonList("Q2"), set.hotQueues(7000));
+		assertFalse(set.isHot("Q1"));
+	}
+
+	@Test
+	public void evictsLeastRecentlyActiveQueue() {
+		HotQueueSet set = new HotQueueSet(2, 60000, 600000);
+		set.noteActivity("Q1", 1000);
+		set.noteActivity("Q2", 2000);
+		set.noteActivity("Q1", 3000);
+		set.noteActivity("Q3", 4000);
+		assertEquals(Arrays.asList("Q1", "Q3"), set.hotQueues(5000));
+	}
+
+	@Test
+	public void sweepIsDueOnFirstCycleAndAfterInterval() {
+		HotQueueSet set = new HotQueueSet(10, 60000, 600000);
+		assertTrue(set.isSweepDue(1000));
+		set.beginSweep(1000);
+		set.endSweep(true);
+		assertFalse(set.isSweepDue(30000));
+		assertTrue(set.isSweepDue(61000));
+	}
+}
@@ -0,0 +1,61 @@
+package com.newrelic.infra.ibmmq;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTableTest {
+
+	@Test
+	public void testRecord() {
+		LatencyHistogramTable<String> table = new LatencyHistogramTable<>(10, LatencyHistogramTable.OVERFLOW_KEY);
+		for (int i = 0; i < 99; i++) {
+			table.record("app", 40, false);
+		}
+		table.record("app", 2000, true);
+
+		assertEquals(1, table.size());
+		assertEquals("app", table.key(0));
+		assertEquals(100, table.count(0));
+		assertEquals(1, table.failures(0));
+		assertEquals(2000, table.max(0));
+		assertEquals(59, table.mean(0));
+		assertEquals("Median falls in the 50us bucket", 50, table.percentile(0, 50));
+		assertEquals("Top percentile is capped at the maximum", 2000, table.percentile(0, 100));
+	}
+
+	@Test
+	public void testOverflowAndReset() {
+		LatencyHistogramTable<String> table = new LatencyHistogramTable<>(2, LatencyHistogramTable.OVERFLOW_KEY);
+		table.record("a", 1, false);
+		table.record("b", 1, false);
+		table.record("c", 1, false);
+		table.record("d", 1, false);
+
+		assertEquals("Keys beyond the capacity share the overflow slot", 3, table.size());
+		assertEquals(LatencyHistogramTable.OVERFLOW_KEY, table.key(2));
+		assertEquals(2, table.count(2));
+
+		table.reset();
+		assertEquals(0, table.size());
+		table.record("e", 1, false);
+		assertEquals(1, table.count(0));
+		assertEquals(1, table.max(0));
+	}
+
+	@Test
+	public void testFindAndAdd() {
+		LatencyHistogramTable<ActivityTraceCollector.OperationKey> table = new LatencyHistogramTable<>(1,
+				ActivityTraceCollector.OperationKey.OVERFLOW);
+		ActivityTraceCollector.OperationKey lookup = new ActivityTraceCollector.OperationKey("app", "Q1", 1);
+		assertEquals(-1, table.find(lookup));
+		int slot = table.add(lookup.copy());
+		table.record(slot, 10, false);
+
+		assertEquals("A reused lookup key finds the copy", slot, table.find(lookup.set("app", "Q1", 1)));
+		assertEquals(-1, table.find(lookup.set("app", "Q2", 1)));
+		assertEquals("Keys beyond the capacity share the overflow slot", 1, table.add(lookup.copy()));
+		assertEquals(1, table.add(lookup.set("app", "Q3", 1).copy()));
+		assertEquals(ActivityTraceCollector.OperationKey.OVERFLOW, table.key(1));
+	}
+}
@@ -0,0 +1,59 @@
+package com.newrelic.infra.ibmmq;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.ibm.mq.constants.MQConstants;
+
+public class LatencyProbeTest {
+
+	private static final long PREFIX = 0x1234567890abcdefL;
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	public void probeIdCarriesPrefixAndSequence() {
+		byte[] id = LatencyProbe.probeId(PREFIX, 42);
+		assertEquals(MQConstants.MQ_MSG_ID_LENGTH, id.length);
+		assertEquals(42, LatencyProbe.sequenceOf(id, PREFIX));
+	}
+
+	@Test
+	public void correlationIdIsTheInstancePrefix() {
+		byte[] correlationId = LatencyProbe.correlationId(PREFIX);
+		assertEquals(MQConstants.MQ_CORREL_ID_LENGTH, correlationId.length);
+		assertArrayEquals(LatencyProbe.correlationId(PREFIX), correlationId);
+		assertFalse(Arrays.equals(LatencyProbe.correlationId(PREFIX + 1), correlationId));
+	}
+
+	@Test
+	public void otherIdsAreNotProbes() {
+		assertEquals("Another instance's probe", -1, LatencyProbe.sequenceOf(LatencyProbe.probeId(PREFIX + 1, 42), PREFIX));
+		assertEquals(-1, LatencyProbe.sequenceOf(MQConstants.MQMI_NONE, PREFIX));
+		assertEquals(-1, LatencyProbe.sequenceOf(null, PREFIX));
+		byte[] padded = LatencyProbe.probeId(PREFIX, 42);
+		padded[MQConstants.MQ_MSG_ID_LENGTH - 1] = 1;
+		assertEquals(-1, LatencyProbe.sequenceOf(padded, PREFIX));
+	}
+
+	@Test
+	public void nextPutKeepsTheInterval() {
+		assertEquals("On schedule", 20 * SECOND, LatencyProbe.nextPut(10 * SECOND, 10 * SECOND + 5, 10 * SECOND));
+		assertEquals("Late, but within an interval", 20 * SECOND, LatencyProbe.nextPut(10 * SECOND, 15 * SECOND, 10 * SECOND));
+		assertEquals("Over an interval behind restarts from now", 35 * SECOND,
+				LatencyProbe.nextPut(10 * SECOND, 25 * SECOND, 10 * SECOND));
+	}
+
+	@Test
+	public void waitsForTheEarlierOfNextPutAndTimeout() {
+		assertEquals(2 * SECOND, LatencyProbe.waitNanos(0, 5 * SECOND, 2 * SECOND, 1));
+		assertEquals(5 * SECOND, LatencyProbe.waitNanos(0, 5 * SECOND, 7 * SECOND, 1));
+		assertEquals("Several targets in flight share the wait", TimeUnit.MILLISECONDS.toNanos(20),
+				LatencyProbe.waitNanos(0, 5 * SECOND, 2 * SECOND, 2));
+	}
+}
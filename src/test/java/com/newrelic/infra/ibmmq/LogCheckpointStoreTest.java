@@ -0,0 +1,66 @@
+package com.newrelic.infra.ibmmq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class LogCheckpointStoreTest {
+
+	private String statePath = "LogCheckpointStoreTest.state";
+
+	@After
+	public void tearDown() {
+		new File(statePath).delete();
+	}
+
+	@Test
+	public void savesAllPositionsInOneFile() throws Exception {
+		LogCheckpointStore store = new LogCheckpointStore(statePath);
+		assertNull(store.get("AMQERR01.LOG"));
+
+		LogReader.State first = new LogReader.State();
+		first.offset = 100;
+		first.fileKey = "(dev=1,ino=2)";
+		first.fingerprintLength = 50;
+		first.fingerprint = 1234;
+		store.update("AMQERR01.LOG", first);
+		LogReader.State second = new LogReader.State();
+		second.offset = 7;
+		store.update("mqmaint_err.log", second);
+		store.save();
+		assertFalse(new File(statePath + ".tmp").exists());
+
+		LogCheckpointStore reloaded = new LogCheckpointStore(statePath);
+		assertEquals(100, reloaded.get("AMQERR01.LOG").offset);
+		assertEquals("(dev=1,ino=2)", reloaded.get("AMQERR01.LOG").fileKey);
+		assertEquals(1234, reloaded.get("AMQERR01.LOG").fingerprint);
+		assertEquals(7, reloaded.get("mqmaint_err.log").offset);
+		assertEquals(-1, reloaded.get("mqmaint_err.log").fingerprintLength);
+	}
+
+	@Test
+	public void retainsOnlyTheCollectorsOwnFiles() throws Exception {
+		String dir = new File("errors").getPath() + File.separator;
+		LogCheckpointStore store = new LogCheckpointStore(statePath);
+		store.update(dir + "AMQERR01.LOG", new LogReader.State());
+		store.update(dir + "AMQ1234.0.FDC", new LogReader.State());
+		store.update(dir + "AMQ5678.0.FDC", new LogReader.State());
+
+		// The FDC files and the error log share the directory.
+		store.retain("errors", "", ".FDC", Collections.singleton(dir + "AMQ5678.0.FDC"));
+		assertNull(store.get(dir + "AMQ1234.0.FDC"));
+		assertNotNull(store.get(dir + "AMQ5678.0.FDC"));
+		assertNotNull(store.get(dir + "AMQERR01.LOG"));
+
+		store.retain("errors", "mqmaint_err.", "", Collections.<String>emptySet());
+		assertNotNull(store.get(dir + "AMQERR01.LOG"));
+		assertNotNull(store.get(dir + "AMQ5678.0.FDC"));
+	}
+}
@@ -0,0 +1,32 @@
+package com.newrelic.infra.ibmmq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LogPatternMatcherTest {
+
+	@Test
+	public void findsOverlappingPatterns() {
+		LogPatternMatcher matcher = new LogPatternMatcher(Arrays.asList("he", "she", "hers", "AMQ9526"));
+		assertEquals(Arrays.asList(1, 0, 2), matcher.matches("ushers"));
+		assertEquals(Arrays.asList(3), matcher.matches("AMQ9526E: AMQ9526 repeated"));
+	}
+
+	@Test
+	public void ignoresNonAsciiText() {
+		LogPatternMatcher matcher = new LogPatternMatcher(Arrays.asList("AMQ"));
+		List<Integer> found = matcher.matches("AMéQ");
+		assertTrue(found.isEmpty());
+		assertEquals(Arrays.asList(0), matcher.matches("éAMQ"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNonAsciiPatterns() {
+		new LogPatternMatcher(Arrays.asList("café"));
+	}
+}
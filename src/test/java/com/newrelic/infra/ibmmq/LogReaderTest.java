@@ -8,6 +8,8 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -16,11 +18,13 @@ public class LogReaderTest {
 	private String logPath = "LogReaderTest.txt";
 	private String statePath = "LogReaderTestState.txt";
 	private String searchPhrase = "special";
+	private LogCheckpointStore checkpoints;
 	private LogReader reader;
 
 	@Before
 	public void setup() throws Exception {
-		reader = new LogReader(logPath, statePath, searchPhrase);
+		checkpoints = new LogCheckpointStore(statePath);
+		reader = new LogReader(logPath, checkpoints);
 		createTestFile();
 	}
 
@@ -32,17 +36,116 @@ public class LogReaderTest {
 
 	@Test
 	public void testRead() throws Exception {
-		assertNull("Shouldn't find the search value on an empty file", reader.findSearchValueLine());
+		LogPatternMatcher matcher = new LogPatternMatcher(Arrays.asList(searchPhrase));
+		assertTrue("Shouldn't find the search value on an empty file", reader.findMatches(matcher, 1).isEmpty());
 
 		appendTestFile("Some text");
 		appendTestFile("More text");
 
-		assertNull("Don't find search value when it's not in the file", reader.findSearchValueLine());
+		assertTrue("Don't find search value when it's not in the file", reader.findMatches(matcher, 1).isEmpty());
 
 		appendTestFile(searchPhrase + " text here");
 		appendTestFile("more text");
 
-		assertNotNull("Find search value when it's in file", reader.findSearchValueLine());
+		assertEquals("Find search value when it's in file", 1, reader.findMatches(matcher, 1).size());
+	}
+
+	@Test
+	public void testResumesFromCommittedPosition() throws Exception {
+		LogPatternMatcher matcher = new LogPatternMatcher(Arrays.asList(searchPhrase));
+		appendTestFile(searchPhrase + " one");
+		assertEquals(1, reader.findMatches(matcher, 10).size());
+		assertNull("Only commit puts the position in the store", checkpoints.get(logPath));
+
+		reader.commit();
+		checkpoints.save();
+		appendTestFile(searchPhrase + " two");
+
+		LogReader restarted = new LogReader(logPath, new LogCheckpointStore(statePath));
+		List<LogReader.Match> matches = restarted.findMatches(matcher, 10);
+		assertEquals(1, matches.size());
+		assertEquals(searchPhrase + " two", matches.get(0).getEntry().getText());
+	}
+
+	@Test
+	public void testFindMatches() throws Exception {
+		LogPatternMatcher matcher = new LogPatternMatcher(Arrays.asList("AMQ9526", "AMQ9999"));
+		appendTestFile("AMQ9526E: Message sequence number error");
+		appendTestFile("Some text");
+		appendTestFile("AMQ9999E: Channel ended abnormally");
+		appendTestFile("AMQ9526E: Message sequence number error again");
+
+		List<LogReader.Match> matches = reader.findMatches(matcher, 2);
+		assertEquals(2, matches.size());
+		assertEquals(0, matches.get(0).getPattern());
+		assertEquals(1, matches.get(1).getPattern());
+
+		matches = reader.findMatches(matcher, 2);
+		assertEquals("Resume after the last reported line", 1, matches.size());
+		assertEquals("AMQ9526E: Message sequence number error again", matches.get(0).getEntry().getText());
+
+		assertTrue(reader.findMatches(matcher, 2).isEmpty());
+	}
+
+	@Test
+	public void testFindMatchesAcrossRotation() throws Exception {
+		String rotatedPath = "LogReaderTest.2.txt";
+		LogReader rotatingReader = new LogReader(logPath, checkpoints, rotatedPath);
+		LogPatternMatcher matcher = new LogPatternMatcher(Arrays.asList(searchPhrase));
+		try {
+			appendTestFile(searchPhrase + " one");
+			assertEquals(1, rotatingReader.findMatches(matcher, 10).size());
+
+			appendTestFile(searchPhrase + " written before rotation");
+			assertTrue(new File(logPath).renameTo(new File(rotatedPath)));
+			createTestFile();
+			appendTestFile(searchPhrase + " written after rotation");
+
+			List<LogReader.Match> matches = rotatingReader.findMatches(matcher, 10);
+			assertEquals(2, matches.size());
+			assertEquals(searchPhrase + " written before rotation", matches.get(0).getEntry().getText());
+			assertEquals(searchPhrase + " written after rotation", matches.get(1).getEntry().getText());
+			assertTrue("Don't read the rotated file again", rotatingReader.findMatches(matcher, 10).isEmpty());
+		} finally {
+			removeFile(rotatedPath);
+		}
+	}
+
+	@Test
+	public void testFindEntriesHoldsPartialEntry() throws Exception {
+		LogPatternMatcher matcher = new LogPatternMatcher(Arrays.asList("AMQ9526"));
+		appendTestFile("-----------------------------------------------------------------------------");
+		appendTestFile("10/19/2026 10:00:00 AM - Process(1234.5) User(mqm) Program(amqrmppa)");
+		appendTestFile("");
+		appendTestFile("AMQ9526E: Message sequence number error for channel 'TO.QM2'.");
+		assertTrue(reader.findEntries(new AmqErrorLogParser(), matcher, 10).isEmpty());
+
+		appendTestFile("----- amqrmrsa.c : 938 --------------------------------------------------------");
+		List<LogReader.Match> matches = reader.findEntries(new AmqErrorLogParser(), matcher, 10);
+		assertEquals("Read the whole entry once it's complete", 1, matches.size());
+		assertEquals("1234.5", matches.get(0).getEntry().getProcess());
+		assertTrue(reader.findEntries(new AmqErrorLogParser(), matcher, 10).isEmpty());
+	}
+
+	@Test
+	public void testFindMatchesAcrossReadBuffers() throws Exception {
+		LogPatternMatcher matcher = new LogPatternMatcher(Arrays.asList(searchPhrase));
+		StringBuilder filler = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			filler.append("Caf\u00e9 text without the phrase ");
+		}
+		for (int i = 0; i < 40; i++) {
+			appendTestFile(filler.toString());
+		}
+		appendTestFile("\u00e9" + searchPhrase + " after a multibyte character");
+		for (int i = 0; i < 40; i++) {
+			appendTestFile(filler.toString());
+		}
+		appendTestFile(searchPhrase + " at the end");
+
+		List<LogReader.Match> matches = reader.findMatches(matcher, 10);
+		assertEquals(2, matches.size());
+		assertEquals(searchPhrase + " at the end", matches.get(1).getEntry().getText());
 	}
 
 	public void createTestFile() throws IOException {
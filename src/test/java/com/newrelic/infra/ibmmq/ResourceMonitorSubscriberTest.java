@@ -0,0 +1,65 @@
+package com.newrelic.infra.ibmmq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.ibm.mq.constants.MQConstants;
+import com.ibm.mq.headers.pcf.MQCFIN64;
+import com.ibm.mq.headers.pcf.PCFMessage;
+
+public class ResourceMonitorSubscriberTest {
+
+	private static final int PUTS = 0;
+	private static final int DEPTH = 1;
+	private static final int CPU = 2;
+
+	@Test
+	public void namesAttributesFromDescriptions() {
+		assertEquals("userCpuTimePercentage", ResourceMonitorSubscriber.attributeName("User CPU time percentage"));
+		assertEquals("ramFreePercentage", ResourceMonitorSubscriber.attributeName("RAM free percentage"));
+		assertEquals("mqTraceFileSystemInUseMb",
+				ResourceMonitorSubscriber.attributeName("MQ trace file system - in use (MB)"));
+	}
+
+	@Test
+	public void sumsDeltasAndKeepsLastLevels() {
+		Map<Integer, ResourceMonitorSubscriber.Element> elements = new HashMap<>();
+		elements.put(PUTS, new ResourceMonitorSubscriber.Element("putCount", MQConstants.MQIAMO_MONITOR_DELTA));
+		elements.put(DEPTH, new ResourceMonitorSubscriber.Element("depth", MQConstants.MQIAMO_MONITOR_UNIT));
+		elements.put(CPU, new ResourceMonitorSubscriber.Element("cpu", MQConstants.MQIAMO_MONITOR_PERCENT));
+
+		Map<String, Number> values = new LinkedHashMap<>();
+		ResourceMonitorSubscriber.decode(publication(5, 40, 1250), elements, values);
+		ResourceMonitorSubscriber.decode(publication(7, 12, 300), elements, values);
+
+		assertEquals(12L, values.get("putCount").longValue());
+		assertEquals(12L, values.get("depth").longValue());
+		assertEquals(3.0, values.get("cpu").doubleValue(), 0.0001);
+	}
+
+	@Test
+	public void ignoresUnknownElements() {
+		Map<Integer, ResourceMonitorSubscriber.Element> elements = new HashMap<>();
+		elements.put(PUTS, new ResourceMonitorSubscriber.Element("putCount", MQConstants.MQIAMO_MONITOR_DELTA));
+
+		Map<String, Number> values = new LinkedHashMap<>();
+		ResourceMonitorSubscriber.decode(publication(5, 40, 1250), elements, values);
+
+		assertEquals(1, values.size());
+		assertFalse(values.containsKey("depth"));
+	}
+
+	private static PCFMessage publication(long puts, long depth, long cpu) {
+		PCFMessage pcf = new PCFMessage(MQConstants.MQCFT_STATISTICS, MQConstants.MQCMD_NONE, 1, true);
+		pcf.addParameter(new MQCFIN64(PUTS, puts));
+		pcf.addParameter(new MQCFIN64(DEPTH, depth));
+		pcf.addParameter(new MQCFIN64(CPU, cpu));
+		return pcf;
+	}
+}
@@ -0,0 +1,102 @@
+package com.newrelic.infra.ibmmq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.ibm.mq.MQMessage;
+import com.ibm.mq.constants.MQConstants;
+import com.ibm.mq.headers.pcf.MQCFGR;
+import com.ibm.mq.headers.pcf.PCFMessage;
+
+public class StatisticsMetricCollectorTest {
+
+	@Test
+	public void mergesQueueStatisticsAcrossMessages() throws Exception {
+		Map<String, StatisticsMetricCollector.QueueStatistics> statistics = new HashMap<>();
+
+		PCFMessage first = statistics(MQConstants.MQCMD_STATISTICS_Q);
+		first.addParameter(queue("APP.ORDERS", new int[] { 10, 5 }, 2, 3, 40));
+		first.addParameter(queue("APP.AUDIT", new int[] { 1, 0 }, 0, 0, 1));
+		StatisticsMetricCollector.mergeQueueStatistics(roundTrip(first), 60, statistics);
+
+		PCFMessage second = statistics(MQConstants.MQCMD_STATISTICS_Q);
+		second.addParameter(queue("APP.ORDERS", new int[] { 0, 4 }, 1, 1, 25));
+		StatisticsMetricCollector.mergeQueueStatistics(roundTrip(second), 60, statistics);
+
+		assertEquals(2, statistics.size());
+		StatisticsMetricCollector.QueueStatistics orders = statistics.get("APP.ORDERS");
+		// Puts by persistence, plus the put1s of each interval.
+		assertEquals(15 + 2 + 4 + 1, orders.puts);
+		assertEquals(3 + 1, orders.gets);
+		assertEquals(25, orders.minDepth);
+		assertEquals(40, orders.maxDepth);
+		assertEquals(120, orders.intervalSeconds);
+		assertEquals(60, statistics.get("APP.AUDIT").intervalSeconds);
+	}
+
+	@Test
+	public void mergesChannelStatistics() throws Exception {
+		Map<String, StatisticsMetricCollector.ChannelStatistics> statistics = new HashMap<>();
+
+		for (int i = 0; i < 2; i++) {
+			PCFMessage pcf = statistics(MQConstants.MQCMD_STATISTICS_CHANNEL);
+			MQCFGR group = new MQCFGR();
+			group.setParameter(MQConstants.MQGACF_CHL_STATISTICS_DATA);
+			group.addParameter(MQConstants.MQCACH_CHANNEL_NAME, "TO.QM2");
+			group.addParameter(MQConstants.MQIACH_CHANNEL_TYPE, MQConstants.MQCHT_SENDER);
+			group.addParameter(MQConstants.MQCACH_CONNECTION_NAME, "10.0.0.2(1414)");
+			group.addParameter(MQConstants.MQIAMO_MSGS, 100);
+			group.addParameter(MQConstants.MQIAMO64_BYTES, new long[] { 1000L, 24L });
+			group.addParameter(MQConstants.MQIAMO_FULL_BATCHES, 2);
+			group.addParameter(MQConstants.MQIAMO_INCOMPLETE_BATCHES, 3);
+			pcf.addParameter(group);
+			StatisticsMetricCollector.mergeChannelStatistics(roundTrip(pcf), 30, statistics);
+		}
+
+		StatisticsMetricCollector.ChannelStatistics channel = statistics.get("TO.QM2");
+		assertEquals(200, channel.messages);
+		assertEquals(2048, channel.bytes);
+		assertEquals(4, channel.fullBatches);
+		assertEquals(6, channel.incompleteBatches);
+		assertEquals(60, channel.intervalSeconds);
+		assertEquals("10.0.0.2(1414)", channel.connectionName);
+		assertTrue(channel.channelType.endsWith("SENDER"));
+	}
+
+	@Test
+	public void sumsListsAndSingleValues() {
+		assertEquals(7, StatisticsMetricCollector.sum(7));
+		assertEquals(7, StatisticsMetricCollector.sum(new int[] { 3, 4 }));
+		assertEquals(7, StatisticsMetricCollector.sum(new long[] { 3L, 4L }));
+		assertEquals(0, StatisticsMetricCollector.sum(null));
+	}
+
+	private static MQCFGR queue(String name, int[] puts, int put1s, int gets, int depth) {
+		MQCFGR group = new MQCFGR();
+		group.setParameter(MQConstants.MQGACF_Q_STATISTICS_DATA);
+		group.addParameter(MQConstants.MQCA_Q_NAME, name);
+		group.addParameter(MQConstants.MQIAMO_PUTS, puts);
+		group.addParameter(MQConstants.MQIAMO_PUT1S, new int[] { put1s, 0 });
+		group.addParameter(MQConstants.MQIAMO_GETS, new int[] { gets, 0 });
+		group.addParameter(MQConstants.MQIAMO_Q_MIN_DEPTH, depth);
+		group.addParameter(MQConstants.MQIAMO_Q_MAX_DEPTH, depth);
+		return group;
+	}
+
+	private static PCFMessage statistics(int command) {
+		return new PCFMessage(MQConstants.MQCFT_STATISTICS, command, 1, true);
+	}
+
+	private static PCFMessage roundTrip(PCFMessage pcf) throws Exception {
+		MQMessage message = new MQMessage();
+		message.format = MQConstants.MQFMT_ADMIN;
+		pcf.write(message);
+		message.seek(0);
+		return new PCFMessage(message);
+	}
+}